@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import android.os.SystemClock
+import android.webkit.ValueCallback
+import com.jd.jdbridge.base.IBridgeWebView
+import org.json.JSONObject
+
+/**
+ * Measures native -> web -> native round trips with a payload of [payloadSize] chars:
+ * first through evaluateJavascript (the payload is escaped into the script and its length
+ * returned by the result callback), then through [MessagePortTransport] pings echoed by web.
+ * Runs sequentially on the main thread.
+ */
+internal class BridgeBenchmark(
+    private val webView: IBridgeWebView,
+    private val portTransport: MessagePortTransport,
+    private val iterations: Int,
+    payloadSize: Int
+) {
+
+    private val payload = buildString(payloadSize) {
+        //Characters that need escaping make the script path pay its real cost
+        val sample = "abc\"\\'\n中文"
+        while (length < payloadSize) {
+            append(sample[length % sample.length])
+        }
+    }
+
+    fun start(onResult: (JSONObject) -> Unit) {
+        measureScript(0, 0L) { scriptNanos ->
+            if (!portTransport.isActive) {
+                onResult(result(scriptNanos, null))
+                return@measureScript
+            }
+            measurePort(0, 0L) { portNanos ->
+                onResult(result(scriptNanos, portNanos))
+            }
+        }
+    }
+
+    private fun measureScript(round: Int, total: Long, onDone: (Long) -> Unit) {
+        if (round >= iterations) {
+            onDone(total)
+            return
+        }
+        val start = SystemClock.elapsedRealtimeNanos()
+        val script = "(function(s){return s.length})(${JSONObject.quote(payload)})"
+        webView.evaluateJavascript(script, ValueCallback {
+            measureScript(round + 1, total + SystemClock.elapsedRealtimeNanos() - start, onDone)
+        })
+    }
+
+    private fun measurePort(round: Int, total: Long, onDone: (Long?) -> Unit) {
+        if (round >= iterations) {
+            onDone(total)
+            return
+        }
+        portTransport.ping(payload) { nanos ->
+            if (nanos < 0) {
+                onDone(null)
+            } else {
+                measurePort(round + 1, total + nanos, onDone)
+            }
+        }
+    }
+
+    private fun result(scriptNanos: Long, portNanos: Long?): JSONObject {
+        val rounds = iterations.coerceAtLeast(1)
+        return JSONObject()
+            .put("iterations", iterations)
+            .put("payloadSize", payload.length)
+            .put("evaluateJavascriptMs", scriptNanos / rounds / 1_000_000.0)
+            .put("messagePortMs", portNanos?.let { it / rounds / 1_000_000.0 } ?: JSONObject.NULL)
+    }
+}
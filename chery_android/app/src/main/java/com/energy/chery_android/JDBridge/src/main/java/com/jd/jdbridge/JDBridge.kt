@@ -24,9 +24,9 @@
  */
 package com.jd.jdbridge
 
+import android.os.SystemClock
 import android.util.Log
 import android.webkit.JavascriptInterface
-import com.jd.jdbridge.WebUtils.arrayToJsonArray
 import com.jd.jdbridge.JDBridgeConstant.JS_ALERT_DEBUG_MSG
 import com.jd.jdbridge.JDBridgeConstant.JS_CALL_WEB
 import com.jd.jdbridge.JDBridgeConstant.JS_DISPATCH_EVENT
@@ -34,8 +34,12 @@ import com.jd.jdbridge.JDBridgeConstant.JS_RESPOND_TO_WEB
 import com.jd.jdbridge.JDBridgeConstant.JS_SET_DEBUG
 import com.jd.jdbridge.JDBridgeConstant.MODULE_TAG
 import com.jd.jdbridge.JDBridgeConstant.MSG_ACTION_NOT_FOUND
+import com.jd.jdbridge.JDBridgeConstant.MSG_CANCELLED
 import com.jd.jdbridge.JDBridgeConstant.MSG_EXCEPTION
 import com.jd.jdbridge.JDBridgeConstant.MSG_PLUGIN_NOT_FOUND
+import com.jd.jdbridge.JDBridgeConstant.MSG_QUEUE_FULL
+import com.jd.jdbridge.JDBridgeConstant.MSG_SYNC_NOT_SUPPORTED
+import com.jd.jdbridge.JDBridgeConstant.MSG_TIMEOUT
 import com.jd.jdbridge.JDBridgeConstant.STATUS_ERROR
 import com.jd.jdbridge.JDBridgeConstant.STATUS_EXCEPTION
 import com.jd.jdbridge.JDBridgeConstant.STATUS_NOT_FOUND
@@ -44,10 +48,10 @@ import com.jd.jdbridge.base.*
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
-import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 class JDBridge(val webView: IBridgeWebView) : IProxy {
 
@@ -56,6 +60,10 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
 
         private const val TAG = "${MODULE_TAG}-JDBridge"
 
+        private const val EVENT_KEY_VISIBILITY = "_containerVisibility"
+
+        private const val EVENT_KEY_ACTIVITY = "_containerActivity"
+
     }
 
     override val name: String
@@ -63,7 +71,11 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
 
     private var firstJsQueue = AtomicBoolean(true)
 
-    private var callJsQueue: LinkedList<Request>? = LinkedList()
+    /**
+     * Calls and events waiting for web JDBridge, null once it is ready.
+     */
+    @Volatile
+    private var startupQueue: StartupQueue? = StartupQueue(JDBridgeManager.startupQueueCapacity)
 
     /**
      * The name to value of [nativeCallbackMap]
@@ -73,69 +85,179 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
     /**
      * Save native callback invoked after js responded.
      */
-    private val nativeCallbackMap: MutableMap<String, IBridgeCallback> by lazy { ConcurrentHashMap<String, IBridgeCallback>() }
+    private val nativeCallbackMap = ConcurrentHashMap<String, PendingCall>()
+
+    /**
+     * A native call waiting for js, removed from [nativeCallbackMap] exactly once:
+     * by the response, the timeout or the cancellation.
+     */
+    private class PendingCall(val callback: IBridgeCallback) {
+        @Volatile
+        var timeout: TimeoutWheel.Timeout? = null
+    }
+
+    /**
+     * Increased on navigation, responses of web calls from an older page are dropped.
+     */
+    private val pageGeneration = AtomicInteger(0)
+
+    private val pendingWebCalls = AtomicInteger(0)
+
+    private val timedOutCalls = AtomicLong(0)
+
+    private val cancelledCalls = AtomicLong(0)
+
+    @Volatile
+    private var destroyed = false
 
     /**
      * A default native plugin that binds to WebView instance. JS can call this without plugin name.
      */
+    @Volatile
     private var nativeDefaultPlugin: IBridgePlugin? = null
 
     /**
-     * save native plugin that binds to WebView instance
+     * save native plugin that binds to WebView instance, read without locking on every call
      */
-    private val nativeLocalPluginMap: MutableMap<String, IBridgePlugin> by lazy { HashMap<String, IBridgePlugin>() }
+    private val nativeLocalPluginMap = ConcurrentHashMap<String, IBridgePlugin>()
+
+    /**
+     * Optional message port transport, used after web requested and confirmed it.
+     */
+    private val portTransport = MessagePortTransport(webView, { handleRequest(it) }, { handleRequests(it) })
+
+    /**
+     * Coalesces calls, responses and events to web into one script per frame.
+     */
+    private val outboundQueue = JsMessageQueue(webView, portTransport)
 
     init {
         registerPlugin("_jdbridge", JDBridgeModule())
+        if (JDBridgeManager.eagerPluginWarmUp) {
+            warmUpPlugins()
+        }
     }
 
     fun onStart() {
-        dispatchEvent("ContainerShow")
+        dispatchEvent("ContainerShow", null, EVENT_KEY_VISIBILITY, BridgePriority.HIGH)
     }
 
     fun onResume() {
-        dispatchEvent("ContainerActive")
+        dispatchEvent("ContainerActive", null, EVENT_KEY_ACTIVITY, BridgePriority.HIGH)
     }
 
     fun onPause() {
-        dispatchEvent("ContainerInactive")
+        dispatchEvent("ContainerInactive", null, EVENT_KEY_ACTIVITY, BridgePriority.HIGH)
     }
 
     fun onStop() {
-        dispatchEvent("ContainerHide")
+        dispatchEvent("ContainerHide", null, EVENT_KEY_VISIBILITY, BridgePriority.HIGH)
     }
 
     fun destroy() {
-        synchronized(this) {
-            for (it in nativeLocalPluginMap) {
-                if (it.value is Destroyable) {
-                    (it.value as Destroyable).destroy()
-                }
+        //Set first, so plugins created by warmUpPlugins from now on are destroyed by their creator
+        destroyed = true
+        for (it in nativeLocalPluginMap) {
+            //A plugin is destroyed by whoever removes it, here or in createGlobalPlugin
+            if (nativeLocalPluginMap.remove(it.key, it.value) && it.value is Destroyable) {
+                (it.value as Destroyable).destroy()
             }
         }
 
         if (nativeDefaultPlugin is Destroyable) {
             (nativeDefaultPlugin as Destroyable).destroy()
         }
+        val queue = startupQueue
+        startupQueue = null
+        cancelCalls(queue?.drain())
+        outboundQueue.destroy()
+        webView.runOnMain(Runnable { portTransport.destroy() })
+    }
+
+    /**
+     * Send queued calls, responses and events to web now instead of on the next frame.
+     */
+    fun flush() {
+        outboundQueue.flush()
     }
 
     fun startQueueRequest() {
+        //The port belongs to the old page
+        webView.runOnMain(Runnable { portTransport.close() })
         if (!firstJsQueue.compareAndSet(true, false)) {
-            callJsQueue?.forEach { removeJsCall(it) }
-            callJsQueue = LinkedList()
+            val queue = startupQueue
+            startupQueue = StartupQueue(JDBridgeManager.startupQueueCapacity)
+            cancelCalls(queue?.drain())
         }
     }
 
-    fun registerPlugin(pluginName: String, plugin: IBridgePlugin) {
-        synchronized(this) {
-            nativeLocalPluginMap[pluginName] = plugin
+    /**
+     * Outstanding calls, see [BridgeCallStats].
+     */
+    fun getCallStats(): BridgeCallStats {
+        return BridgeCallStats(
+            nativeCallbackMap.size,
+            pendingWebCalls.get(),
+            timedOutCalls.get(),
+            cancelledCalls.get()
+        )
+    }
+
+    /**
+     * Fail the native calls still waiting for js and the [queued] ones not sent yet with
+     * [MSG_CANCELLED], and stop answering web calls of the old page.
+     */
+    private fun cancelCalls(queued: List<StartupQueue.Entry>?) {
+        pageGeneration.incrementAndGet()
+        pendingWebCalls.set(0)
+        val callbacks = ArrayList<IBridgeCallback>()
+        queued?.forEach { entry ->
+            (entry as? StartupQueue.Entry.Call)?.request?.callback?.let { callbacks.add(it) }
+        }
+        for (callbackId in nativeCallbackMap.keys) {
+            nativeCallbackMap.remove(callbackId)?.let {
+                it.timeout?.cancel()
+                callbacks.add(it.callback)
+            }
+        }
+        if (callbacks.isEmpty()) {
+            return
         }
+        cancelledCalls.addAndGet(callbacks.size.toLong())
+        logD("cancelCalls, ${callbacks.size} call(s) cancelled")
+        webView.runOnMain(Runnable {
+            callbacks.forEach {
+                try {
+                    it.onError(MSG_CANCELLED)
+                } catch (e: Exception) {
+                    logE(e)
+                }
+            }
+        })
+    }
+
+    fun registerPlugin(pluginName: String, plugin: IBridgePlugin) {
+        nativeLocalPluginMap[pluginName] = plugin
     }
 
     fun unregisterPlugin(pluginName: String) {
-        synchronized(this) {
-            nativeLocalPluginMap.remove(pluginName)
-        }
+        nativeLocalPluginMap.remove(pluginName)
+    }
+
+    /**
+     * Create the global plugins registered in [JDBridgeManager] in background,
+     * so the first call of each plugin does not pay for creating it.
+     */
+    fun warmUpPlugins() {
+        PluginDispatcher.executeDetached(Runnable {
+            for (pluginName in JDBridgeManager.getPluginNames()) {
+                try {
+                    createGlobalPlugin(pluginName)
+                } catch (e: Exception) {
+                    logE(e)
+                }
+            }
+        })
     }
 
     fun registerDefaultPlugin(plugin: IBridgePlugin) {
@@ -147,43 +269,76 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
      * Otherwise dispatch the request to web right now.
      */
     private fun queueJsCall(request: Request) {
-        callJsQueue?.apply {
-            addLast(request)
-            logD("queueJsCall, queue size = $size")
-        } ?: run {
+        if (destroyed) {
+            request.callback?.let { webView.runOnMain(Runnable { it.onError(MSG_CANCELLED) }) }
+            return
+        }
+        if (!offerStartupEntry(StartupQueue.Entry.Call(request, request.priority))) {
             logD("dispatchJsCall, request: ${request.plugin}")
             dispatchJsCall(request)
         }
     }
 
     /**
-     * Save the callback into map, then call [JS_CALL_WEB] to notify js.
-     * When js result returns by [respondFromJs], retrieve the callback from map.
+     * Queue [entry] if web JDBridge is not ready yet.
+     * Calls dropped because the queue is full receive [MSG_QUEUE_FULL].
+     * @return false if web JDBridge is ready and [entry] should be sent now
      */
-    private fun dispatchJsCall(request: Request) {
-        if (!request.callbackId.isNullOrEmpty() && request.callback != null) {
-            nativeCallbackMap[request.callbackId] = request.callback!!
+    private fun offerStartupEntry(entry: StartupQueue.Entry): Boolean {
+        val queue = startupQueue ?: return false
+        val result = queue.offer(entry)
+        if (!result.accepted) {
+            return false
         }
-        webView.runOnMain(Runnable {
-            webView.evaluateJavascript(JS_CALL_WEB.format(request.toString()), null)
-        })
+        logD("offerStartupEntry, queue size = ${queue.count}")
+        result.dropped.forEach { dropped ->
+            val call = dropped as? StartupQueue.Entry.Call ?: return@forEach
+            val callback = call.request.callback ?: return@forEach
+            logD("Startup queue is full, drop call to ${call.request.plugin}")
+            webView.runOnMain(Runnable { callback.onError(MSG_QUEUE_FULL) })
+        }
+        return true
     }
 
-    private fun removeJsCall(request: Request) {
-        if (!request.callbackId.isNullOrEmpty()) {
-            nativeCallbackMap.remove(request.callbackId)
+    /**
+     * Save the callback into map, then call [JS_CALL_WEB] to notify js.
+     * When js result returns by [respondFromJs], retrieve the callback from map.
+     */
+    private fun dispatchJsCall(request: Request) {
+        val callbackId = request.callbackId
+        val callback = request.callback
+        if (!callbackId.isNullOrEmpty() && callback != null) {
+            val call = PendingCall(callback)
+            nativeCallbackMap[callbackId] = call
+            if (request.timeoutMs > 0) {
+                call.timeout = TimeoutWheel.schedule(request.timeoutMs, Runnable {
+                    if (nativeCallbackMap.remove(callbackId, call)) {
+                        timedOutCalls.incrementAndGet()
+                        logD("Call to js ${request.plugin} timed out, callbackId = $callbackId")
+                        webView.runOnMain(Runnable { callback.onError(MSG_TIMEOUT) })
+                    }
+                })
+            }
         }
+        outboundQueue.enqueue(
+            { encodeScript(JS_CALL_WEB, request::writeTo) },
+            { encodePayload("{\"t\":\"req\",\"d\":", request::writeTo) }
+        )
     }
 
     /**
      * Call js with request which called before JDBridge is ready.
      */
     private fun dispatchStartupJsCall() {
-        val queue = callJsQueue
-        logD("dispatchStartupJsCall, queue size = ${queue?.size}")
-        callJsQueue = null
-        queue?.forEach { request ->
-            dispatchJsCall(request)
+        val queue = startupQueue
+        startupQueue = null
+        val entries = queue?.drain() ?: return
+        logD("dispatchStartupJsCall, queue size = ${entries.size}")
+        entries.forEach { entry ->
+            when (entry) {
+                is StartupQueue.Entry.Call -> dispatchJsCall(entry.request)
+                is StartupQueue.Entry.Event -> sendEvent(entry.name, entry.params)
+            }
         }
     }
 
@@ -193,8 +348,17 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
      * @param params passed to js, may be a simple string value, a json string,
      *              a json object or an array, etc. It will be converted to json string.
      * @param callback callback function will be invoked after js result returns
+     * @param timeoutMs callback receives [MSG_TIMEOUT] if js does not respond in time, 0 means no timeout
+     * @param priority order of the call if it has to wait for web JDBridge to be ready
      */
-    fun callJS(pluginName: String? = null, params: Any? = null, callback: IBridgeCallback? = null) {
+    @JvmOverloads
+    fun callJS(
+        pluginName: String? = null,
+        params: Any? = null,
+        callback: IBridgeCallback? = null,
+        timeoutMs: Long = JDBridgeManager.callTimeoutMs,
+        priority: BridgePriority = BridgePriority.NORMAL
+    ) {
         val request =
             Request(
                 pluginName,
@@ -202,39 +366,47 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
                 callbackIdCreator.incrementAndGet().toString()
             )
         callback?.let { request.callback = callback }
+        request.timeoutMs = timeoutMs
+        request.priority = priority
         queueJsCall(request)
     }
 
-    fun dispatchEvent(eventName: String, params: Any? = null) {
+    /**
+     * Dispatch a CustomEvent of [eventName] to web. Events dispatched before web JDBridge is
+     * ready are queued and sent when it is.
+     * @param coalesceKey events with the same key replace each other while queued, for events
+     *                    pushing a state where only the last value matters, e.g. visibility
+     */
+    @JvmOverloads
+    fun dispatchEvent(
+        eventName: String,
+        params: Any? = null,
+        coalesceKey: String? = null,
+        priority: BridgePriority = BridgePriority.NORMAL
+    ) {
+        if (!offerStartupEntry(StartupQueue.Entry.Event(eventName, params, priority, coalesceKey))) {
+            sendEvent(eventName, params)
+        }
+    }
+
+    private fun sendEvent(eventName: String, params: Any?) {
         try {
-            val paramsStr = when (params) {
-                is JSONObject, is JSONArray -> {
-                    params.toString()
-                }
-                is Map<*, *> -> {
-                    JSONObject(params).toString()
-                }
-                is Collection<*> -> {
-                    JSONArray(params).toString()
-                }
-                is Array<*> -> {
-                    arrayToJsonArray(params).toString()
-                }
-                is Number, is Boolean -> {
-                    "$params"
-                }
-                else -> {
-                    if (params == null) {
-                        "undefined"
-                    } else {
-                        "'$params'"
+            //Strings are passed as string literals, others as object literals, null means undefined
+            outboundQueue.enqueue(
+                {
+                    JS_DISPATCH_EVENT.format(
+                        eventName,
+                        if (params == null) "undefined" else JsonWriter().value(params).toString()
+                    )
+                },
+                {
+                    val writer = JsonWriter().raw("{\"t\":\"event\",\"n\":").value(eventName)
+                    if (params != null) {
+                        writer.raw(",\"d\":").value(params)
                     }
-//                params?.let { "'$params'" }
+                    writer.raw("}").toString()
                 }
-            }
-            webView.runOnMain (Runnable {
-                webView.evaluateJavascript(JS_DISPATCH_EVENT.format(eventName, paramsStr), null)
-            })
+            )
         } catch (e: Exception) {
             logE(e)
             alertDebugMsg("DispatchEvent Error, err = ${e.message}")
@@ -246,9 +418,7 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
      */
     private fun jsInit() {
         if (JDBridgeManager.webDebug) {
-            webView.runOnMain (Runnable {
-            webView.evaluateJavascript(JS_SET_DEBUG.format(true), null)
-            })
+            outboundQueue.enqueue(JS_SET_DEBUG.format(true))
         }
         dispatchStartupJsCall()
     }
@@ -258,15 +428,7 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
         var plugin: IBridgePlugin? = null
 
         if (!pluginName.isNullOrEmpty()) {
-            synchronized(this) {
-                plugin = nativeLocalPluginMap[pluginName]
-                if (plugin == null) {
-                    plugin = JDBridgeManager.getPluginClass(pluginName)?.newInstance()
-                    plugin?.let {
-                        nativeLocalPluginMap[pluginName] = it
-                    }
-                }
-            }
+            plugin = nativeLocalPluginMap[pluginName] ?: createGlobalPlugin(pluginName)
         }
 
         if (plugin == null) {
@@ -278,6 +440,37 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
         return plugin
     }
 
+    /**
+     * Create the global plugin of [pluginName] for this bridge. If another thread created it
+     * at the same time, that instance wins and this one is dropped.
+     * Returns null once the bridge is destroyed, a plugin created meanwhile is destroyed.
+     */
+    private fun createGlobalPlugin(pluginName: String): IBridgePlugin? {
+        val factory = JDBridgeManager.getPluginFactory(pluginName) ?: return null
+        if (nativeLocalPluginMap.containsKey(pluginName)) {
+            return nativeLocalPluginMap[pluginName]
+        }
+        if (destroyed) {
+            return null
+        }
+        val plugin = factory.create()
+        if (destroyed) {
+            (plugin as? Destroyable)?.destroy()
+            return null
+        }
+        val existing = nativeLocalPluginMap.putIfAbsent(pluginName, plugin)
+        if (existing != null) {
+            (plugin as? Destroyable)?.destroy()
+            return existing
+        }
+        //destroy() may have iterated the plugins before this one was added
+        if (destroyed && nativeLocalPluginMap.remove(pluginName, plugin)) {
+            (plugin as? Destroyable)?.destroy()
+            return null
+        }
+        return plugin
+    }
+
     /**
      *
      */
@@ -363,12 +556,89 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
             logE(e)
             alertDebugMsg("CallNative, cannot convert $obj to json, e: ${e.message}")
         }
-        val request = req ?: return
+        handleRequest(req ?: return)
+    }
+
+    /**
+     * The method for JDBridge to call a cheap plugin method synchronously, see [IBridgeSyncPlugin].
+     * @return the response json, whose status is [STATUS_NOT_FOUND] if the method cannot be
+     *         called synchronously (then web should call it by [_callNative])
+     */
+    @JavascriptInterface
+    fun _callNativeSync(obj: String?): String {
+        val request = try {
+            JSONObject(obj ?: "{}").toRequest()
+        } catch (e: JSONException) {
+            logE(e)
+            return Response(STATUS_ERROR, msg = "Cannot convert $obj to json").toJson()
+        }
+        val pluginName = request.plugin
+        val action = request.action
+        val key = "$pluginName.$action"
+        val plugin = try {
+            getPlugin(pluginName)
+        } catch (e: Exception) {
+            logE(e)
+            null
+        }
+        if (plugin !is IBridgeSyncPlugin || !plugin.supportsSync(action) || SyncCallMeter.isDisabled(key)) {
+            logD("_callNativeSync -> $key cannot be called synchronously")
+            return Response(STATUS_NOT_FOUND, request.callbackId, msg = MSG_SYNC_NOT_SUPPORTED).toJson()
+        }
+        val start = SystemClock.elapsedRealtimeNanos()
+        val response = try {
+            val result = plugin.executeSync(webView, action, request.params.takeIf { it != JSONObject.NULL })
+            Response(STATUS_SUCCESS, request.callbackId, result)
+        } catch (e: Exception) {
+            logE(e)
+            Response(STATUS_EXCEPTION, request.callbackId, msg = "$MSG_EXCEPTION, e: ${e.message}")
+        }
+        SyncCallMeter.record(key, SystemClock.elapsedRealtimeNanos() - start)
+        logD("_callNativeSync -> $key, result: ${response.data}")
+        return response.toJson()
+    }
+
+    /**
+     * The method for JDBridge to call native with several requests at once, e.g. all calls made
+     * in the same microtask, so they cross into native once and are parsed once.
+     * Each request is executed on the thread its plugin declares. The responses are sent like
+     * those of [_callNative], and responses ready in the same frame are sent in one script.
+     */
+    @JavascriptInterface
+    fun _callNativeBatch(obj: String?) {
+        val requests = try {
+            JSONArray(obj ?: return)
+        } catch (e: JSONException) {
+            logE(e)
+            alertDebugMsg("CallNativeBatch, cannot convert $obj to json array, e: ${e.message}")
+            return
+        }
+        handleRequests(requests)
+    }
+
+    /**
+     * Execute a batch of requests from web, received by [_callNativeBatch] or the message port.
+     */
+    private fun handleRequests(requests: JSONArray) {
+        logD("_callNativeBatch -> ${requests.length()} request(s)")
+        for (i in 0 until requests.length()) {
+            val request = requests.optJSONObject(i)
+            if (request == null) {
+                logD("_callNativeBatch -> skip request $i, not a json object")
+                continue
+            }
+            handleRequest(request.toRequest())
+        }
+    }
+
+    /**
+     * Execute a request from web, received by [_callNative] or the message port.
+     */
+    private fun handleRequest(request: Request) {
         val pluginName = request.plugin
         val action = request.action
-        val params = request.params
         val callbackId = request.callbackId
-        logD("_callNative -> plugin:$pluginName, action:$action, callbackId:$callbackId, params:$params")
+        logD("_callNative -> plugin:$pluginName, action:$action, callbackId:$callbackId, params:${request.params}")
         try {
             val plugin = getPlugin(pluginName)
             if (plugin == null) {
@@ -376,71 +646,133 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
                 respondToWeb(callbackId, STATUS_NOT_FOUND, null, MSG_PLUGIN_NOT_FOUND)
                 return
             }
-            val isExist =
-                plugin.execute(
-                    webView,
-                    action,
-                    params?.toString(),
-                    object : IBridgeProgressCallback {
-                        override fun onSuccess(result: Any?) {
-                            logD("_callNative -> onSuccess, result: $result")
-                            respondToWeb(callbackId, STATUS_SUCCESS, result, null, true)
-                        }
+            //Run the plugin where it asks for, so slow plugins do not block the JavaBridge thread
+            val policy = plugin as? IBridgeThreadPolicy
+            val task = Runnable { executePlugin(plugin, request) }
+            when (policy?.threadOf(action) ?: BridgeThread.INLINE) {
+                BridgeThread.INLINE -> task.run()
+                BridgeThread.MAIN -> webView.runOnMain(task)
+                BridgeThread.BACKGROUND ->
+                    PluginDispatcher.execute(pluginName ?: "", policy?.maxConcurrency ?: 1, task)
+            }
+        } catch (e: Exception) {
+            respondException(callbackId, e)
+        }
+    }
 
-                        override fun onError(errMsg: String?) {
-                            logD("_callNative -> onError, msg: $errMsg")
-                            respondToWeb(callbackId, STATUS_ERROR, null, errMsg)
-                        }
+    private fun executePlugin(plugin: IBridgePlugin, request: Request) {
+        val action = request.action
+        val params = request.params
+        val callbackId = request.callbackId
+        //Responses after the page navigated would reach the new page, they are dropped
+        val generation = pageGeneration.get()
+        //Calls of the internal module and calls without callback are not waited for
+        val finished = AtomicBoolean(plugin is JDBridgeModule || callbackId.isNullOrEmpty())
+        if (!finished.get()) {
+            pendingWebCalls.incrementAndGet()
+        }
+        fun isCurrentPage(): Boolean {
+            if (generation == pageGeneration.get()) {
+                return true
+            }
+            logD("_callNative -> page changed, drop the response of callbackId = $callbackId")
+            return false
+        }
+        fun finish() {
+            if (finished.compareAndSet(false, true) && generation == pageGeneration.get()) {
+                pendingWebCalls.decrementAndGet()
+            }
+        }
+        try {
+            val bridgeCallback = object : IBridgeProgressCallback {
+                override fun onSuccess(result: Any?) {
+                    logD("_callNative -> onSuccess, result: $result")
+                    finish()
+                    if (isCurrentPage()) {
+                        respondToWeb(callbackId, STATUS_SUCCESS, result, null, true)
+                    }
+                }
 
-                        override fun onProgress(data: Any?) {
-                            logD("_callNative -> onProgress, data: $data")
-                            respondToWeb(callbackId, STATUS_SUCCESS, data, "onProgress", false)
-                        }
-                    })
+                override fun onError(errMsg: String?) {
+                    logD("_callNative -> onError, msg: $errMsg")
+                    finish()
+                    if (isCurrentPage()) {
+                        respondToWeb(callbackId, STATUS_ERROR, null, errMsg)
+                    }
+                }
+
+                override fun onProgress(data: Any?) {
+                    logD("_callNative -> onProgress, data: $data")
+                    if (isCurrentPage()) {
+                        respondToWeb(callbackId, STATUS_SUCCESS, data, "onProgress", false)
+                    }
+                }
+            }
+            //Params was parsed with the request, plugins supporting it receive the parsed value
+            val isExist = if (plugin is IBridgeJsonPlugin) {
+                plugin.executeJson(webView, action, params.takeIf { it != JSONObject.NULL }, bridgeCallback)
+            } else {
+                plugin.execute(webView, action, params?.toString(), bridgeCallback)
+            }
             if (!isExist) {
                 logD("_callNative -> Native plugin returns false for action = $action")
+                finish()
                 respondToWeb(callbackId, STATUS_NOT_FOUND, "", MSG_ACTION_NOT_FOUND)
             }
         } catch (e: Exception) {
-            respondToWeb(
-                callbackId,
-                STATUS_EXCEPTION,
-                null,
-                "$MSG_EXCEPTION, e: ${e.message}"
-            )
-            logE(e)
-            alertDebugMsg("CallNative Error, err = ${e.message}")
+            finish()
+            respondException(callbackId, e)
         }
     }
 
+    private fun respondException(callbackId: String?, e: Exception) {
+        respondToWeb(
+            callbackId,
+            STATUS_EXCEPTION,
+            null,
+            "$MSG_EXCEPTION, e: ${e.message}"
+        )
+        logE(e)
+        alertDebugMsg("CallNative Error, err = ${e.message}")
+    }
+
     /**
      * Invoked when JDBridge responds back to native.
      */
-    private fun respondFromJs(obj: String?) {
+    private fun respondFromJs(obj: Any?) {
         var response: Response? = null
         try {
-            response = obj?.let { JSONObject(obj).toResponse() }
+            response = when (obj) {
+                is JSONObject -> obj.toResponse()
+                is String -> JSONObject(obj).toResponse()
+                else -> null
+            }
         } catch (e: JSONException) {
             logE(e)
             alertDebugMsg("RespondFromJs, cannot convert $obj to json, e: ${e.message}")
         }
-        val callback: IBridgeCallback? = response?.let { nativeCallbackMap[response.callbackId] }
+        val call: PendingCall? = response?.callbackId?.let { nativeCallbackMap[it] }
+        val callback: IBridgeCallback? = call?.callback
         logD(
             "_respondFromJs -> callbackId:${response?.callbackId}, " +
                     "callback:$callback, data:${response?.data}, " +
                     "success:${response?.status == STATUS_SUCCESS}, " +
                     "complete:${response?.complete}"
         )
-        callback?.let { cb ->
+        call?.let { pending ->
+            val cb = pending.callback
             webView.runOnMain (Runnable {
             response?.let {
                     try {
                         if (it.complete || cb !is IBridgeProgressCallback) {
-                            nativeCallbackMap.remove(it.callbackId)
-                            if (it.status == STATUS_SUCCESS) {
-                                cb.onSuccess(it.data)
-                            } else {
-                                cb.onError(it.msg)
+                            //Skip if the call timed out or was cancelled meanwhile
+                            if (nativeCallbackMap.remove(it.callbackId ?: "", pending)) {
+                                pending.timeout?.cancel()
+                                if (it.status == STATUS_SUCCESS) {
+                                    cb.onSuccess(it.data)
+                                } else {
+                                    cb.onError(it.msg)
+                                }
                             }
                         } else {
                             cb.onProgress(it.data)
@@ -461,14 +793,37 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
         msg: String? = null,
         complete: Boolean = true
     ) {
-        webView.runOnMain(Runnable {
-            webView.evaluateJavascript(
-                JS_RESPOND_TO_WEB.format(
-                    "'${Response(status, callbackId, data, msg, complete)}'"
-                ),
-                null
-            )
-        })
+        val response = Response(status, callbackId, data, msg, complete)
+        outboundQueue.enqueue(
+            { encodeScript(JS_RESPOND_TO_WEB, response::writeTo) },
+            { encodePayload("{\"t\":\"resp\",\"d\":", response::writeTo) }
+        )
+    }
+
+    /**
+     * Encode [write] as the argument of [template] in one pass: a single quoted JSON string,
+     * or an object literal if [JDBridgeManager.objectLiteralPayload] is enabled.
+     */
+    private fun encodeScript(template: String, write: (JsonWriter) -> JsonWriter): String {
+        val argIndex = template.indexOf("%s")
+        val prefix = template.substring(0, argIndex)
+        val suffix = template.substring(argIndex + 2)
+        return if (JDBridgeManager.objectLiteralPayload) {
+            write(JsonWriter().raw(prefix)).raw(suffix).toString()
+        } else {
+            write(JsonWriter(quote = '\'').raw("$prefix'")).raw("'$suffix").toString()
+        }
+    }
+
+    /**
+     * Encode [write] as the "d" field of a message port payload starting with [head].
+     */
+    private fun encodePayload(head: String, write: (JsonWriter) -> JsonWriter): String {
+        return if (JDBridgeManager.objectLiteralPayload) {
+            write(JsonWriter().raw(head)).raw("}").toString()
+        } else {
+            write(JsonWriter(quote = '"').raw("$head\"")).raw("\"}").toString()
+        }
     }
 
     private fun directRespToWeb(
@@ -483,11 +838,11 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
         }
     }
 
-    internal inner class JDBridgeModule : IBridgePlugin {
-        override fun execute(
+    internal inner class JDBridgeModule : IBridgeJsonPlugin {
+        override fun executeJson(
             webView: IBridgeWebView?,
             method: String?,
-            params: String?,
+            params: Any?,
             callback: IBridgeCallback?
         ): Boolean {
             return when (method) {
@@ -499,6 +854,10 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
                     respondFromJs(params)
                     true
                 }
+                "_requestPort" -> {
+                    webView.runOnMain(Runnable { callback?.onSuccess(portTransport.open()) })
+                    true
+                }
                 else -> {
                     false
                 }
@@ -506,6 +865,19 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
         }
     }
 
+    /**
+     * Compare the round trip latency of evaluateJavascript and the message port.
+     * [callback] receives a JSONObject with the average milliseconds of each path,
+     * messagePortMs is null when the port is not active.
+     */
+    fun benchmarkRoundTrip(iterations: Int = 20, payloadSize: Int = 1024, callback: IBridgeCallback) {
+        webView.runOnMain(Runnable {
+            BridgeBenchmark(webView, portTransport, iterations, payloadSize).start { result ->
+                callback.onSuccess(result)
+            }
+        })
+    }
+
     private fun logD(msg: String) {
         if (JDBridgeManager.webDebug && msg.isNotEmpty()) {
             Log.d(TAG, msg)
@@ -526,9 +898,7 @@ class JDBridge(val webView: IBridgeWebView) : IProxy {
 
     private fun alertDebugMsg(msg: String) {
         if (JDBridgeManager.webDebug && msg.isNotEmpty()) {
-            webView.runOnMain (Runnable {
-            webView.evaluateJavascript(JS_ALERT_DEBUG_MSG.format(msg), null)
-            })
+            outboundQueue.enqueue(JS_ALERT_DEBUG_MSG.format(msg))
         }
     }
 }
\ No newline at end of file
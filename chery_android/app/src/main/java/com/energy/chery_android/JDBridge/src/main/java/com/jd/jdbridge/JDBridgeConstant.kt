@@ -54,4 +54,8 @@ object JDBridgeConstant {
     const val MSG_PLUGIN_NOT_FOUND = "Target plugin not found."
     const val MSG_ACTION_NOT_FOUND = "Target action not found."
     const val MSG_EXCEPTION = "Execute plugin throws."
+    const val MSG_TIMEOUT = "Call timed out."
+    const val MSG_QUEUE_FULL = "Call dropped, too many calls before JDBridge is ready."
+    const val MSG_SYNC_NOT_SUPPORTED = "Sync call not supported, call it async."
+    const val MSG_CANCELLED = "Call cancelled, page navigated or bridge destroyed."
 }
\ No newline at end of file
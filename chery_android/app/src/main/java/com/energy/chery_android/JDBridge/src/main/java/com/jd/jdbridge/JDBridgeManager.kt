@@ -27,7 +27,7 @@ package com.jd.jdbridge
 import android.util.Log
 import com.jd.jdbridge.JDBridgeConstant.STATUS_SUCCESS
 import com.jd.jdbridge.base.*
-import java.util.HashMap
+import java.util.concurrent.ConcurrentHashMap
 
 object JDBridgeManager {
 
@@ -35,20 +35,77 @@ object JDBridgeManager {
 
     var webDebug = false
 
-    private val mFnClassMap: MutableMap<String, Class<out IBridgePlugin>> by lazy {
-        HashMap<String, Class<out IBridgePlugin>>()
+    /**
+     * Pass requests and responses to web as object literals (and as objects in message port
+     * payloads) instead of JSON strings, so web needs no JSON.parse. Only enable it when the web
+     * JDBridge accepts both forms.
+     */
+    @Volatile
+    var objectLiteralPayload = false
+
+    /**
+     * Create the global plugins for each new [JDBridge] in background right away, instead of
+     * on the first call of each plugin.
+     */
+    @Volatile
+    var eagerPluginWarmUp = false
+
+    /**
+     * Default timeout in milliseconds of native calls to js, after which the callback receives
+     * [JDBridgeConstant.MSG_TIMEOUT]. 0 means calls wait until js responds or the page navigates.
+     */
+    @Volatile
+    var callTimeoutMs = 0L
+
+    /**
+     * Max calls and events kept for each [JDBridge] before web JDBridge is ready,
+     * see [com.jd.jdbridge.base.BridgePriority].
+     */
+    @Volatile
+    var startupQueueCapacity = 64
+
+    /**
+     * Time budget of a synchronous plugin call, see [com.jd.jdbridge.base.IBridgeSyncPlugin].
+     */
+    @Volatile
+    var syncCallBudgetMs = 2L
+
+    private val pluginFactories = ConcurrentHashMap<String, IBridgePluginFactory>()
+
+    internal fun getPluginFactory(pluginName: String): IBridgePluginFactory? {
+        return pluginFactories[pluginName]
     }
 
-    internal fun getPluginClass(pluginName: String): Class<out IBridgePlugin>? {
-        return mFnClassMap[pluginName]
+    internal fun getPluginNames(): Set<String> {
+        return pluginFactories.keys
     }
 
     /**
      * add a global plugin of JS JDBridge(that is [JDBridge]), plugin will be
      * newInstanced when used.
+     * Prefer the [IBridgePluginFactory] version, which does not need reflection.
      */
     fun registerPlugin(pluginName: String, pluginClass: Class<out IBridgePlugin>) {
-        mFnClassMap[pluginName] = pluginClass
+        pluginFactories[pluginName] = IBridgePluginFactory { pluginClass.newInstance() }
+    }
+
+    /**
+     * add a global plugin of JS JDBridge(that is [JDBridge]), [factory] creates the plugin
+     * for each [JDBridge] when used.
+     */
+    fun registerPlugin(pluginName: String, factory: IBridgePluginFactory) {
+        pluginFactories[pluginName] = factory
+    }
+
+    /**
+     * add all global plugins of [index].
+     */
+    fun registerPlugins(index: IBridgePluginIndex) {
+        pluginFactories.putAll(index.plugins())
+    }
+
+    fun unregisterPlugin(pluginName: String) {
+        pluginFactories.remove(pluginName)
     }
 
     /**
@@ -58,6 +115,21 @@ object JDBridgeManager {
         webView.registerPlugin(pluginName, plugin)
     }
 
+    /**
+     * Queue state of plugins running on the background pool, keyed by plugin name.
+     * See [com.jd.jdbridge.base.IBridgeThreadPolicy].
+     */
+    fun getPluginQueueStats(): Map<String, PluginQueueStats> {
+        return PluginDispatcher.stats()
+    }
+
+    /**
+     * Time spent by synchronous plugin calls, keyed by "plugin.method".
+     */
+    fun getSyncCallStats(): Map<String, SyncCallStats> {
+        return SyncCallMeter.stats()
+    }
+
     /**
      * add a js bridge(like [JDBridge]) to the [webView] instance.
      * The bridge must have at least one method with @Javascript annotation that js can call.
@@ -0,0 +1,233 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import android.view.Choreographer
+import com.jd.jdbridge.JDBridgeConstant.MODULE_TAG
+import com.jd.jdbridge.base.IBridgeWebView
+import com.jd.jdbridge.base.runOnMain
+
+/**
+ * Outbound queue of scripts sent from native to web.
+ *
+ * Calls, responses and events are not evaluated one by one. They are collected and evaluated
+ * as a single script on the next [Choreographer] frame (or on [flush]), so a burst of messages
+ * costs one IPC into the renderer instead of one per message. Messages keep their order, each
+ * one is wrapped in its own try/catch so a failing handler does not break the rest of the batch,
+ * and a batch is split when it grows beyond [maxBatchChars].
+ *
+ * Frames are not delivered while the window is hidden, so a delayed flush on the main
+ * handler makes sure queued messages (e.g. ContainerHide) are still sent.
+ *
+ * When [portTransport] is active, messages that have a port payload are posted through the
+ * message port instead, as one JSON array per batch. Scripts and payloads can be given as
+ * encoders, so a message is only encoded for the transport it is actually sent with.
+ */
+internal class JsMessageQueue(
+    private val webView: IBridgeWebView,
+    private val portTransport: MessagePortTransport? = null
+) {
+
+    companion object {
+        private const val TAG = "${MODULE_TAG}-JsMessageQueue"
+
+        const val DEFAULT_MAX_BATCH_CHARS = 256 * 1024
+
+        /** Fallback flush delay when no frame arrives. */
+        private const val FALLBACK_DELAY_MS = 50L
+
+        private const val TRY_START = "try{"
+        private const val TRY_END = "}catch(e){console&&console.error(e)}\n"
+    }
+
+    var maxBatchChars = DEFAULT_MAX_BATCH_CHARS
+
+    private val lock = Any()
+
+    /**
+     * @param payloadSource JSON message for [MessagePortTransport], null if it can only be sent as a script
+     */
+    private class Message(scriptSource: () -> String, private val payloadSource: (() -> String)?) {
+
+        //Encoded on the main thread when flushed, null if encoding failed
+        val script: String? by lazy(LazyThreadSafetyMode.NONE) { encode(scriptSource) }
+
+        val payload: String? by lazy(LazyThreadSafetyMode.NONE) { payloadSource?.let { encode(it) } }
+
+        val hasPayload: Boolean
+            get() = payloadSource != null
+
+        private fun encode(source: () -> String): String? {
+            return try {
+                source()
+            } catch (e: Exception) {
+                if (JDBridgeManager.webDebug) {
+                    Log.e(TAG, e.message, e)
+                }
+                null
+            }
+        }
+    }
+
+    private var pending = ArrayList<Message>()
+
+    private var scheduled = false
+
+    private var destroyed = false
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    private val frameCallback = Choreographer.FrameCallback { flushOnMain() }
+
+    private val flushRunnable = Runnable { flushOnMain() }
+
+    fun enqueue(script: String, payload: String? = null) {
+        enqueue({ script }, payload?.let { { it } })
+    }
+
+    fun enqueue(script: () -> String, payload: (() -> String)?) {
+        synchronized(lock) {
+            if (destroyed) {
+                return
+            }
+            pending.add(Message(script, payload))
+            if (scheduled) {
+                return
+            }
+            scheduled = true
+        }
+        webView.runOnMain(Runnable {
+            Choreographer.getInstance().postFrameCallback(frameCallback)
+            mainHandler.postDelayed(flushRunnable, FALLBACK_DELAY_MS)
+        })
+    }
+
+    /**
+     * Evaluate all queued messages now instead of waiting for the next frame.
+     */
+    fun flush() {
+        webView.runOnMain(Runnable { flushOnMain() })
+    }
+
+    /**
+     * Send what is still queued, then ignore further messages.
+     */
+    fun destroy() {
+        webView.runOnMain(Runnable {
+            flushOnMain()
+            synchronized(lock) {
+                destroyed = true
+                pending.clear()
+            }
+        })
+    }
+
+    private fun flushOnMain() {
+        Choreographer.getInstance().removeFrameCallback(frameCallback)
+        mainHandler.removeCallbacks(flushRunnable)
+        val messages = synchronized(lock) {
+            scheduled = false
+            if (pending.isEmpty()) {
+                return
+            }
+            val messages = pending
+            pending = ArrayList()
+            messages
+        }
+        val transport = portTransport?.takeIf { it.isActive }
+        val usePort = transport != null
+        var index = 0
+        while (index < messages.size) {
+            //Consecutive messages using the same transport are sent together, keeping the order
+            val viaPort = usePort && messages[index].hasPayload
+            var end = index + 1
+            while (end < messages.size && (usePort && messages[end].hasPayload) == viaPort) {
+                end++
+            }
+            val group = messages.subList(index, end)
+            if (viaPort && transport != null) {
+                postPayloads(group, transport)
+            } else {
+                evaluateScripts(group)
+            }
+            index = end
+        }
+    }
+
+    private fun evaluateScripts(messages: List<Message>) {
+        if (messages.size == 1) {
+            messages[0].script?.let { webView.evaluateJavascript(it, null) }
+            return
+        }
+        val batch = StringBuilder()
+        var count = 0
+        for (message in messages) {
+            val script = message.script ?: continue
+            if (count > 0 && batch.length + script.length + TRY_START.length + TRY_END.length > maxBatchChars) {
+                webView.evaluateJavascript(batch.toString(), null)
+                batch.setLength(0)
+                count = 0
+            }
+            batch.append(TRY_START).append(script).append(TRY_END)
+            count++
+        }
+        if (count > 0) {
+            webView.evaluateJavascript(batch.toString(), null)
+        }
+    }
+
+    /**
+     * Post the payloads as JSON arrays. If the port fails (e.g. closed by the page),
+     * the messages not posted yet are evaluated as scripts.
+     */
+    private fun postPayloads(messages: List<Message>, transport: MessagePortTransport) {
+        val batch = StringBuilder("[")
+        var from = 0
+        var count = 0
+        for ((i, message) in messages.withIndex()) {
+            val payload = message.payload ?: continue
+            if (count > 0 && batch.length + payload.length + 2 > maxBatchChars) {
+                if (!transport.post(batch.append(']').toString())) {
+                    evaluateScripts(messages.subList(from, messages.size))
+                    return
+                }
+                batch.setLength(1)
+                from = i
+                count = 0
+            }
+            if (count > 0) {
+                batch.append(',')
+            }
+            batch.append(payload)
+            count++
+        }
+        if (count > 0 && !transport.post(batch.append(']').toString())) {
+            evaluateScripts(messages.subList(from, messages.size))
+        }
+    }
+}
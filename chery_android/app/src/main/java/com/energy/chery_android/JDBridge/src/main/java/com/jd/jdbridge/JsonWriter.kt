@@ -0,0 +1,211 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import org.json.JSONArray
+import org.json.JSONObject
+import java.lang.reflect.Array as ReflectArray
+
+/**
+ * Single pass JSON writer for bridge payloads.
+ *
+ * Values are written straight into one [StringBuilder], without building a [JSONObject] first.
+ * The output is safe to embed in a script: U+2028/U+2029 are escaped and `</` is written as
+ * `<\/`, so a payload can never close a `<script>` element.
+ *
+ * With a [quote] the JSON text is escaped on the fly as the content of a string literal quoted
+ * by that character: `'` for a JS string, `"` for a JSON (or JS) string. This replaces the
+ * `JSONObject.toString()` + [WebUtils.string2JsStr] / [JSONObject.quote] passes. The JSON text
+ * never contains raw control characters, so only `\` and the quote need escaping.
+ */
+internal class JsonWriter(capacity: Int = 256, private val quote: Char? = null) {
+
+    private val out = StringBuilder(capacity)
+
+    /**
+     * Append [text] as it is, e.g. the surrounding function call of a script.
+     */
+    fun raw(text: String): JsonWriter {
+        out.append(text)
+        return this
+    }
+
+    /**
+     * Write an object of [fields], fields with null values are skipped like [JSONObject.put] does.
+     */
+    fun obj(vararg fields: Pair<String, Any?>): JsonWriter {
+        emit('{')
+        var first = true
+        for ((name, value) in fields) {
+            if (value == null) {
+                continue
+            }
+            if (!first) {
+                emit(',')
+            }
+            first = false
+            string(name)
+            emit(':')
+            this.value(value)
+        }
+        emit('}')
+        return this
+    }
+
+    fun value(value: Any?): JsonWriter {
+        when {
+            value == null || value == JSONObject.NULL -> literal("null")
+            value is String -> string(value)
+            value is Boolean -> literal(value.toString())
+            value is Number -> number(value)
+            value is Char -> string(value.toString())
+            value is JSONObject -> {
+                emit('{')
+                var first = true
+                val keys = value.keys()
+                while (keys.hasNext()) {
+                    val key = keys.next()
+                    if (!first) {
+                        emit(',')
+                    }
+                    first = false
+                    string(key)
+                    emit(':')
+                    this.value(value.opt(key))
+                }
+                emit('}')
+            }
+            value is JSONArray -> {
+                emit('[')
+                for (i in 0 until value.length()) {
+                    if (i > 0) {
+                        emit(',')
+                    }
+                    this.value(value.opt(i))
+                }
+                emit(']')
+            }
+            value is Map<*, *> -> {
+                emit('{')
+                var first = true
+                for ((key, item) in value) {
+                    if (!first) {
+                        emit(',')
+                    }
+                    first = false
+                    string(key.toString())
+                    emit(':')
+                    this.value(item)
+                }
+                emit('}')
+            }
+            value is Collection<*> -> {
+                emit('[')
+                var first = true
+                for (item in value) {
+                    if (!first) {
+                        emit(',')
+                    }
+                    first = false
+                    this.value(item)
+                }
+                emit(']')
+            }
+            value.javaClass.isArray -> {
+                emit('[')
+                for (i in 0 until ReflectArray.getLength(value)) {
+                    if (i > 0) {
+                        emit(',')
+                    }
+                    this.value(ReflectArray.get(value, i))
+                }
+                emit(']')
+            }
+            else -> string(value.toString())
+        }
+        return this
+    }
+
+    override fun toString(): String = out.toString()
+
+    private fun number(value: Number) {
+        if ((value is Double && (value.isNaN() || value.isInfinite()))
+            || (value is Float && (value.isNaN() || value.isInfinite()))) {
+            literal("null")
+            return
+        }
+        literal(JSONObject.numberToString(value))
+    }
+
+    private fun literal(text: String) {
+        //Literals never contain a backslash or quote
+        out.append(text)
+    }
+
+    private fun string(value: String) {
+        emit('"')
+        var previous = '\u0000'
+        for (c in value) {
+            when (c) {
+                '"' -> escape('"')
+                '\\' -> escape('\\')
+                '\n' -> escape('n')
+                '\r' -> escape('r')
+                '\t' -> escape('t')
+                '\b' -> escape('b')
+                '\u000C' -> escape('f')
+                '\u2028', '\u2029' -> unicode(c)
+                '/' -> if (previous == '<') escape('/') else emit(c)
+                else -> if (c < ' ') unicode(c) else emit(c)
+            }
+            previous = c
+        }
+        emit('"')
+    }
+
+    private fun escape(c: Char) {
+        emit('\\')
+        emit(c)
+    }
+
+    private fun unicode(c: Char) {
+        emit('\\')
+        emit('u')
+        val code = c.code
+        for (shift in intArrayOf(12, 8, 4, 0)) {
+            emit(Character.forDigit((code shr shift) and 0xF, 16))
+        }
+    }
+
+    /**
+     * Append one character of the JSON text, escaped for the string literal if [quote] is set.
+     */
+    private fun emit(c: Char) {
+        if (quote != null && (c == '\\' || c == quote)) {
+            out.append('\\')
+        }
+        out.append(c)
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import android.annotation.TargetApi
+import android.net.Uri
+import android.os.Build
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.SystemClock
+import android.util.Log
+import android.webkit.WebMessage
+import android.webkit.WebMessagePort
+import android.webkit.WebView
+import com.jd.jdbridge.JDBridgeConstant.MODULE_TAG
+import com.jd.jdbridge.base.IBridgeWebView
+import com.jd.jdbridge.base.runOnMain
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Transport over a [WebMessagePort] as an alternative to `addJavascriptInterface` inbound and
+ * `evaluateJavascript` outbound. Messages are posted as plain strings, so payloads are not
+ * escaped into a script and re-parsed by the JS compiler.
+ *
+ * Negotiation:
+ * 1. Web calls the `_jdbridge` plugin with action `_requestPort` over the existing bridge.
+ * 2. Native creates a message channel and posts one end to the main frame as
+ *    [PORT_MESSAGE], restricted to the origin of the current page. The callback of
+ *    `_requestPort` tells web whether a port is coming.
+ * 3. Web sends `{"t":"hello"}` through the port, after which native sends all messages
+ *    through it. Until then, and on WebViews below Android 6.0, the script path is used.
+ *
+ * Incoming messages are handled on a background thread owned by this transport, like
+ * `@JavascriptInterface` calls on the JavaBridge thread of the WebView, so a slow inline
+ * plugin on one page does not hold up the others. A JSON array of requests is a batch,
+ * like `_callNativeBatch`.
+ */
+internal class MessagePortTransport(
+    private val webView: IBridgeWebView,
+    private val onRequest: (Request) -> Unit,
+    private val onRequests: (JSONArray) -> Unit
+) {
+
+    companion object {
+        const val PORT_MESSAGE = "JDBridgePort"
+
+        private const val TAG = "${MODULE_TAG}-MessagePort"
+    }
+
+    /** True after web confirmed the port, outbound messages then go through the port. */
+    @Volatile
+    var isActive = false
+        private set
+
+    @Volatile
+    private var port: WebMessagePort? = null
+
+    private val pingIdCreator = AtomicInteger(0)
+
+    private class Ping(val start: Long, val callback: (Long) -> Unit)
+
+    private val pendingPings = ConcurrentHashMap<String, Ping>()
+
+    /** Receives port messages, created on first [open] and quit on [destroy]. Main thread only. */
+    private var handlerThread: HandlerThread? = null
+
+    private var destroyed = false
+
+    val isSupported: Boolean
+        get() = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && webView.view is WebView
+
+    /**
+     * Create a channel and hand one end to the page. Must be called on the main thread.
+     * @return false if the port cannot be used, web should keep using the script path.
+     */
+    fun open(): Boolean {
+        if (destroyed || !isSupported) {
+            return false
+        }
+        return openPort(webView.view as WebView)
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private fun openPort(view: WebView): Boolean {
+        val origin = originOf(view.url) ?: return false
+        close()
+        return try {
+            val ports = view.createWebMessageChannel()
+            val local = ports[0]
+            local.setWebMessageCallback(object : WebMessagePort.WebMessageCallback() {
+                override fun onMessage(p: WebMessagePort?, message: WebMessage?) {
+                    handleMessage(message?.data)
+                }
+            }, Handler(receiverLooper()))
+            port = local
+            view.postWebMessage(WebMessage(PORT_MESSAGE, arrayOf(ports[1])), Uri.parse(origin))
+            true
+        } catch (e: Exception) {
+            logE(e)
+            close()
+            false
+        }
+    }
+
+    private fun receiverLooper() =
+        (handlerThread ?: HandlerThread("JDBridgePort").apply { start() }.also { handlerThread = it }).looper
+
+    /**
+     * Post a message to web. Must be called on the main thread.
+     */
+    fun post(data: String): Boolean {
+        val current = port
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || !isActive || current == null) {
+            return false
+        }
+        return try {
+            current.postMessage(WebMessage(data))
+            true
+        } catch (e: Exception) {
+            //The port is closed by the page
+            logE(e)
+            close()
+            false
+        }
+    }
+
+    /**
+     * Send [payload] to web and wait for it to be echoed back, for latency benchmarks.
+     * [callback] receives the round trip time in nanoseconds on the main thread, or -1 on failure.
+     */
+    fun ping(payload: String, callback: (Long) -> Unit) {
+        val id = pingIdCreator.incrementAndGet().toString()
+        pendingPings[id] = Ping(SystemClock.elapsedRealtimeNanos(), callback)
+        val message = "{\"t\":\"ping\",\"id\":\"$id\",\"d\":${JSONObject.quote(payload)}}"
+        if (!post(message)) {
+            pendingPings.remove(id)
+            callback(-1)
+        }
+    }
+
+    fun close() {
+        isActive = false
+        val current = port
+        port = null
+        if (current != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                current.close()
+            } catch (e: Exception) {
+                logE(e)
+            }
+        }
+        val pings = ArrayList(pendingPings.values)
+        pendingPings.clear()
+        if (pings.isNotEmpty()) {
+            webView.runOnMain(Runnable { pings.forEach { it.callback(-1) } })
+        }
+    }
+
+    /**
+     * Close the port and stop the receiving thread, the transport cannot be opened again.
+     * Must be called on the main thread.
+     */
+    fun destroy() {
+        destroyed = true
+        close()
+        handlerThread?.quit()
+        handlerThread = null
+    }
+
+    private fun handleMessage(data: String?) {
+        if (data.isNullOrEmpty()) {
+            return
+        }
+        if (data[0] == '[') {
+            try {
+                onRequests(JSONArray(data))
+            } catch (e: JSONException) {
+                logE(e)
+            }
+            return
+        }
+        val json = try {
+            JSONObject(data)
+        } catch (e: JSONException) {
+            logE(e)
+            return
+        }
+        when (json.optString("t")) {
+            "hello" -> {
+                isActive = true
+                logD("Message port is active.")
+            }
+            "pong" -> {
+                val end = SystemClock.elapsedRealtimeNanos()
+                pendingPings.remove(json.optString("id"))?.let { ping ->
+                    webView.runOnMain(Runnable { ping.callback(end - ping.start) })
+                }
+            }
+            else -> onRequest(json.toRequest())
+        }
+    }
+
+    private fun originOf(url: String?): String? {
+        val uri = url?.let { Uri.parse(it) } ?: return null
+        val scheme = uri.scheme
+        if (!"https".equals(scheme, ignoreCase = true) && !"http".equals(scheme, ignoreCase = true)) {
+            return null
+        }
+        return "$scheme://${uri.encodedAuthority ?: return null}"
+    }
+
+    private fun logD(msg: String) {
+        if (JDBridgeManager.webDebug) {
+            Log.d(TAG, msg)
+        }
+    }
+
+    private fun logE(e: Exception) {
+        if (JDBridgeManager.webDebug) {
+            Log.e(TAG, e.message, e)
+        }
+    }
+}
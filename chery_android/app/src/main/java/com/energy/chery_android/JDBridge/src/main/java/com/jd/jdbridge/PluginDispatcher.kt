@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import android.util.Log
+import com.jd.jdbridge.JDBridgeConstant.MODULE_TAG
+import java.util.ArrayDeque
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Queue state of the background calls of a plugin.
+ * @param pending calls waiting for a free slot of the plugin
+ * @param running calls being executed
+ * @param maxPending the deepest the queue has been
+ * @param executed calls finished so far
+ */
+data class PluginQueueStats(
+    val pending: Int,
+    val running: Int,
+    val maxPending: Int,
+    val executed: Long
+)
+
+/**
+ * Runs [com.jd.jdbridge.base.BridgeThread.BACKGROUND] plugin calls on a small shared pool,
+ * with a concurrency limit per plugin name.
+ */
+internal object PluginDispatcher {
+
+    private const val TAG = "${MODULE_TAG}-PluginDispatcher"
+
+    private const val KEEP_ALIVE_SECONDS = 30L
+
+    private val poolSize = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+
+    private val executor: ThreadPoolExecutor by lazy {
+        val threadId = AtomicInteger()
+        ThreadPoolExecutor(
+            poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue(),
+            ThreadFactory { Thread(it, "JDBridge-plugin-${threadId.incrementAndGet()}") }
+        ).apply { allowCoreThreadTimeOut(true) }
+    }
+
+    private class Lane {
+        val pending = ArrayDeque<Runnable>()
+        var running = 0
+        var maxPending = 0
+        var executed = 0L
+    }
+
+    private val lanes = HashMap<String, Lane>()
+
+    fun execute(pluginName: String, maxConcurrency: Int, task: Runnable) {
+        synchronized(lanes) {
+            val lane = lanes.getOrPut(pluginName) { Lane() }
+            if (lane.running >= maxConcurrency.coerceAtLeast(1)) {
+                lane.pending.add(task)
+                if (lane.pending.size > lane.maxPending) {
+                    lane.maxPending = lane.pending.size
+                }
+                if (JDBridgeManager.webDebug) {
+                    Log.d(TAG, "$pluginName is busy, ${lane.pending.size} call(s) waiting")
+                }
+                return
+            }
+            lane.running++
+        }
+        submit(pluginName, task)
+    }
+
+    /**
+     * Run [task] on the pool without a concurrency limit, e.g. to create plugins.
+     */
+    fun executeDetached(task: Runnable) {
+        executor.execute(task)
+    }
+
+    fun stats(): Map<String, PluginQueueStats> {
+        synchronized(lanes) {
+            return lanes.mapValues { (_, lane) ->
+                PluginQueueStats(lane.pending.size, lane.running, lane.maxPending, lane.executed)
+            }
+        }
+    }
+
+    private fun submit(pluginName: String, task: Runnable) {
+        executor.execute {
+            try {
+                task.run()
+            } finally {
+                onFinished(pluginName)
+            }
+        }
+    }
+
+    private fun onFinished(pluginName: String) {
+        val next = synchronized(lanes) {
+            val lane = lanes[pluginName] ?: return
+            lane.executed++
+            val next = lane.pending.poll()
+            if (next == null) {
+                lane.running--
+            }
+            next
+        }
+        //The slot is handed to the next waiting call of the same plugin
+        next?.let { submit(pluginName, it) }
+    }
+}
@@ -24,10 +24,8 @@
  */
 package com.jd.jdbridge
 
-import android.util.Log
-import com.jd.jdbridge.JDBridgeConstant.MODULE_TAG
+import com.jd.jdbridge.base.BridgePriority
 import com.jd.jdbridge.base.IBridgeCallback
-import org.json.JSONException
 import org.json.JSONObject
 
 data class Request(
@@ -37,20 +35,23 @@ data class Request(
 ) {
     var action: String? = null // only needed when js calls native
     var callback: IBridgeCallback? = null
+    var timeoutMs: Long = 0 // fail the callback if js does not respond in time, 0 means no timeout
+    var priority: BridgePriority = BridgePriority.NORMAL // order while waiting for js to be ready
 
+    /**
+     * The request as a JSON string literal.
+     */
     override fun toString(): String {
-        val jsonObj = JSONObject()
-        try {
-            jsonObj.put("plugin", plugin)
-            jsonObj.put("action", action)
-            jsonObj.put("params", params)
-            jsonObj.put("callbackId", callbackId)
-        } catch (e: JSONException) {
-            if (JDBridgeManager.webDebug) {
-                Log.e("${MODULE_TAG}-Request", e.message, e)
-            }
-        }
-        return JSONObject.quote(jsonObj.toString())
+        return writeTo(JsonWriter(quote = '"').raw("\"")).raw("\"").toString()
+    }
+
+    internal fun writeTo(writer: JsonWriter): JsonWriter {
+        return writer.obj(
+            "plugin" to plugin,
+            "action" to action,
+            "params" to params,
+            "callbackId" to callbackId
+        )
     }
 }
 
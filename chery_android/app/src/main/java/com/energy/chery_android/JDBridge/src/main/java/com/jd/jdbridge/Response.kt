@@ -24,8 +24,6 @@
  */
 package com.jd.jdbridge
 
-import android.util.Log
-import org.json.JSONException
 import org.json.JSONObject
 
 data class Response(
@@ -36,20 +34,28 @@ data class Response(
     val complete: Boolean = true
 ) {
 
+    /**
+     * The response as the content of a single quoted JS string literal.
+     */
     override fun toString(): String {
-        val jsonObj = JSONObject()
-        try {
-            jsonObj.put("status", status)
-            jsonObj.put("callbackId", callbackId)
-            jsonObj.put("data", data)
-            jsonObj.put("msg", msg)
-            jsonObj.put("complete", complete)
-        } catch (e: JSONException) {
-            if (JDBridgeManager.webDebug) {
-                Log.e("${JDBridgeConstant.MODULE_TAG}-Response", e.message, e)
-            }
-        }
-        return WebUtils.string2JsStr(jsonObj.toString())
+        return writeTo(JsonWriter(quote = '\'')).toString()
+    }
+
+    /**
+     * The response as a JSON string, without escaping for a JS string literal.
+     */
+    fun toJson(): String {
+        return writeTo(JsonWriter()).toString()
+    }
+
+    internal fun writeTo(writer: JsonWriter): JsonWriter {
+        return writer.obj(
+            "status" to status,
+            "callbackId" to callbackId,
+            "data" to data,
+            "msg" to msg,
+            "complete" to complete
+        )
     }
 }
 
@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import com.jd.jdbridge.base.BridgePriority
+
+/**
+ * Calls and events waiting for web JDBridge to be ready (`_jsInit`).
+ *
+ * - Entries are sent by [BridgePriority], in order within the same priority.
+ * - An entry with a coalesce key replaces the queued entry with the same key, so only the
+ *   last value of a state (e.g. visibility) is sent.
+ * - At most [capacity] entries are kept. When full, the oldest entry of the lowest priority
+ *   is dropped and returned by [offer], so its callback can be failed.
+ *
+ * Once [drain]ed the queue is closed and [offer] returns false, so the caller sends directly.
+ */
+internal class StartupQueue(private val capacity: Int) {
+
+    sealed class Entry(val priority: BridgePriority, val coalesceKey: String?) {
+        class Call(val request: Request, priority: BridgePriority) : Entry(priority, null)
+
+        class Event(
+            val name: String,
+            val params: Any?,
+            priority: BridgePriority,
+            coalesceKey: String?
+        ) : Entry(priority, coalesceKey)
+    }
+
+    class OfferResult(val accepted: Boolean, val dropped: List<Entry>)
+
+    //One bucket per priority, keyed by coalesce key or by a unique sequence
+    private val buckets = Array(BridgePriority.values().size) { LinkedHashMap<Any, Entry>() }
+
+    private var sequence = 0L
+
+    private var size = 0
+
+    private var closed = false
+
+    @Synchronized
+    fun offer(entry: Entry): OfferResult {
+        if (closed) {
+            return OfferResult(false, emptyList())
+        }
+        val dropped = ArrayList<Entry>(0)
+        val key: Any = entry.coalesceKey ?: sequence++
+        if (entry.coalesceKey != null) {
+            //Last value wins, the replaced entry is not sent at all
+            for (bucket in buckets) {
+                bucket.remove(key)?.let {
+                    size--
+                    dropped.add(it)
+                }
+            }
+        }
+        buckets[entry.priority.ordinal][key] = entry
+        size++
+        while (size > capacity.coerceAtLeast(1)) {
+            val bucket = buckets.last { it.isNotEmpty() }
+            val iterator = bucket.values.iterator()
+            dropped.add(iterator.next())
+            iterator.remove()
+            size--
+        }
+        return OfferResult(true, dropped)
+    }
+
+    @get:Synchronized
+    val count: Int
+        get() = size
+
+    /**
+     * Close the queue and return all entries in sending order.
+     */
+    @Synchronized
+    fun drain(): List<Entry> {
+        closed = true
+        val entries = ArrayList<Entry>(size)
+        buckets.forEach {
+            entries.addAll(it.values)
+            it.clear()
+        }
+        size = 0
+        return entries
+    }
+}
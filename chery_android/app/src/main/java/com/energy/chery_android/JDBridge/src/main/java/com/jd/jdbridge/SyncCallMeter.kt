@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import android.os.SystemClock
+import android.util.Log
+import com.jd.jdbridge.JDBridgeConstant.MODULE_TAG
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Time spent by synchronous calls of a plugin method.
+ * @param overBudget calls slower than [JDBridgeManager.syncCallBudgetMs]
+ * @param disabled the method exceeded the budget too often and is called async only
+ *        until its cool-down ends
+ */
+data class SyncCallStats(
+    val calls: Long,
+    val overBudget: Long,
+    val totalNs: Long,
+    val maxNs: Long,
+    val disabled: Boolean
+) {
+    val averageNs: Long
+        get() = if (calls > 0) totalNs / calls else 0L
+}
+
+/**
+ * Measures synchronous plugin calls and switches off methods exceeding the time budget.
+ * The first call of a method is not held against it, as it usually pays for class loading
+ * and cold caches. A switched off method is allowed again after [COOL_DOWN_MS].
+ */
+internal object SyncCallMeter {
+
+    private const val TAG = "${MODULE_TAG}-SyncCall"
+
+    /** Calls over budget after which a method is called async only. */
+    private const val MAX_OVER_BUDGET = 3
+
+    /** How long a switched off method stays async only. */
+    private const val COOL_DOWN_MS = 30_000L
+
+    private class Meter {
+        var calls = 0L
+        var overBudget = 0L
+        var totalNs = 0L
+        var maxNs = 0L
+
+        /** Calls over budget since the method was last enabled. */
+        var strikes = 0
+
+        @Volatile
+        var disabledUntil = 0L
+
+        val disabled: Boolean
+            get() = SystemClock.elapsedRealtime() < disabledUntil
+    }
+
+    private val meters = ConcurrentHashMap<String, Meter>()
+
+    fun isDisabled(key: String): Boolean {
+        return meters[key]?.disabled == true
+    }
+
+    fun record(key: String, elapsedNs: Long) {
+        val meter = meters[key] ?: meters.putIfAbsent(key, Meter()) ?: meters.getValue(key)
+        val budgetNs = TimeUnit.MILLISECONDS.toNanos(JDBridgeManager.syncCallBudgetMs)
+        synchronized(meter) {
+            meter.calls++
+            meter.totalNs += elapsedNs
+            if (elapsedNs > meter.maxNs) {
+                meter.maxNs = elapsedNs
+            }
+            if (elapsedNs > budgetNs && meter.calls > 1) {
+                meter.overBudget++
+                meter.strikes++
+                if (JDBridgeManager.webDebug) {
+                    Log.w(TAG, "Sync call $key took ${elapsedNs / 1000}us, over budget ${budgetNs / 1000}us")
+                }
+                if (meter.strikes >= MAX_OVER_BUDGET && !meter.disabled) {
+                    meter.strikes = 0
+                    meter.disabledUntil = SystemClock.elapsedRealtime() + COOL_DOWN_MS
+                    if (JDBridgeManager.webDebug) {
+                        Log.w(TAG, "Sync call $key is disabled for ${COOL_DOWN_MS}ms, web should call it async.")
+                    }
+                }
+            }
+        }
+    }
+
+    fun stats(): Map<String, SyncCallStats> {
+        return meters.mapValues { (_, meter) ->
+            synchronized(meter) {
+                SyncCallStats(meter.calls, meter.overBudget, meter.totalNs, meter.maxNs, meter.disabled)
+            }
+        }
+    }
+}
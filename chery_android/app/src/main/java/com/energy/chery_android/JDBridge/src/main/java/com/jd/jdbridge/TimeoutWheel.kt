@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.SystemClock
+
+/**
+ * Shared hashed timer wheel for call timeouts.
+ *
+ * Scheduling and cancelling only touch one slot list, no message is posted per timeout.
+ * The wheel ticks every [TICK_MS] on its own thread while any timeout is pending, and stops
+ * ticking when empty. A timeout fires up to one tick late, which is fine for call timeouts.
+ */
+internal object TimeoutWheel {
+
+    private const val TICK_MS = 250L
+
+    private const val SLOT_COUNT = 256
+
+    class Timeout internal constructor(
+        internal val deadline: Long,
+        internal val task: Runnable
+    ) {
+        @Volatile
+        internal var cancelled = false
+
+        fun cancel() {
+            cancelled = true
+        }
+    }
+
+    private val slots = Array(SLOT_COUNT) { ArrayList<Timeout>() }
+
+    private var pending = 0
+
+    private var ticking = false
+
+    private var tick = 0L
+
+    private val handler: Handler by lazy {
+        val thread = HandlerThread("JDBridge-timer")
+        thread.start()
+        Handler(thread.looper)
+    }
+
+    private val tickRunnable = Runnable { onTick() }
+
+    /**
+     * Run [task] on the timer thread after [delayMs], unless cancelled before.
+     */
+    fun schedule(delayMs: Long, task: Runnable): Timeout {
+        val timeout = Timeout(SystemClock.uptimeMillis() + delayMs, task)
+        synchronized(slots) {
+            if (!ticking) {
+                tick = SystemClock.uptimeMillis() / TICK_MS
+            }
+            //The first tick after the deadline
+            val slotTick = maxOf(timeout.deadline / TICK_MS + 1, tick + 1)
+            slots[(slotTick % SLOT_COUNT).toInt()].add(timeout)
+            pending++
+            if (!ticking) {
+                ticking = true
+                handler.postDelayed(tickRunnable, TICK_MS)
+            }
+        }
+        return timeout
+    }
+
+    private fun onTick() {
+        val expired = ArrayList<Timeout>()
+        synchronized(slots) {
+            val now = SystemClock.uptimeMillis()
+            //Catch up on the ticks missed while the thread was busy
+            while (tick < now / TICK_MS) {
+                tick++
+                val iterator = slots[(tick % SLOT_COUNT).toInt()].iterator()
+                while (iterator.hasNext()) {
+                    val timeout = iterator.next()
+                    if (timeout.cancelled || timeout.deadline <= now) {
+                        iterator.remove()
+                        pending--
+                        if (!timeout.cancelled) {
+                            expired.add(timeout)
+                        }
+                    }
+                }
+            }
+            ticking = pending > 0
+            if (ticking) {
+                handler.postDelayed(tickRunnable, TICK_MS)
+            }
+        }
+        for (timeout in expired) {
+            timeout.task.run()
+        }
+    }
+}
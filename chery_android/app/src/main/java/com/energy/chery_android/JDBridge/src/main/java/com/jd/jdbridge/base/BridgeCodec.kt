@@ -0,0 +1,49 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge.base
+
+import org.json.JSONObject
+
+/**
+ * Decodes the parsed params of an [IBridgeJsonPlugin] into a typed object.
+ *
+ * Codecs read the [JSONObject] tree directly, without reflection, so they are cheap to run
+ * and can be written by hand or generated for each params class.
+ *
+ * ```
+ * object RouteCodec : BridgeCodec<RouteParams> {
+ *     override fun decode(params: Any?): RouteParams? {
+ *         val json = params as? JSONObject ?: return null
+ *         return RouteParams(json.optString("route"))
+ *     }
+ * }
+ * ```
+ */
+fun interface BridgeCodec<T> {
+    /**
+     * @return the decoded object, or null if [params] is missing or malformed
+     */
+    fun decode(params: Any?): T?
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge.base
+
+import org.json.JSONException
+import org.json.JSONObject
+import org.json.JSONTokener
+
+/**
+ * A plugin that receives params already parsed by JDBridge, so they are parsed only once
+ * instead of being serialized back to a string and parsed again by the plugin.
+ *
+ * Params is the parsed JSON value: a [JSONObject], a [org.json.JSONArray], a String,
+ * a Number, a Boolean, or null. Use a [BridgeCodec] to decode it into a typed object.
+ *
+ * [execute] with string params is kept as an adapter, so the plugin still works wherever
+ * an [IBridgePlugin] is called with a string.
+ */
+interface IBridgeJsonPlugin : IBridgePlugin {
+
+    fun executeJson(
+        webView: IBridgeWebView?,
+        method: String?,
+        params: Any?,
+        callback: IBridgeCallback?
+    ): Boolean
+
+    override fun execute(
+        webView: IBridgeWebView?,
+        method: String?,
+        params: String?,
+        callback: IBridgeCallback?
+    ): Boolean {
+        return executeJson(webView, method, parseBridgeParams(params), callback)
+    }
+}
+
+/**
+ * Parse string params the same way as the params of a web request: a JSON value if possible,
+ * otherwise the string itself.
+ */
+fun parseBridgeParams(params: String?): Any? {
+    if (params.isNullOrEmpty()) {
+        return null
+    }
+    return try {
+        val value = JSONTokener(params).nextValue()
+        if (value == JSONObject.NULL) null else value
+    } catch (e: JSONException) {
+        params
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge.base
+
+/**
+ * A plugin whose cheap, read-only methods can also be called synchronously by web through
+ * `_callNativeSync`, which returns the result directly instead of through a callback.
+ *
+ * [executeSync] runs on the JavaBridge thread while the JS thread of the page waits for it,
+ * so it must only read values already at hand. Calls slower than
+ * [com.jd.jdbridge.JDBridgeManager.syncCallBudgetMs] are counted, and a method that keeps
+ * exceeding the budget is switched back to the async path.
+ */
+interface IBridgeSyncPlugin : IBridgePlugin {
+
+    fun supportsSync(method: String?): Boolean
+
+    /**
+     * @param params parsed params, see [IBridgeJsonPlugin]
+     * @return the result, the same as passed to [IBridgeCallback.onSuccess] by [execute]
+     */
+    fun executeSync(webView: IBridgeWebView?, method: String?, params: Any?): Any?
+}
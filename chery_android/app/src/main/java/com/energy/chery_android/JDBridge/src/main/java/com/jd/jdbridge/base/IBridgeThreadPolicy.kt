@@ -0,0 +1,54 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 JD.com, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.jd.jdbridge.base
+
+/**
+ * Where JDBridge runs [IBridgePlugin.execute] for a call from web.
+ */
+enum class BridgeThread {
+    /** On the thread the call arrives on (the JavaBridge thread), for quick work. */
+    INLINE,
+
+    /** On the main thread, for work touching views. */
+    MAIN,
+
+    /** On the shared background pool, for disk or network work. */
+    BACKGROUND
+}
+
+/**
+ * Implemented by a plugin to declare the thread of each method. Plugins not implementing it
+ * run [BridgeThread.INLINE], as before.
+ *
+ * Calls run on the background pool at most [maxConcurrency] at a time per plugin name, the
+ * rest wait in order, so one heavy plugin neither blocks later calls nor takes the whole pool.
+ */
+interface IBridgeThreadPolicy {
+
+    fun threadOf(method: String?): BridgeThread
+
+    val maxConcurrency: Int
+        get() = 1
+}
@@ -70,12 +70,31 @@ fun IBridgeWebView.runOnMain(r: Runnable){
 //}
 
 @JvmOverloads
-fun IBridgeWebView.callJS(pluginName: String? = null, params: Any? = null, callback: IBridgeCallback? = null) {
-    getJDBridge()?.callJS(pluginName, params, callback)
+fun IBridgeWebView.callJS(
+    pluginName: String? = null,
+    params: Any? = null,
+    callback: IBridgeCallback? = null,
+    timeoutMs: Long = JDBridgeManager.callTimeoutMs,
+    priority: BridgePriority = BridgePriority.NORMAL
+) {
+    getJDBridge()?.callJS(pluginName, params, callback, timeoutMs, priority)
 }
 
-fun IBridgeWebView.dispatchEvent(eventName: String, params: Any? = null) {
-    getJDBridge()?.dispatchEvent(eventName, params)
+@JvmOverloads
+fun IBridgeWebView.dispatchEvent(
+    eventName: String,
+    params: Any? = null,
+    coalesceKey: String? = null,
+    priority: BridgePriority = BridgePriority.NORMAL
+) {
+    getJDBridge()?.dispatchEvent(eventName, params, coalesceKey, priority)
+}
+
+/**
+ * Send queued calls, responses and events to web now instead of on the next frame.
+ */
+fun IBridgeWebView.flushJsMessages() {
+    getJDBridge()?.flush()
 }
 
 fun IBridgeWebView.registerPlugin(pluginName: String, plugin: IBridgePlugin) {
@@ -2,18 +2,35 @@ package com.jd.jdcache
 
 import com.jd.jdcache.service.JDCacheMaster
 import com.jd.jdcache.match.ResourceMatcherManager
+import com.jd.jdcache.match.NavigationModel
+import com.jd.jdcache.match.MissRecorder
+import com.jd.jdcache.util.JDCacheMetric
+import com.jd.jdcache.match.MissedResource
+import com.jd.jdcache.match.NavigationPrediction
+import com.jd.jdcache.match.NavigationPredictStats
+import com.jd.jdcache.match.PreloadRegistry
+import com.jd.jdcache.match.PreloadStats
 import android.content.Context
 import androidx.annotation.Keep
 import androidx.lifecycle.LifecycleOwner
+import com.jd.jdcache.entity.JDCachePackage
 import com.jd.jdcache.match.base.JDCacheResourceMatcher
 import com.jd.jdcache.match.impl.MapResourceMatcher
+import com.jd.jdcache.match.impl.PrefetchResourceMatcher
 import com.jd.jdcache.match.impl.PreloadHtmlMatcher
 import com.jd.jdcache.service.DelegateManager
 import com.jd.jdcache.service.base.AbstractDelegate
+import com.jd.jdcache.service.base.JDCacheDownloadDelegate
+import com.jd.jdcache.service.impl.DownloadManager
+import com.jd.jdcache.service.impl.PackageSync
 import com.jd.jdcache.service.impl.FileRepo
 import com.jd.jdcache.service.impl.net.NetConnection
+import com.jd.jdcache.service.impl.net.Preconnector
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
 import com.jd.jdcache.util.JDCacheLog
+import java.io.File
 import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * 统一对外api集合类
@@ -26,9 +43,57 @@ object JDCache {
         //服务代理
         registerService(NetConnection::class.java)
         registerService(FileRepo::class.java)
+        registerService(DownloadManager::class.java)
         //匹配规则
         registerDefaultResourceMatcher(PreloadHtmlMatcher::class.java)
         registerDefaultResourceMatcher(MapResourceMatcher::class.java)
+        registerDefaultResourceMatcher(PrefetchResourceMatcher::class.java)
+        launchStartupTasks()
+    }
+
+    private val startupTasksLaunched = AtomicBoolean(false)
+
+    /**
+     * 启动依赖缓存目录的任务，需在[init]和[setGlobalParams]都调用之后才执行，只执行一次
+     */
+    private fun launchStartupTasks() {
+        if (JDCacheSetting.appContext == null || !JDCacheSetting.isParamsProviderSet) {
+            return
+        }
+        if (!startupTasksLaunched.compareAndSet(false, true)) {
+            return
+        }
+        //恢复上次进程未完成的下载
+        launchCoroutine {
+            try {
+                DelegateManager.getDelegate<JDCacheDownloadDelegate>()?.restore()
+            } catch (e: Exception) {
+                JDCacheLog.e("JDCache", "Cannot restore download tasks.", e)
+            }
+        }
+        //加载页面跳转模型
+        launchCoroutine {
+            try {
+                NavigationModel.load()
+            } catch (e: Exception) {
+                JDCacheLog.e("JDCache", "Cannot load navigation model.", e)
+            }
+        }
+        launchCoroutine {
+            try {
+                MissRecorder.load()
+            } catch (e: Exception) {
+                JDCacheLog.e("JDCache", "Cannot load missed resources.", e)
+            }
+        }
+        //预热上次访问较多的域名
+        launchCoroutine {
+            try {
+                Preconnector.warmUpPreviousOrigins()
+            } catch (e: Exception) {
+                JDCacheLog.e("JDCache", "Cannot warm up previous origins.", e)
+            }
+        }
     }
 
     /**
@@ -57,6 +122,7 @@ object JDCache {
      */
     fun setGlobalParams(paramsProviderClazz: Class<out JDCacheParamsProvider>) {
         JDCacheSetting.setGlobalParamsClass(paramsProviderClazz)
+        launchStartupTasks()
     }
 
     /**
@@ -150,6 +216,16 @@ object JDCache {
         return key?.let { JDCacheMaster.getInstance().getLoader(key) }
     }
 
+    /**
+     * 获取绑定了[view]的加载器
+     */
+    fun getLoaderByView(view: JDCacheWebView?): JDCacheLoader? {
+        if (!JDCacheSetting.enable) {
+            return null
+        }
+        return view?.let { JDCacheMaster.getInstance().findLoader(it) }
+    }
+
     /**
      * 获取加载器
      */
@@ -173,7 +249,126 @@ object JDCache {
         }
     }
 
+    /**
+     * 预连接：提前解析域名并建立连接放入连接池，之后对该域名的请求可省去DNS、TCP、TLS握手
+     */
+    fun preconnect(url: String) {
+        if (!JDCacheSetting.enable) {
+            return
+        }
+        Preconnector.preconnect(url)
+    }
+
+    /**
+     * 使用已创建的加载器额外预下载html，可同时预下载多个页面
+     */
+    fun preload(loaderKey: String?, url: String) {
+        if (!JDCacheSetting.enable) {
+            return
+        }
+        loaderKey?.let { JDCacheMaster.getInstance().getLoader(loaderKey)?.preload(url) }
+    }
+
+    /**
+     * 预测从[url]接下来会打开的页面，概率高的在前
+     */
+    fun predictNext(url: String, limit: Int = 3): List<NavigationPrediction> {
+        return NavigationModel.predict(url, limit)
+    }
+
+    /**
+     * 跳转预测的准确率（precision）与覆盖率（recall）统计
+     */
+    fun getNavigationPredictStats(): NavigationPredictStats {
+        return NavigationModel.stats
+    }
+
+    /**
+     * 未命中离线资源、走了网络的请求，按可节省的流量排序
+     */
+    fun getMissedResources(limit: Int = 100, hostFilter: String? = null): List<MissedResource> {
+        return MissRecorder.missedResources(limit, hostFilter)
+    }
+
+    /**
+     * 根据未命中记录导出建议的resource.json，用于改进离线包的覆盖范围
+     */
+    fun exportSuggestedResources(limit: Int = 100, hostFilter: String? = null): String {
+        return MissRecorder.exportResourceJson(limit, hostFilter)
+    }
+
+    /**
+     * 补充未命中资源的大小，例如页面通过Resource Timing上报的transferSize
+     */
+    fun recordResourceSize(url: String, size: Long) {
+        MissRecorder.recordSize(url, size)
+    }
+
+    /**
+     * 进程内html预下载的命中统计
+     */
+    fun getPreloadStats(): PreloadStats {
+        return PreloadRegistry.globalStats
+    }
+
+    /**
+     * 设置需要的离线包，下次同步时检查更新
+     */
+    fun setDesiredPackages(packages: List<JDCachePackage>) {
+        launchCoroutine {
+            PackageSync.setDesiredPackages(packages)
+        }
+    }
+
+    /**
+     * 按[JDCacheParamsProvider.packageSyncConfig]注册离线包的后台定期同步，需在[setGlobalParams]之后调用
+     */
+    fun schedulePackageSync() {
+        if (!JDCacheSetting.enable) {
+            return
+        }
+        PackageSync.schedule()
+    }
+
+    /**
+     * 立即同步离线包，不等待后台任务的执行条件
+     */
+    fun syncPackagesNow() {
+        if (!JDCacheSetting.enable) {
+            return
+        }
+        launchCoroutine {
+            try {
+                PackageSync.sync()
+            } catch (e: Exception) {
+                JDCacheLog.e("JDCache", "Cannot sync packages.", e)
+            }
+        }
+    }
+
+    /**
+     * 离线包的安装目录
+     */
+    fun getPackageDir(id: String): File? {
+        return PackageSync.packageDir(id)
+    }
+
     fun setLogger(logger: JDCacheLogger?) {
         JDCacheLog.myLogger = logger
     }
+
+    /**
+     * 开关性能指标统计和systrace区段，[metrics]可接入自己的监控
+     */
+    fun setMetricsEnabled(enable: Boolean, metrics: JDCacheMetrics? = null) {
+        JDCacheMetric.myMetrics = metrics
+        JDCacheMetric.enabled = enable
+    }
+
+    /**
+     * 性能指标的快照（JSON）：各匹配器命中数和字节数、拦截耗时分布、预下载等待时间、下载速度、缓存大小
+     */
+    fun getMetricsSnapshot(): String {
+        return JDCacheMetric.snapshot().toString()
+    }
 }
\ No newline at end of file
@@ -10,11 +10,26 @@ import androidx.annotation.Keep
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleEventObserver
 import androidx.lifecycle.LifecycleOwner
+import com.jd.jdcache.match.IdlePrefetcher
+import com.jd.jdcache.match.MissRecorder
+import com.jd.jdcache.match.NavigationModel
+import com.jd.jdcache.match.NavigationPredictOption
 import com.jd.jdcache.match.ResourceMatcherManager
 import com.jd.jdcache.match.base.JDCacheResourceMatcher
+import com.jd.jdcache.match.impl.PreloadHtmlMatcher
+import com.jd.jdcache.match.impl.RouteResourceMatcher
 import com.jd.jdcache.service.JDCacheMaster
+import com.jd.jdcache.service.impl.net.Preconnector
 import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheMetric
+import com.jd.jdcache.util.UrlHelper.urlToKey
 import com.jd.jdcache.util.log
+import com.jd.jdcache.util.metric
+import com.jd.jdcache.util.trace
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
 import java.util.concurrent.atomic.AtomicBoolean
 
 /**
@@ -59,6 +74,27 @@ open class JDCacheLoader constructor(
 
     protected val destroyed = AtomicBoolean(false)
 
+    /**
+     * 页面加载完成后的空闲预取
+     */
+    open val idlePrefetcher: IdlePrefetcher by lazy { IdlePrefetcher(this) }
+
+    /** 最近一次开始加载的页面 */
+    @Volatile
+    var currentPageUrl: String? = null
+        private set
+
+    /** 根据预测为当前页面的下一跳预下载的页面key */
+    @Volatile
+    private var predictedKeys: Set<String> = emptySet()
+
+    /**
+     * 本loader所属任务的协程作用域，loader销毁时取消，排队或进行中的任务随之停止
+     */
+    val scope: CoroutineScope by lazy {
+        CoroutineScope(SupervisorJob(JDCacheConstant.applicationScope.coroutineContext[Job]))
+    }
+
     protected val lifecycleEventObserver: LifecycleEventObserver by lazy {
         LifecycleEventObserver { _, event -> onLifecycleStateChanged(event) }
     }
@@ -75,6 +111,8 @@ open class JDCacheLoader constructor(
             return this
         }
         JDCacheMaster.getInstance().addLoader(this)
+        //预下载html时马上会连接页面域名，只需预先解析
+        Preconnector.preconnect(url, connect = !preloadHtml)
         prepareMatchers()
         return this
     }
@@ -89,32 +127,116 @@ open class JDCacheLoader constructor(
         }
     }
 
+    /**
+     * 预下载html，可在页面打开前多次调用以同时预下载多个页面
+     */
+    open fun preload(url: String, header: MutableMap<String?, String>? = null) {
+        if (!enable || destroyed.get()) {
+            return
+        }
+        matcherList?.forEach {
+            if (it is PreloadHtmlMatcher) {
+                it.preload(url, header)
+            }
+        }
+    }
+
+    /**
+     * 单页应用即将打开[route]时调用，预读该路由需要的chunk
+     */
+    open fun prefetchRoute(route: String) {
+        if (!enable || destroyed.get()) {
+            return
+        }
+        matcherList?.forEach {
+            if (it is RouteResourceMatcher) {
+                it.prefetchRoute(route)
+            }
+        }
+    }
+
+    /**
+     * [url]是否已在预下载
+     */
+    open fun isPreloading(url: String): Boolean {
+        return matcherList?.any { matcher ->
+            matcher is PreloadHtmlMatcher
+                    && matcher.registry.keyOption.keyOf(url)?.let { matcher.registry[it] } != null
+        } == true
+    }
+
     open fun onPageStarted(url: String) {
         if (!enable) {
             return
         }
-
+        idlePrefetcher.onPageStarted(url)
+        val previousUrl = currentPageUrl
+        if (previousUrl != null) {
+            NavigationModel.onNavigated(predictedKeys, url)
+            predictedKeys = emptySet()
+        }
+        NavigationModel.record(previousUrl, url)
+        currentPageUrl = url
     }
 
     open fun onPageFinished(url: String) {
-        if (!enable) {
+        if (!enable || destroyed.get()) {
             return
         }
+        preloadPredicted(url)
+        idlePrefetcher.onPageFinished(url)
+    }
 
+    /**
+     * 预下载预测概率较高的下一个页面
+     */
+    protected open fun preloadPredicted(url: String) {
+        val option = JDCacheSetting.getParamsProvider()?.navigationPredictOption(url)
+            ?: NavigationPredictOption()
+        if (!option.enable || !preloadHtml || option.maxPreloads <= 0) {
+            return
+        }
+        val predictions = NavigationModel.predict(url, option.maxPreloads, option.minObservations)
+            .filter { it.probability >= option.threshold }
+        if (predictions.isEmpty()) {
+            return
+        }
+        log { d("JDCacheLoader", "Preload predicted page(s) after $url: $predictions") }
+        predictedKeys = predictions.mapTo(HashSet()) { it.url.urlToKey() }
+        NavigationModel.onPreloaded(predictions.size)
+        predictions.forEach { preload(it.url) }
+    }
+
+    /**
+     * 页面上报的链接，作为空闲预取的候选页面
+     */
+    open fun reportLinks(links: List<String>) {
+        if (!enable || destroyed.get()) {
+            return
+        }
+        idlePrefetcher.reportLinks(links)
     }
 
     open fun onRequest(request: WebResourceRequest): WebResourceResponse? {
         if (!enable) {
             return null
         }
+        if (request.isForMainFrame) {
+            //开始新的跳转，让出带宽
+            idlePrefetcher.stop()
+        }
+        val start = JDCacheMetric.now()
         matcherList?.forEach { matcher ->
-            val resp = matcher.match(request)
+            val resp = trace(matcher.name) { matcher.match(request) }
             if (resp != null) {
                 log { d("JDCacheLoader", "Use local file to create response:" +
                         "[${matcher.name}](${request.url})") }
+                metric { it.onIntercepted(request, matcher.name, start, resp) }
                 return resp
             }
         }
+        MissRecorder.record(request)
+        metric { it.onIntercepted(request, null, start, null) }
         return null
     }
 
@@ -136,6 +258,7 @@ open class JDCacheLoader constructor(
     protected open fun onDestroy(){
         JDCacheMaster.getInstance().removeLoader(key)
         matcherList?.forEach { it.destroy() }
+        scope.cancel("JDCacheLoader(id:$key) destroyed")
         view = null
     }
 
@@ -0,0 +1,38 @@
+package com.jd.jdcache
+
+import androidx.annotation.Keep
+
+/**
+ * 性能指标回调，可接入自己的监控上报。
+ * 回调在请求线程或IO线程同步执行，实现需快速返回。
+ */
+@Keep
+interface JDCacheMetrics {
+    /**
+     * 拦截了一次请求
+     * @param matcher 命中的匹配器，未命中时为null
+     * @param latencyNanos 匹配耗时
+     */
+    fun onIntercept(url: String, matcher: String?, latencyNanos: Long)
+
+    /**
+     * 本地响应的流读取完毕或关闭
+     */
+    fun onBytesServed(matcher: String, bytes: Long)
+
+    /**
+     * 等待预下载的html
+     * @param received 等待期间是否收到
+     */
+    fun onPreloadWait(waitMs: Long, received: Boolean)
+
+    /**
+     * 读取完一个网络响应体
+     */
+    fun onDownload(bytes: Long, durationMs: Long)
+
+    /**
+     * 缓存占用变化
+     */
+    fun onCacheSize(name: String, bytes: Long)
+}
@@ -6,7 +6,12 @@ import android.webkit.CookieManager
 import android.webkit.CookieSyncManager
 import androidx.annotation.Keep
 import com.jd.jdcache.entity.JDCacheDataSource
+import com.jd.jdcache.match.IdlePrefetchOption
+import com.jd.jdcache.match.NavigationPredictOption
+import com.jd.jdcache.match.PreloadKeyOption
+import com.jd.jdcache.service.impl.PackageSyncConfig
 import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.NetworkQualityEstimator
 import com.jd.jdcache.util.log
 import java.io.File
 
@@ -62,6 +67,64 @@ abstract class JDCacheParamsProvider {
         return null
     }
 
+    /**
+     * Rule of matching pre-downloaded html with the main frame request of WebView.
+     * By default only host and path are compared, override to take query or fragment into account.
+     */
+    open fun preloadKeyOption(url: String): PreloadKeyOption {
+        return PreloadKeyOption()
+    }
+
+    /**
+     * Connect timeout(ms) of network requests, derived from [NetworkQualityEstimator] by default.
+     */
+    open fun connectTimeout(url: String): Int {
+        return NetworkQualityEstimator.suggestConnectTimeout()
+    }
+
+    /**
+     * Read timeout(ms) of network requests, derived from [NetworkQualityEstimator] by default.
+     */
+    open fun readTimeout(url: String): Int {
+        return NetworkQualityEstimator.suggestReadTimeout()
+    }
+
+    /**
+     * Max time(ms) the main frame request of WebView waits for the pre-downloading html.
+     */
+    open fun preloadWaitTime(url: String): Long {
+        return NetworkQualityEstimator.suggestPreloadWaitTime()
+    }
+
+    /**
+     * Max number of concurrent tasks other than main frame preloads,
+     * fewer prefetches run on a poor network to leave bandwidth for the page itself.
+     */
+    open fun prefetchParallelism(): Int {
+        return NetworkQualityEstimator.suggestPrefetchParallelism()
+    }
+
+    /**
+     * Option of prefetching likely next pages after the page of [url] finishes loading.
+     */
+    open fun idlePrefetchOption(url: String): IdlePrefetchOption {
+        return IdlePrefetchOption()
+    }
+
+    /**
+     * Option of preloading the predicted next pages after the page of [url] finishes loading.
+     */
+    open fun navigationPredictOption(url: String): NavigationPredictOption {
+        return NavigationPredictOption()
+    }
+
+    /**
+     * Config of offline package sync, return null to disable background sync.
+     */
+    open fun packageSyncConfig(): PackageSyncConfig? {
+        return null
+    }
+
 //    open fun preloadHtmlUrl(originUrl: String): String? {
 //        return originUrl
 //    }
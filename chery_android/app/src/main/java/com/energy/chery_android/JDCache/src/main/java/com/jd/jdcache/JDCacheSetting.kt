@@ -1,12 +1,17 @@
 package com.jd.jdcache
 
 import android.content.Context
+import com.jd.jdcache.util.JDCacheLog
 import com.jd.jdcache.util.JDCacheLog.e
 import com.jd.jdcache.util.log
 
 internal object JDCacheSetting {
     var appContext: Context? = null
     var debug: Boolean = false
+        set(value) {
+            field = value
+            JDCacheLog.refreshCanLog()
+        }
     var enable: Boolean = true
 
 //    private var globalParamsClassChanged = AtomicBoolean(true)
@@ -17,10 +22,17 @@ internal object JDCacheSetting {
         paramsProvider = null
 //        globalParamsClassChanged.set(true)
         paramsProviderClass = clazz
+        JDCacheLog.refreshCanLog()
     }
 
     private var paramsProvider: JDCacheParamsProvider? = null
 
+    /**
+     * 是否已设置全局参数，未设置时无法获取缓存目录等参数
+     */
+    val isParamsProviderSet: Boolean
+        get() = paramsProviderClass != JDCacheParamsProvider::class.java
+
     fun getParamsProvider(): JDCacheParamsProvider? {
         if (paramsProvider == null) {
             synchronized(this) {
@@ -13,6 +13,16 @@ data class JDCacheDataSource constructor(
     var localFileMap: HashMap<String, JDCacheLocalResp>? = null
 ) {
 
+    /**
+     * 路由 -> 打开该路由需要的文件url，由[ViteDataSourceBuilder]根据构建清单生成
+     */
+    var routeChunks: Map<String, List<String>>? = null
+
+    /**
+     * [routeChunks]中的路由相对的路径，对应Vite的base配置
+     */
+    var routeBasePath: String = "/"
+
     /**
      * Using the given data to build a JDCacheDataSource,
      * will convert into a map where key is in "host/path" format.
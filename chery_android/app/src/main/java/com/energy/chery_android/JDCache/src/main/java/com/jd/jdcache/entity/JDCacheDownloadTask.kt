@@ -0,0 +1,146 @@
+package com.jd.jdcache.entity
+
+import androidx.annotation.Keep
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import com.jd.jdcache.util.log
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * 下载任务，会被持久化，进程重启后可恢复。
+ * Cookie、Authorization等凭证类请求头不会被持久化，恢复后的任务由[JDCacheParamsProvider]重新提供cookie。
+ */
+@Keep
+data class JDCacheDownloadTask(
+    val id: String,
+    val url: String,
+    /** 相对于缓存根目录的保存路径 */
+    val relativeFilePath: String,
+    @JvmField var header: Map<String?, String>? = null,
+    /** 仅在不计流量的网络（如Wi-Fi）下载 */
+    val requireUnmetered: Boolean = false,
+    /** 仅在充电时下载 */
+    val requireCharging: Boolean = false,
+    /** 暂停或中断后是否使用Range续传 */
+    val resumable: Boolean = true,
+    var status: Status = Status.PENDING,
+    var downloaded: Long = 0,
+    var total: Long = -1,
+    val createTime: Long = System.currentTimeMillis(),
+    val method: String = METHOD_GET,
+    val userAgent: String? = null,
+    /** 是否跟随重定向，不跟随时遇到重定向则任务失败 */
+    val allowRedirect: Boolean = true
+) {
+
+    companion object {
+        /** 不持久化的请求头 */
+        private val CREDENTIAL_HEADERS = arrayOf("Cookie", "Authorization", "Proxy-Authorization")
+
+        internal fun isCredentialHeader(key: String): Boolean {
+            return CREDENTIAL_HEADERS.any { it.equals(key, ignoreCase = true) }
+        }
+    }
+
+    @Keep
+    enum class Status {
+        /** 等待执行 */
+        PENDING,
+        /** 等待网络、充电等条件满足 */
+        WAITING_CONSTRAINTS,
+        RUNNING,
+        PAUSED,
+        COMPLETED,
+        FAILED;
+
+        val isFinished: Boolean
+            get() = this == COMPLETED || this == FAILED
+    }
+
+    fun toJson(): JSONObject {
+        val json = JSONObject()
+        json.put("id", id)
+        json.put("url", url)
+        json.put("relativeFilePath", relativeFilePath)
+        header?.let {
+            val headerJson = JSONObject()
+            it.forEach { entry ->
+                entry.key?.takeUnless { key -> isCredentialHeader(key) }
+                    ?.let { key -> headerJson.put(key, entry.value) }
+            }
+            json.put("header", headerJson)
+        }
+        json.put("requireUnmetered", requireUnmetered)
+        json.put("requireCharging", requireCharging)
+        json.put("resumable", resumable)
+        json.put("status", status.name)
+        json.put("downloaded", downloaded)
+        json.put("total", total)
+        json.put("createTime", createTime)
+        json.put("method", method)
+        userAgent?.let { json.put("userAgent", it) }
+        json.put("allowRedirect", allowRedirect)
+        return json
+    }
+
+    override fun toString(): String {
+        return "JDCacheDownloadTask(id=$id, url=$url, path=$relativeFilePath, " +
+                "status=$status, $downloaded/$total)"
+    }
+}
+
+@Keep
+fun downloadTaskParse(json: JSONObject): JDCacheDownloadTask? {
+    return try {
+        val header: Map<String?, String>? = json.optJSONObject("header")?.let {
+            val map = HashMap<String?, String>()
+            it.keys().forEach { key ->
+                map[key] = it.getString(key)
+            }
+            map
+        }
+        JDCacheDownloadTask(
+            json.getString("id"),
+            json.getString("url"),
+            json.getString("relativeFilePath"),
+            header,
+            json.optBoolean("requireUnmetered", false),
+            json.optBoolean("requireCharging", false),
+            json.optBoolean("resumable", true),
+            try {
+                JDCacheDownloadTask.Status.valueOf(json.optString("status"))
+            } catch (e: IllegalArgumentException) {
+                JDCacheDownloadTask.Status.PENDING
+            },
+            json.optLong("downloaded", 0),
+            json.optLong("total", -1),
+            json.optLong("createTime", System.currentTimeMillis()),
+            json.optString("method", METHOD_GET),
+            if (json.has("userAgent")) json.optString("userAgent") else null,
+            json.optBoolean("allowRedirect", true)
+        )
+    } catch (e: JSONException) {
+        log { e("JDCacheDownloadTask", e) }
+        null
+    }
+}
+
+@Keep
+fun downloadTaskArrayParse(jsonString: String?): MutableList<JDCacheDownloadTask>? {
+    if (jsonString.isNullOrEmpty()) {
+        return null
+    }
+    return try {
+        val jsonArray = JSONArray(jsonString)
+        val list = ArrayList<JDCacheDownloadTask>(jsonArray.length())
+        for (i in 0 until jsonArray.length()) {
+            jsonArray.optJSONObject(i)?.let { downloadTaskParse(it) }?.let { list.add(it) }
+        }
+        list
+    } catch (e: JSONException) {
+        log { e("JDCacheDownloadTask", e) }
+        null
+    }
+}
@@ -2,6 +2,7 @@ package com.jd.jdcache.entity
 
 import android.webkit.WebResourceResponse
 import androidx.annotation.Keep
+import com.jd.jdcache.service.impl.net.ContentDecoder
 import com.jd.jdcache.util.IUsefulCheck
 import com.jd.jdcache.util.JDCacheLog.e
 import com.jd.jdcache.util.log
@@ -10,6 +11,7 @@ import org.json.JSONException
 import org.json.JSONObject
 import java.io.File
 import java.io.FileInputStream
+import java.io.IOException
 import java.io.InputStream
 
 @Keep
@@ -153,6 +155,25 @@ fun JDCacheLocalResp.createResponse(fileDirPath: String? = null): WebResourceRes
         inputStream = if (canUsePath) FileInputStream(filePath) else null
     }
 
+    //压缩存储的文件在使用时再解压
+    var respHeader = fileResp.header
+    val contentEncoding = respHeader?.entries
+        ?.firstOrNull { "Content-Encoding".equals(it.key, ignoreCase = true) }?.value
+    val rawStream = inputStream
+    if (rawStream != null && ContentDecoder.isEncoded(contentEncoding)) {
+        inputStream = try {
+            ContentDecoder.decode(contentEncoding, rawStream)
+        } catch (e: IOException) {
+            log { e("JDCacheLocalResp", "Cannot decode $contentEncoding content of $url", e) }
+            rawStream.close()
+            return null
+        }
+        respHeader = respHeader?.filterKeys {
+            !"Content-Encoding".equals(it, ignoreCase = true)
+                    && !"Content-Length".equals(it, ignoreCase = true)
+        }?.toMutableMap()
+    }
+
     if (inputStream == null) {
         log {
             e(
@@ -165,7 +186,7 @@ fun JDCacheLocalResp.createResponse(fileDirPath: String? = null): WebResourceRes
     }
 
     val resp = WebResourceResponse(mimeType, encoding, inputStream)
-    resp.responseHeaders = fileResp.header
+    resp.responseHeaders = respHeader
     return resp
 }
 
@@ -0,0 +1,67 @@
+package com.jd.jdcache.entity
+
+import androidx.annotation.Keep
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.log
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * 离线包。
+ * 本地清单中只需id和期望的version；服务端清单返回最新的version、下载地址url和大小size。
+ */
+@Keep
+data class JDCachePackage(
+    val id: String,
+    val version: String,
+    val url: String? = null,
+    /** 压缩包大小（字节），未知为-1 */
+    val size: Long = -1
+) {
+
+    fun toJson(): JSONObject {
+        val json = JSONObject()
+        json.put("id", id)
+        json.put("version", version)
+        url?.let { json.put("url", it) }
+        if (size >= 0) {
+            json.put("size", size)
+        }
+        return json
+    }
+}
+
+@Keep
+fun packageParse(json: JSONObject): JDCachePackage? {
+    return try {
+        JDCachePackage(
+            json.getString("id"),
+            json.getString("version"),
+            if (json.has("url")) json.getString("url") else null,
+            json.optLong("size", -1)
+        )
+    } catch (e: JSONException) {
+        log { e("JDCachePackage", e) }
+        null
+    }
+}
+
+@Keep
+fun packageArrayParse(jsonArray: JSONArray?): MutableList<JDCachePackage> {
+    val list = ArrayList<JDCachePackage>()
+    if (jsonArray == null) {
+        return list
+    }
+    for (i in 0 until jsonArray.length()) {
+        jsonArray.optJSONObject(i)?.let { packageParse(it) }?.let { list.add(it) }
+    }
+    return list
+}
+
+@Keep
+fun List<JDCachePackage>.toJsonArray(): JSONArray {
+    val array = JSONArray()
+    forEach { array.put(it.toJson()) }
+    return array
+}
@@ -0,0 +1,175 @@
+package com.jd.jdcache.entity
+
+import androidx.annotation.Keep
+import androidx.annotation.WorkerThread
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.log
+import java.io.File
+import java.net.URL
+
+/**
+ * 根据Vite/Rollup的构建清单和dist目录生成[JDCacheDataSource]，无需手写resource.json。
+ * dist目录下的每个文件都映射为 baseUrl + 相对路径；
+ * 同时记录每个路由需要的chunk，供[com.jd.jdcache.match.impl.RouteResourceMatcher]在打开路由前预读。
+ *
+ * ```
+ * val source = ViteDataSourceBuilder(File(cacheDir, "packages/h5"), "https://m.example.com/app/")
+ *     .route("/order", "src/pages/Order.vue")
+ *     .build()
+ * ```
+ *
+ * @param distDir 构建产物目录（已下载到本地）
+ * @param baseUrl 产物部署的地址，对应Vite的base配置
+ */
+@Keep
+class ViteDataSourceBuilder(private val distDir: File, baseUrl: String) {
+
+    companion object {
+        private const val TAG = "ViteDataSourceBuilder"
+
+        /** Vite产物文件名中的hash，例如 index-1a2b3c4d.js、index.B7nO9-xZ.js */
+        private val HASHED_NAME = Regex(".+[-.][A-Za-z0-9_-]{8,}\\.[a-z0-9]+$")
+
+        private val MIME_TYPES = mapOf(
+            "html" to "text/html",
+            "js" to "application/javascript",
+            "mjs" to "application/javascript",
+            "css" to "text/css",
+            "json" to "application/json",
+            "svg" to "image/svg+xml",
+            "png" to "image/png",
+            "jpg" to "image/jpeg",
+            "jpeg" to "image/jpeg",
+            "gif" to "image/gif",
+            "webp" to "image/webp",
+            "ico" to "image/x-icon",
+            "woff" to "font/woff",
+            "woff2" to "font/woff2",
+            "ttf" to "font/ttf",
+            "wasm" to "application/wasm"
+        )
+    }
+
+    private val baseUrl = if (baseUrl.endsWith("/")) baseUrl else "$baseUrl/"
+
+    private val routes = LinkedHashMap<String, String>()
+
+    private var manifestFile: File? = null
+
+    private var routeResolver: ((ViteChunk) -> String?)? = null
+
+    /**
+     * 指定清单文件，默认在dist目录中查找
+     */
+    fun manifest(file: File): ViteDataSourceBuilder {
+        manifestFile = file
+        return this
+    }
+
+    /**
+     * 登记路由与清单key的对应关系，例如 "/order" -> "src/pages/Order.vue"
+     */
+    fun route(route: String, manifestKey: String): ViteDataSourceBuilder {
+        routes[normalizeRoute(route)] = manifestKey
+        return this
+    }
+
+    /**
+     * 根据约定从chunk推导路由，例如按页面目录结构，返回null表示不是路由页面
+     */
+    fun routeResolver(resolver: (ViteChunk) -> String?): ViteDataSourceBuilder {
+        routeResolver = resolver
+        return this
+    }
+
+    /**
+     * 读取清单和遍历目录，需在工作线程调用
+     */
+    @WorkerThread
+    fun build(): JDCacheDataSource {
+        val resources = ArrayList<JDCacheLocalResp>()
+        val distPath = distDir.absolutePath
+        distDir.walkTopDown()
+            .onEnter { it == distDir || it.name != ".vite" }
+            .filter { it.isFile && it.name != "manifest.json" && it.name != "resource.json" }
+            .forEach { file ->
+                val relativePath = file.absolutePath.removePrefix(distPath)
+                    .trimStart(File.separatorChar).replace(File.separatorChar, '/')
+                resources.add(createResp(relativePath))
+            }
+        val dataSource = JDCacheDataSource(distPath, sourceList1 = resources)
+        dataSource.routeBasePath = try {
+            URL(baseUrl).path.ifEmpty { "/" }
+        } catch (e: Exception) {
+            "/"
+        }
+        val manifest = readManifest()
+        if (manifest != null) {
+            dataSource.routeChunks = buildRouteChunks(manifest)
+        }
+        log {
+            d(TAG, "Built data source of ${resources.size} file(s), " +
+                    "${dataSource.routeChunks?.size ?: 0} route(s) from $distPath")
+        }
+        return dataSource
+    }
+
+    private fun readManifest(): ViteManifest? {
+        val file = manifestFile ?: ViteManifest.find(distDir) ?: return null
+        return try {
+            ViteManifest.parse(file.readText())
+        } catch (e: Exception) {
+            log { e(TAG, "Cannot parse manifest ${file.path}", e) }
+            null
+        }
+    }
+
+    private fun buildRouteChunks(manifest: ViteManifest): Map<String, List<String>> {
+        val routeKeys = LinkedHashMap<String, String>()
+        //html入口对应其所在目录，例如 index.html -> /，about/index.html -> /about
+        manifest.entries.forEach { chunk ->
+            if (chunk.key.endsWith(".html")) {
+                val dir = chunk.key.substringBeforeLast('/', "")
+                routeKeys[normalizeRoute("/$dir")] = chunk.key
+            }
+        }
+        routeResolver?.let { resolver ->
+            manifest.chunks.values.forEach { chunk ->
+                resolver(chunk)?.let { routeKeys[normalizeRoute(it)] = chunk.key }
+            }
+        }
+        routeKeys.putAll(routes)
+        return routeKeys.mapValues { (_, key) ->
+            manifest.filesOf(key).map { baseUrl + it }
+        }.filterValues { it.isNotEmpty() }
+    }
+
+    private fun createResp(relativePath: String): JDCacheLocalResp {
+        val extension = relativePath.substringAfterLast('.', "").lowercase()
+        val type = when (extension) {
+            "html" -> "html"
+            "js", "mjs" -> "script"
+            "css" -> "stylesheet"
+            "png", "jpg", "jpeg", "gif", "webp", "svg", "ico" -> "image"
+            else -> "other"
+        }
+        val header = HashMap<String?, String>()
+        MIME_TYPES[extension]?.let {
+            header["Content-Type"] = if (it.startsWith("text/") || it == "application/javascript") {
+                "$it; charset=utf-8"
+            } else {
+                it
+            }
+        }
+        if (type != "html" && HASHED_NAME.matches(relativePath.substringAfterLast('/'))) {
+            //文件名带hash的产物内容不会变
+            header["Cache-Control"] = "public, max-age=31536000, immutable"
+        }
+        return JDCacheLocalResp(baseUrl + relativePath, type, header, relativePath)
+    }
+
+    private fun normalizeRoute(route: String): String {
+        return "/" + route.trim().trim('/')
+    }
+}
@@ -0,0 +1,105 @@
+package com.jd.jdcache.entity
+
+import androidx.annotation.Keep
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+
+/**
+ * Vite（build.manifest）或Rollup的构建清单中的一项。
+ * @param key 清单中的key，一般是源码路径，例如 src/pages/Foo.vue、index.html
+ * @param file 构建产物相对dist目录的路径，例如 assets/Foo-1a2b3c.js
+ */
+@Keep
+data class ViteChunk(
+    val key: String,
+    val file: String,
+    val src: String? = null,
+    val isEntry: Boolean = false,
+    val isDynamicEntry: Boolean = false,
+    val imports: List<String> = emptyList(),
+    val dynamicImports: List<String> = emptyList(),
+    val css: List<String> = emptyList(),
+    val assets: List<String> = emptyList()
+)
+
+/**
+ * 构建清单，支持Vite的 .vite/manifest.json（Vite 4 及以前为 manifest.json），
+ * 以及值为文件路径的简单Rollup清单 {"main.js":"assets/main-1a2b3c.js"}。
+ */
+@Keep
+class ViteManifest(val chunks: Map<String, ViteChunk>) {
+
+    companion object {
+
+        /**
+         * 在dist目录中查找清单文件
+         */
+        @JvmStatic
+        fun find(distDir: File): File? {
+            return listOf(
+                File(distDir, ".vite${File.separator}manifest.json"),
+                File(distDir, "manifest.json")
+            ).firstOrNull { it.isFile }
+        }
+
+        @JvmStatic
+        fun parse(json: String): ViteManifest {
+            val root = JSONObject(json)
+            val chunks = LinkedHashMap<String, ViteChunk>()
+            root.keys().forEach { key ->
+                val value = root.get(key)
+                if (value is String) {
+                    chunks[key] = ViteChunk(key, value)
+                } else if (value is JSONObject) {
+                    val file = value.optString("file")
+                    if (file.isNotEmpty()) {
+                        chunks[key] = ViteChunk(
+                            key,
+                            file,
+                            if (value.has("src")) value.optString("src") else null,
+                            value.optBoolean("isEntry"),
+                            value.optBoolean("isDynamicEntry"),
+                            value.optJSONArray("imports").toStringList(),
+                            value.optJSONArray("dynamicImports").toStringList(),
+                            value.optJSONArray("css").toStringList(),
+                            value.optJSONArray("assets").toStringList()
+                        )
+                    }
+                }
+            }
+            return ViteManifest(chunks)
+        }
+
+        private fun JSONArray?.toStringList(): List<String> {
+            if (this == null) {
+                return emptyList()
+            }
+            return (0 until length()).mapNotNull { optString(it).takeIf { s -> s.isNotEmpty() } }
+        }
+    }
+
+    val entries: List<ViteChunk>
+        get() = chunks.values.filter { it.isEntry }
+
+    /**
+     * 加载[key]需要的所有文件（相对dist目录）：自身、递归的静态imports，以及它们的css和assets。
+     * 动态import的chunk不包含在内，它们是其他路由的依赖。
+     */
+    fun filesOf(key: String): List<String> {
+        val files = LinkedHashSet<String>()
+        val visited = HashSet<String>()
+        fun visit(chunkKey: String) {
+            if (!visited.add(chunkKey)) {
+                return
+            }
+            val chunk = chunks[chunkKey] ?: return
+            files.add(chunk.file)
+            chunk.css.forEach { files.add(it) }
+            chunk.imports.forEach { visit(it) }
+            chunk.assets.forEach { files.add(it) }
+        }
+        visit(key)
+        return files.toList()
+    }
+}
@@ -0,0 +1,335 @@
+package com.jd.jdcache.match
+
+import android.net.Uri
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheLoader
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.entity.JDCacheLocalResp
+import com.jd.jdcache.service.DelegateManager
+import com.jd.jdcache.service.base.FileSaveOption
+import com.jd.jdcache.service.base.FileState
+import com.jd.jdcache.service.base.JDCacheFileRepoDelegate
+import com.jd.jdcache.service.impl.net.FileRequest
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.NetworkQuality
+import com.jd.jdcache.util.NetworkQualityEstimator
+import com.jd.jdcache.util.UrlHelper.convertHeader
+import com.jd.jdcache.util.log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.lastOrNull
+import kotlinx.coroutines.flow.transformWhile
+import java.io.File
+import java.io.InputStreamReader
+import java.net.URL
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 空闲预取配置
+ * @param quietPeriodMs 页面加载完成后等待的静默时间，期间没有新的跳转才开始预取
+ * @param sessionByteBudget 每个[JDCacheLoader]最多预取的字节数
+ * @param maxPages 每次预取的页面数
+ * @param maxAssetsPerPage 每个页面预取的关键资源（head中的样式表和脚本）数
+ * @param maxAgeMs 预取内容的有效期
+ * @param sameHostOnly 只预取与当前页面同域名的页面
+ */
+@Keep
+data class IdlePrefetchOption(
+    val enable: Boolean = true,
+    val quietPeriodMs: Long = 1500L,
+    val sessionByteBudget: Long = 2 * 1024 * 1024L,
+    val maxPages: Int = 3,
+    val maxAssetsPerPage: Int = 6,
+    val maxAgeMs: Long = 5 * 60 * 1000L,
+    val sameHostOnly: Boolean = true
+)
+
+/**
+ * 空闲预取：页面加载完成并静默一段时间后，以最低优先级预取接下来可能打开的页面html及其关键资源，
+ * 预取结果由[com.jd.jdcache.match.impl.PrefetchResourceMatcher]响应。
+ * 候选页面来自页面上报的链接（[reportLinks]）和[NavigationModel]的预测。
+ * 开始新的跳转时立即停止。
+ */
+@Keep
+open class IdlePrefetcher(protected val loader: JDCacheLoader) {
+
+    companion object {
+        private const val TAG = "IdlePrefetcher"
+
+        private const val MAX_REPORTED_LINKS = 50
+
+        /** 只解析html前部，关键资源一般在head中 */
+        private const val MAX_PARSE_CHARS = 64 * 1024
+
+        private val SCRIPT_SRC = Regex(
+            "<script\\b[^>]*?\\bsrc\\s*=\\s*[\"']([^\"']+)[\"']", RegexOption.IGNORE_CASE)
+
+        private val LINK_TAG = Regex("<link\\b[^>]*>", RegexOption.IGNORE_CASE)
+
+        private val REL_STYLESHEET = Regex(
+            "\\brel\\s*=\\s*[\"']?[^\"'>]*\\bstylesheet\\b", RegexOption.IGNORE_CASE)
+
+        private val HREF = Regex("\\bhref\\s*=\\s*[\"']([^\"']+)[\"']", RegexOption.IGNORE_CASE)
+    }
+
+    protected val fileRepo: JDCacheFileRepoDelegate? by lazy {
+        DelegateManager.getDelegate<JDCacheFileRepoDelegate>()
+    }
+
+    private val lock = Any()
+
+    private val reportedLinks = LinkedHashSet<String>()
+
+    private var job: Job? = null
+
+    @Volatile
+    private var finishedUrl: String? = null
+
+    /** 本loader已预取的字节数 */
+    val usedBytes = AtomicLong(0)
+
+    /**
+     * 页面上报的可见链接，例如由JSBridge收集的 a 标签href
+     */
+    open fun reportLinks(links: List<String>) {
+        val pageUrl: String?
+        synchronized(lock) {
+            links.forEach {
+                if (reportedLinks.size < MAX_REPORTED_LINKS) {
+                    reportedLinks.add(it)
+                }
+            }
+            pageUrl = if (job?.isActive == true) null else finishedUrl
+        }
+        //页面加载完成后才上报的，重新开始计时
+        pageUrl?.let { schedule(it) }
+    }
+
+    open fun onPageStarted(url: String) {
+        stop()
+        synchronized(lock) {
+            finishedUrl = null
+            reportedLinks.clear()
+        }
+    }
+
+    open fun onPageFinished(url: String) {
+        finishedUrl = url
+        schedule(url)
+    }
+
+    /**
+     * 立即停止预取，正在进行的下载随协程取消而中断
+     */
+    open fun stop() {
+        synchronized(lock) {
+            job?.let {
+                it.cancel()
+                log { d(TAG, "Stop idle prefetch.") }
+            }
+            job = null
+        }
+    }
+
+    protected open fun schedule(pageUrl: String) {
+        val option = JDCacheSetting.getParamsProvider()?.idlePrefetchOption(pageUrl)
+            ?: IdlePrefetchOption()
+        if (!option.enable) {
+            return
+        }
+        synchronized(lock) {
+            job?.cancel()
+            job = launchCoroutine(loader.scope, JDCachePriority.HOUSEKEEPING) {
+                delay(option.quietPeriodMs)
+                try {
+                    prefetch(pageUrl, option)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    log { e(TAG, e) }
+                }
+            }
+        }
+    }
+
+    /**
+     * 候选页面，上报的链接在前，跳转模型预测的页面在后
+     */
+    protected open fun candidates(pageUrl: String, option: IdlePrefetchOption): List<String> {
+        val pageKey = PrefetchStore.keyOf(pageUrl, true)
+        val pageHost = Uri.parse(pageUrl).host
+        val links = synchronized(lock) { ArrayList(reportedLinks) }
+        val result = LinkedHashMap<String, String>()
+        (links + NavigationModel.predict(pageUrl, option.maxPages).map { it.url }).forEach { link ->
+            val uri = Uri.parse(link)
+            if (uri.scheme != "http" && uri.scheme != "https") {
+                return@forEach
+            }
+            if (option.sameHostOnly && !uri.host.equals(pageHost, ignoreCase = true)) {
+                return@forEach
+            }
+            val key = PrefetchStore.keyOf(link, true)
+            if (key != pageKey && !PrefetchStore.contains(link, true) && !loader.isPreloading(link)) {
+                if (key !in result) {
+                    result[key] = link
+                }
+            }
+        }
+        return result.values.take(option.maxPages)
+    }
+
+    protected open suspend fun prefetch(pageUrl: String, option: IdlePrefetchOption) {
+        if (NetworkQualityEstimator.quality == NetworkQuality.POOR) {
+            log { d(TAG, "Skip idle prefetch on poor network.") }
+            return
+        }
+        val pages = candidates(pageUrl, option)
+        if (pages.isEmpty()) {
+            return
+        }
+        runOnIo { PrefetchStore.clearStaleFiles() }
+        log { d(TAG, "Idle prefetch ${pages.size} page(s) after $pageUrl") }
+        for (page in pages) {
+            currentCoroutineContext().ensureActive()
+            if (usedBytes.get() >= option.sessionByteBudget) {
+                log { d(TAG, "Idle prefetch budget(${option.sessionByteBudget}) used up.") }
+                return
+            }
+            val html = fetch(page, "html", option) ?: continue
+            val assets = runOnIo { criticalAssets(page, html, option.maxAssetsPerPage) }
+            for (asset in assets) {
+                currentCoroutineContext().ensureActive()
+                if (usedBytes.get() >= option.sessionByteBudget) {
+                    return
+                }
+                if (!PrefetchStore.contains(asset, false)) {
+                    val isStylesheet = Uri.parse(asset).path?.endsWith(".css", ignoreCase = true) == true
+                    fetch(asset, if (isStylesheet) "stylesheet" else "script", option)
+                }
+            }
+        }
+    }
+
+    protected open suspend fun fetch(url: String, type: String, option: IdlePrefetchOption): File? {
+        val provider = JDCacheSetting.getParamsProvider()
+        val saveOption = FileSaveOption(
+            userAgent = provider?.getUserAgent(url),
+            cookie = provider?.getCookie(url)
+        )
+        val relativePath = PrefetchStore.relativePathOf(url)
+        val remaining = option.sessionByteBudget - usedBytes.get()
+        // 下载过程中按进度检查预算，超出时停止下载，避免单个大文件超出预算
+        val state = try {
+            fileRepo?.saveFileFromNetFlow(url, relativePath, saveOption)
+                ?.transformWhile {
+                    emit(it)
+                    !(it is FileState.OnProgress && (it.progress > remaining || it.max > remaining))
+                }
+                ?.lastOrNull()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            log { e(TAG, e) }
+            null
+        }
+        if (state !is FileState.Complete) {
+            if (state is FileState.OnProgress) {
+                log { d(TAG, "Stop prefetching $url, exceeds remaining budget($remaining).") }
+                usedBytes.addAndGet(state.progress)
+                fileRepo?.deleteRelativeFile(FileRequest.tempPathOf(relativePath))
+            }
+            return null
+        }
+        val file = state.data
+        usedBytes.addAndGet(file.length())
+        if (file.length() > remaining) {
+            file.delete()
+            return null
+        }
+        val header = state.headers?.convertHeader()
+        if (!isStorable(header)) {
+            file.delete()
+            return null
+        }
+        val resp = JDCacheLocalResp(url, type, header?.toMutableMap(), file.absolutePath)
+        PrefetchStore.put(resp, file, option.maxAgeMs)
+        log { d(TAG, "Prefetched $url, ${file.length()} bytes, used ${usedBytes.get()} bytes") }
+        return file
+    }
+
+    /**
+     * 不保存禁止缓存或会设置cookie的响应
+     */
+    protected open fun isStorable(header: Map<String?, String>?): Boolean {
+        header?.forEach { (key, value) ->
+            if ("Set-Cookie".equals(key, ignoreCase = true)) {
+                return false
+            }
+            if ("Cache-Control".equals(key, ignoreCase = true)
+                && value.contains("no-store", ignoreCase = true)) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * 从html的head中找出样式表和脚本
+     */
+    protected open fun criticalAssets(pageUrl: String, html: File, limit: Int): List<String> {
+        if (limit <= 0) {
+            return emptyList()
+        }
+        val content = try {
+            InputStreamReader(html.inputStream()).use { reader ->
+                val buffer = CharArray(MAX_PARSE_CHARS)
+                var length = 0
+                while (length < buffer.size) {
+                    val read = reader.read(buffer, length, buffer.size - length)
+                    if (read < 0) {
+                        break
+                    }
+                    length += read
+                }
+                String(buffer, 0, length)
+            }
+        } catch (e: Exception) {
+            log { e(TAG, e) }
+            return emptyList()
+        }
+        val headEnd = content.indexOf("</head>", ignoreCase = true)
+        val head = if (headEnd >= 0) content.substring(0, headEnd) else content
+        val base = try {
+            URL(pageUrl)
+        } catch (e: Exception) {
+            return emptyList()
+        }
+        val found = ArrayList<String>()
+        LINK_TAG.findAll(head).forEach { match ->
+            val tag = match.value
+            if (REL_STYLESHEET.containsMatchIn(tag)) {
+                HREF.find(tag)?.groupValues?.get(1)?.let { found.add(it) }
+            }
+        }
+        SCRIPT_SRC.findAll(head).forEach { found.add(it.groupValues[1]) }
+        return found.asSequence()
+            .mapNotNull {
+                try {
+                    URL(base, it.replace("&amp;", "&")).toString()
+                } catch (e: Exception) {
+                    null
+                }
+            }
+            .filter { it.startsWith("http") }
+            .distinct()
+            .take(limit)
+            .toList()
+    }
+}
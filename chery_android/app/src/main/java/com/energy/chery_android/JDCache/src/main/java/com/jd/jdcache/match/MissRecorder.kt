@@ -0,0 +1,253 @@
+package com.jd.jdcache.match
+
+import android.net.Uri
+import android.webkit.WebResourceRequest
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import com.jd.jdcache.util.UrlHelper.stripQuery
+import com.jd.jdcache.util.UrlHelper.urlToKey
+import com.jd.jdcache.util.getString
+import com.jd.jdcache.util.log
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 未命中离线资源的统计项
+ * @param url 首次记录的url，不含query和fragment
+ * @param size 资源大小，未知时为-1
+ */
+@Keep
+data class MissedResource(
+    val key: String,
+    val url: String,
+    val type: String,
+    val count: Long,
+    val size: Long
+) {
+    /** 预计放入离线包后可节省的流量：次数 x 大小 */
+    val bytesSaved: Long
+        get() = if (size > 0) count * size else 0L
+}
+
+/**
+ * 记录所有匹配器都未命中、需走网络的请求，按 urlToKey 聚合次数、资源类型和大小，
+ * 用真实访问数据决定离线包应包含哪些资源。
+ * 记录在请求线程进行，只做一次map查找和原子自增；统计定期保存在cacheDir/model/misses.json。
+ * 大小在请求时无法得知，由[recordSize]补充（例如页面通过Resource Timing上报）。
+ */
+@Keep
+object MissRecorder {
+
+    private const val TAG = "MissRecorder"
+
+    private const val MAX_ENTRIES = 2000
+
+    private const val SAVE_DELAY = 30 * 1000L
+
+    private class Entry(val url: String, val type: String) {
+        val count = AtomicLong(0)
+        @Volatile
+        var size: Long = -1
+    }
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+
+    @Volatile
+    var enable: Boolean = true
+
+    private val loaded = AtomicBoolean(false)
+
+    private val fileMutex = Mutex()
+
+    @Volatile
+    private var saveJob: Job? = null
+
+    private val recordFile: File?
+        get() = JDCacheSetting.getParamsProvider()?.cacheDir?.let {
+            File(it + File.separator + "model", "misses.json")
+        }
+
+    /**
+     * 记录一次未命中的请求，只统计http(s)的GET请求
+     */
+    fun record(request: WebResourceRequest) {
+        if (!enable || !METHOD_GET.equals(request.method, ignoreCase = true)) {
+            return
+        }
+        val uri = request.url
+        val scheme = uri.scheme
+        if (!"https".equals(scheme, ignoreCase = true) && !"http".equals(scheme, ignoreCase = true)) {
+            return
+        }
+        val key = uri.urlToKey()
+        var entry = entries[key]
+        if (entry == null) {
+            if (entries.size >= MAX_ENTRIES) {
+                return
+            }
+            val newEntry = Entry(uri.toString().stripQuery(), typeOf(uri, request.isForMainFrame))
+            entry = entries.putIfAbsent(key, newEntry) ?: newEntry
+        }
+        entry.count.incrementAndGet()
+        scheduleSave()
+    }
+
+    /**
+     * 补充资源大小（字节），只更新已记录的资源
+     */
+    fun recordSize(url: String, size: Long) {
+        if (size > 0) {
+            entries[url.urlToKey()]?.size = size
+        }
+    }
+
+    /**
+     * 未命中的资源，按可节省的流量排序，大小未知的按次数排在后面
+     * @param hostFilter 只返回该域名的资源，为空时返回全部
+     */
+    fun missedResources(limit: Int = 100, hostFilter: String? = null): List<MissedResource> {
+        return entries.entries.asSequence()
+            .filter {
+                hostFilter.isNullOrEmpty() || it.key == hostFilter || it.key.startsWith("$hostFilter/")
+            }
+            .map { MissedResource(it.key, it.value.url, it.value.type, it.value.count.get(), it.value.size) }
+            .sortedWith(compareByDescending<MissedResource> { it.bytesSaved }.thenByDescending { it.count })
+            .take(limit)
+            .toList()
+    }
+
+    /**
+     * 导出建议的resource.json，格式与[com.jd.jdcache.entity.JDCacheLocalResp]一致，
+     * filename为url的path，打包时按此路径放置文件即可
+     */
+    fun exportResourceJson(limit: Int = 100, hostFilter: String? = null): String {
+        val array = JSONArray()
+        missedResources(limit, hostFilter).forEach {
+            val path = Uri.parse(it.url).path?.trimStart('/')
+            array.put(JSONObject().apply {
+                put("url", it.url.stripQuery())
+                put("type", it.type)
+                put("filename", if (path.isNullOrEmpty()) "index.html" else path)
+                put("count", it.count)
+                if (it.size > 0) {
+                    put("size", it.size)
+                    put("bytesSaved", it.bytesSaved)
+                }
+            })
+        }
+        return array.toString()
+    }
+
+    fun clear() {
+        entries.clear()
+        recordFile?.delete()
+    }
+
+    /**
+     * 加载保存的统计，与内存中的次数累加
+     */
+    suspend fun load() {
+        fileMutex.withLock { loadLocked() }
+    }
+
+    private suspend fun loadLocked() {
+        if (loaded.get()) {
+            return
+        }
+        //缓存目录未就绪时不标记为已加载，之后保存时会再次加载，避免覆盖已保存的记录
+        val file = recordFile ?: return
+        val content = file.getString()
+        loaded.set(true)
+        if (content == null) {
+            return
+        }
+        try {
+            //{"host/path":["https://...","script",12,34567]}
+            val json = JSONObject(content)
+            json.keys().forEach { key ->
+                val item = json.optJSONArray(key) ?: return@forEach
+                val url = item.optString(0).stripQuery()
+                if (url.isEmpty() || (entries.size >= MAX_ENTRIES && !entries.containsKey(key))) {
+                    return@forEach
+                }
+                val newEntry = Entry(url, item.optString(1, "other"))
+                val entry = entries.putIfAbsent(key, newEntry) ?: newEntry
+                entry.count.addAndGet(item.optLong(2))
+                val size = item.optLong(3, -1)
+                if (entry.size <= 0 && size > 0) {
+                    entry.size = size
+                }
+            }
+            log { d(TAG, "Loaded ${json.length()} missed resource(s).") }
+        } catch (e: Exception) {
+            log { e(TAG, e) }
+        }
+    }
+
+    private fun typeOf(uri: Uri, isMainFrame: Boolean): String {
+        if (isMainFrame) {
+            return "html"
+        }
+        return when (uri.lastPathSegment?.substringAfterLast('.', "")?.lowercase()) {
+            "html", "htm" -> "html"
+            "js", "mjs" -> "script"
+            "css" -> "stylesheet"
+            "png", "jpg", "jpeg", "gif", "webp", "svg", "ico", "avif" -> "image"
+            else -> "other"
+        }
+    }
+
+    private fun scheduleSave() {
+        if (saveJob?.isActive == true) {
+            return
+        }
+        synchronized(this) {
+            if (saveJob?.isActive == true) {
+                return
+            }
+            saveJob = launchCoroutine(context = JDCachePriority.HOUSEKEEPING) {
+                delay(SAVE_DELAY)
+                try {
+                    save()
+                } catch (e: Exception) {
+                    log { e(TAG, e) }
+                }
+            }
+        }
+    }
+
+    private suspend fun save() {
+        val file = recordFile ?: return
+        fileMutex.withLock {
+            //先合并已保存的统计，避免覆盖
+            loadLocked()
+            val json = JSONObject()
+            entries.forEach { (key, entry) ->
+                json.put(key, JSONArray().put(entry.url).put(entry.type).put(entry.count.get()).put(entry.size))
+            }
+            runOnIo {
+                file.parentFile?.mkdirs()
+                val tempFile = File(file.path + ".tmp")
+                tempFile.writeText(json.toString())
+                if (!tempFile.renameTo(file)) {
+                    file.delete()
+                    tempFile.renameTo(file)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.jd.jdcache.match
+
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.UrlHelper.stripQuery
+import com.jd.jdcache.util.UrlHelper.urlToKey
+import com.jd.jdcache.util.getString
+import com.jd.jdcache.util.log
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 预测的下一个页面
+ * @param probability 从当前页面跳转到[url]的概率
+ */
+@Keep
+data class NavigationPrediction(val url: String, val probability: Float)
+
+/**
+ * 根据预测自动预下载html的配置
+ * @param threshold 概率不低于此值的页面才会预下载
+ * @param maxPreloads 每个页面最多预下载的数量
+ * @param minObservations 当前页面的跳转记录（衰减后）不少于此值才预测，避免只访问过一次就预下载
+ */
+@Keep
+data class NavigationPredictOption(
+    val enable: Boolean = true,
+    val threshold: Float = 0.5f,
+    val maxPreloads: Int = 1,
+    val minObservations: Float = 3f
+)
+
+/**
+ * 预测效果统计，用于调整[NavigationPredictOption.threshold]
+ */
+@Keep
+class NavigationPredictStats {
+    /** 记录的跳转数 */
+    val navigations = AtomicLong(0)
+    /** 根据预测发起的预下载数 */
+    val preloaded = AtomicLong(0)
+    /** 跳转的页面在预下载之中 */
+    val hit = AtomicLong(0)
+
+    /** 预下载中被用到的比例，越低浪费的流量越多 */
+    val precision: Float
+        get() = preloaded.get().let { if (it == 0L) 0f else hit.get() / it.toFloat() }
+
+    /** 跳转中被预下载覆盖的比例 */
+    val recall: Float
+        get() = navigations.get().let { if (it == 0L) 0f else hit.get() / it.toFloat() }
+
+    override fun toString(): String {
+        return "NavigationPredictStats(navigations=$navigations, preloaded=$preloaded, hit=$hit, " +
+                "precision=$precision, recall=$recall)"
+    }
+}
+
+/**
+ * 页面跳转模型：一阶马尔可夫转移表，记录从某个页面（host/path）跳转到各页面的次数。
+ * 每次从页面A跳转时，A的所有转移权重先乘以[DECAY]再给目标加1，近期的跳转习惯占更大比重，
+ * 权重过小的转移被剔除。模型保存在cacheDir/model/navigation.json，进程启动后加载。
+ */
+@Keep
+object NavigationModel {
+
+    private const val TAG = "NavigationModel"
+
+    private const val DECAY = 0.9f
+
+    private const val MIN_WEIGHT = 0.05f
+
+    private const val MAX_SOURCES = 200
+
+    private const val MAX_TARGETS = 8
+
+    private const val SAVE_DELAY = 5 * 1000L
+
+    /** 目标页面key -> (去掉query的url, 权重) */
+    private class Transitions {
+        val targets = LinkedHashMap<String, Pair<String, Float>>()
+        var total = 0f
+    }
+
+    private val table = object : LinkedHashMap<String, Transitions>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Transitions>?): Boolean {
+            return size > MAX_SOURCES
+        }
+    }
+
+    val stats = NavigationPredictStats()
+
+    private val loaded = AtomicBoolean(false)
+
+    private val fileMutex = Mutex()
+
+    private var saveJob: Job? = null
+
+    private val modelFile: File?
+        get() = JDCacheSetting.getParamsProvider()?.cacheDir?.let {
+            File(it + File.separator + "model", "navigation.json")
+        }
+
+    /**
+     * 记录一次从[from]到[to]的跳转
+     */
+    fun record(from: String?, to: String) {
+        if (from.isNullOrEmpty()) {
+            return
+        }
+        val fromKey = from.urlToKey()
+        val toKey = to.urlToKey()
+        if (fromKey == toKey) {
+            return
+        }
+        stats.navigations.incrementAndGet()
+        synchronized(table) {
+            val transitions = table.getOrPut(fromKey) { Transitions() }
+            val iterator = transitions.targets.entries.iterator()
+            while (iterator.hasNext()) {
+                val entry = iterator.next()
+                val weight = entry.value.second * DECAY
+                if (weight < MIN_WEIGHT) {
+                    iterator.remove()
+                } else {
+                    entry.setValue(entry.value.first to weight)
+                }
+            }
+            val weight = (transitions.targets[toKey]?.second ?: 0f) + 1f
+            transitions.targets[toKey] = to.stripQuery() to weight
+            if (transitions.targets.size > MAX_TARGETS) {
+                transitions.targets.entries.minByOrNull { it.value.second }?.let {
+                    transitions.targets.remove(it.key)
+                }
+            }
+            transitions.total = transitions.targets.values.sumOf { it.second.toDouble() }.toFloat()
+        }
+        scheduleSave()
+    }
+
+    /**
+     * 预测从[url]接下来会打开的页面，概率高的在前
+     * @param minObservations 跳转记录（衰减后）少于此值时不预测
+     */
+    fun predict(url: String, limit: Int = 3, minObservations: Float = 0f): List<NavigationPrediction> {
+        synchronized(table) {
+            val transitions = table[url.urlToKey()] ?: return emptyList()
+            if (transitions.total <= 0f || transitions.total < minObservations) {
+                return emptyList()
+            }
+            return transitions.targets.values
+                .sortedByDescending { it.second }
+                .take(limit)
+                .map { NavigationPrediction(it.first, it.second / transitions.total) }
+        }
+    }
+
+    /**
+     * 加载保存的模型，内存中已有的记录优先
+     */
+    suspend fun load() {
+        fileMutex.withLock { loadLocked() }
+    }
+
+    private suspend fun loadLocked() {
+        if (loaded.get()) {
+            return
+        }
+        //缓存目录未就绪时不标记为已加载，之后保存时会再次加载，避免覆盖已保存的模型
+        val file = modelFile ?: return
+        val content = file.getString()
+        loaded.set(true)
+        if (content == null) {
+            return
+        }
+        try {
+            val json = JSONObject(content)
+            synchronized(table) {
+                json.keys().forEach { fromKey ->
+                    if (table.containsKey(fromKey)) {
+                        return@forEach
+                    }
+                    val array = json.optJSONArray(fromKey) ?: return@forEach
+                    val transitions = Transitions()
+                    for (i in 0 until array.length()) {
+                        val item = array.optJSONArray(i) ?: continue
+                        val to = item.optString(0).stripQuery()
+                        val weight = item.optDouble(1, 0.0).toFloat()
+                        if (to.isNotEmpty() && weight >= MIN_WEIGHT) {
+                            transitions.targets[to.urlToKey()] = to to weight
+                        }
+                    }
+                    transitions.total = transitions.targets.values.sumOf { it.second.toDouble() }.toFloat()
+                    if (transitions.targets.isNotEmpty()) {
+                        table[fromKey] = transitions
+                    }
+                }
+            }
+            log { d(TAG, "Loaded navigation model of ${json.length()} page(s).") }
+        } catch (e: Exception) {
+            log { e(TAG, e) }
+        }
+    }
+
+    /**
+     * 跳转时，根据上一页预下载的页面统计命中
+     */
+    internal fun onNavigated(preloadedKeys: Collection<String>, url: String) {
+        if (preloadedKeys.contains(url.urlToKey())) {
+            stats.hit.incrementAndGet()
+        }
+    }
+
+    internal fun onPreloaded(count: Int) {
+        stats.preloaded.addAndGet(count.toLong())
+    }
+
+    private fun scheduleSave() {
+        synchronized(this) {
+            if (saveJob?.isActive == true) {
+                return
+            }
+            saveJob = launchCoroutine(context = JDCachePriority.HOUSEKEEPING) {
+                delay(SAVE_DELAY)
+                try {
+                    save()
+                } catch (e: Exception) {
+                    log { e(TAG, e) }
+                }
+            }
+        }
+    }
+
+    private suspend fun save() {
+        val file = modelFile ?: return
+        fileMutex.withLock {
+            //先合并已保存的模型，避免覆盖
+            loadLocked()
+            //{"host/path":[["https://...",1.9],...]}，权重保留两位小数
+            val json = JSONObject()
+            synchronized(table) {
+                table.forEach { (fromKey, transitions) ->
+                    val array = JSONArray()
+                    transitions.targets.values.forEach {
+                        array.put(JSONArray().put(it.first).put(Math.round(it.second * 100) / 100.0))
+                    }
+                    json.put(fromKey, array)
+                }
+            }
+            runOnIo {
+                file.parentFile?.mkdirs()
+                val tempFile = File(file.path + ".tmp")
+                tempFile.writeText(json.toString())
+                if (!tempFile.renameTo(file)) {
+                    file.delete()
+                    tempFile.renameTo(file)
+                }
+            }
+        }
+    }
+}
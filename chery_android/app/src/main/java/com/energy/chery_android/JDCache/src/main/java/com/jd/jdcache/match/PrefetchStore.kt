@@ -0,0 +1,133 @@
+package com.jd.jdcache.match
+
+import android.os.SystemClock
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.entity.JDCacheLocalResp
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.UrlHelper.urlToKey
+import com.jd.jdcache.util.log
+import com.jd.jdcache.util.metric
+import com.jd.jdcache.util.sha1Hex
+import java.io.File
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 空闲预取下载的文件，进程内有效。
+ * html以包含query的完整地址为key（不同query是不同页面），子资源以 host/path 为key，
+ * 超过有效期或总大小超过[maxTotalBytes]时删除最久未用的文件。
+ */
+internal object PrefetchStore {
+
+    private const val TAG = "PrefetchStore"
+
+    const val DIR = "prefetch"
+
+    private val HTML_KEY_OPTION = PreloadKeyOption(matchQuery = true)
+
+    @Volatile
+    var maxTotalBytes: Long = 20 * 1024 * 1024L
+
+    private class Entry(val resp: JDCacheLocalResp, val size: Long, val expireTime: Long)
+
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+
+    private var totalBytes = 0L
+
+    private val cleared = AtomicBoolean(false)
+
+    /** 预取文件被使用的次数 */
+    val hit = AtomicLong(0)
+
+    /**
+     * 文件保存路径（相对cacheDir）
+     */
+    fun relativePathOf(url: String): String = DIR + File.separator + url.sha1Hex()
+
+    /**
+     * 清理上次进程留下的文件，只执行一次，需在IO线程调用
+     */
+    fun clearStaleFiles() {
+        if (!cleared.compareAndSet(false, true)) {
+            return
+        }
+        val dir = JDCacheSetting.getParamsProvider()?.cacheDir?.let { File(it, DIR) } ?: return
+        try {
+            dir.listFiles()?.forEach { it.deleteRecursively() }
+        } catch (e: Exception) {
+            log { e(TAG, e) }
+        }
+    }
+
+    /**
+     * 存取时使用的key，html包含query
+     */
+    fun keyOf(url: String, isHtml: Boolean): String {
+        return if (isHtml) HTML_KEY_OPTION.keyOf(url) ?: url else url.urlToKey()
+    }
+
+    fun contains(url: String, isHtml: Boolean): Boolean = peek(keyOf(url, isHtml)) != null
+
+    fun put(resp: JDCacheLocalResp, file: File, maxAgeMs: Long) {
+        val key = keyOf(resp.url, resp.type == "html")
+        val evicted = ArrayList<File>()
+        val currentBytes = synchronized(entries) {
+            entries.remove(key)?.let {
+                totalBytes -= it.size
+                if (it.resp.filename != resp.filename) {
+                    it.resp.filename?.let { path -> evicted.add(File(path)) }
+                }
+            }
+            val size = file.length()
+            entries[key] = Entry(resp, size, SystemClock.elapsedRealtime() + maxAgeMs)
+            totalBytes += size
+            val iterator = entries.entries.iterator()
+            while (totalBytes > maxTotalBytes && iterator.hasNext()) {
+                val eldest = iterator.next()
+                if (eldest.key == key) {
+                    continue
+                }
+                iterator.remove()
+                totalBytes -= eldest.value.size
+                eldest.value.resp.filename?.let { evicted.add(File(it)) }
+            }
+            totalBytes
+        }
+        evicted.forEach { it.delete() }
+        metric { it.onCacheSize(DIR, currentBytes) }
+    }
+
+    /**
+     * 取预取的文件。[consume]为true时取出后移除，用于只能使用一次的html
+     */
+    fun get(key: String, consume: Boolean): JDCacheLocalResp? {
+        val entry = synchronized(entries) {
+            val entry = entries[key] ?: return null
+            if (entry.expireTime < SystemClock.elapsedRealtime()) {
+                entries.remove(key)
+                totalBytes -= entry.size
+                entry.resp.filename?.let { File(it).delete() }
+                null
+            } else {
+                if (consume) {
+                    //文件留给返回的流读取，下次清理时删除
+                    entries.remove(key)
+                    totalBytes -= entry.size
+                }
+                entry
+            }
+        }
+        if (entry == null) {
+            return null
+        }
+        hit.incrementAndGet()
+        return entry.resp
+    }
+
+    private fun peek(key: String): Entry? {
+        synchronized(entries) {
+            val entry = entries[key] ?: return null
+            return if (entry.expireTime < SystemClock.elapsedRealtime()) null else entry
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.jd.jdcache.match
+
+import android.net.Uri
+import android.os.SystemClock
+import androidx.annotation.Keep
+import com.jd.jdcache.entity.JDCacheLocalResp
+import com.jd.jdcache.util.ICancellable
+import com.jd.jdcache.util.UrlHelper.safeUrlPart
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.Channel.Factory.CONFLATED
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 预下载html的匹配key规则。
+ * 默认只比较 host/path，与原先[com.jd.jdcache.util.UrlHelper.matchHostPath]行为一致。
+ *
+ * @param matchQuery 是否比较query，比较时参数按key排序，与参数顺序无关
+ * @param ignoreQueryKeys matchQuery为true时，不参与比较的参数，例如时间戳、埋点参数
+ * @param matchFragment 是否比较fragment
+ */
+@Keep
+data class PreloadKeyOption(
+    val matchQuery: Boolean = false,
+    val ignoreQueryKeys: Set<String> = emptySet(),
+    val matchFragment: Boolean = false
+) {
+
+    fun keyOf(url: String): String? {
+        return try {
+            keyOf(Uri.parse(url))
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    fun keyOf(uri: Uri): String {
+        val builder = StringBuilder()
+        builder.append(uri.host.safeUrlPart()?.lowercase() ?: "")
+        val path = uri.path.safeUrlPart()
+        if (!path.isNullOrEmpty()) {
+            if (!path.startsWith("/")) {
+                builder.append('/')
+            }
+            builder.append(path)
+        }
+        if (matchQuery && !uri.query.isNullOrEmpty()) {
+            val names = uri.queryParameterNames.filter { it !in ignoreQueryKeys }.sorted()
+            if (names.isNotEmpty()) {
+                builder.append('?')
+                names.forEachIndexed { index, name ->
+                    if (index > 0) {
+                        builder.append('&')
+                    }
+                    builder.append(name).append('=')
+                        .append(uri.getQueryParameters(name).joinToString(","))
+                }
+            }
+        }
+        if (matchFragment && !uri.fragment.isNullOrEmpty()) {
+            builder.append('#').append(uri.fragment)
+        }
+        return builder.toString()
+    }
+}
+
+/**
+ * 一个进行中（或已完成）的html预下载
+ */
+@Keep
+class PreloadEntry(val url: String) {
+
+    /** 跟随重定向后的最终url，连接成功后才有值 */
+    @Volatile
+    var finalUrl: String? = null
+
+    @Volatile
+    var localResp: JDCacheLocalResp? = null
+
+    @Volatile
+    var task: ICancellable? = null
+
+    val waitingChannel: Channel<JDCacheLocalResp> = Channel(CONFLATED)
+
+    val startTime: Long = SystemClock.elapsedRealtime()
+
+    internal val keys: MutableSet<String> = CopyOnWriteArraySet()
+
+    override fun toString(): String {
+        return "PreloadEntry(url=$url, finalUrl=$finalUrl)"
+    }
+}
+
+/**
+ * 预下载命中统计
+ */
+@Keep
+class PreloadStats {
+    /** 发起的预下载数 */
+    val started = AtomicLong(0)
+    /** 主文档请求命中预下载 */
+    val hit = AtomicLong(0)
+    /** 存在预下载时，主文档请求未能命中或预下载失败 */
+    val miss = AtomicLong(0)
+    /** 预下载发生重定向，以最终url作为key等待命中 */
+    val redirected = AtomicLong(0)
+    /** 等待预下载结果超时 */
+    val timeout = AtomicLong(0)
+    /** 预下载未被使用就被销毁 */
+    val wasted = AtomicLong(0)
+
+    val hitRate: Float
+        get() {
+            val hitCount = hit.get()
+            val total = hitCount + miss.get()
+            return if (total == 0L) 0f else hitCount / total.toFloat()
+        }
+
+    override fun toString(): String {
+        return "PreloadStats(started=$started, hit=$hit, miss=$miss, redirected=$redirected, " +
+                "timeout=$timeout, wasted=$wasted, hitRate=$hitRate)"
+    }
+}
+
+/**
+ * 预下载html登记表，同一个[com.jd.jdcache.JDCacheLoader]可同时持有多个预下载，
+ * 以规范化后的url（重定向后为最终url）作为key。
+ */
+@Keep
+class PreloadRegistry(var keyOption: PreloadKeyOption = PreloadKeyOption()) {
+
+    companion object {
+        /** 进程内所有预下载的统计 */
+        @JvmStatic
+        val globalStats = PreloadStats()
+    }
+
+    /** 当前登记表的统计 */
+    val stats = PreloadStats()
+
+    private val entryMap = ConcurrentHashMap<String, PreloadEntry>()
+
+    val size: Int
+        get() = entries().size
+
+    fun isEmpty(): Boolean = entryMap.isEmpty()
+
+    fun keyOf(uri: Uri): String = keyOption.keyOf(uri)
+
+    /**
+     * 以原始url登记一个预下载，若已有相同key的预下载则返回已存在的那个。
+     */
+    fun register(entry: PreloadEntry): PreloadEntry {
+        val key = keyOption.keyOf(entry.url) ?: return entry
+        val existing = entryMap.putIfAbsent(key, entry)
+        if (existing != null) {
+            return existing
+        }
+        entry.keys.add(key)
+        stats.started.incrementAndGet()
+        globalStats.started.incrementAndGet()
+        return entry
+    }
+
+    /**
+     * 预下载跟随重定向后，以最终url作为key再登记一次。
+     * 若最终url的key已登记了其他预下载，则保留已有的，不再登记。
+     * @return 是否以最终url的key登记成功
+     */
+    fun alias(entry: PreloadEntry, finalUrl: String): Boolean {
+        entry.finalUrl = finalUrl
+        val key = keyOption.keyOf(finalUrl) ?: return false
+        if (entry.keys.contains(key)) {
+            return false
+        }
+        if (entryMap.putIfAbsent(key, entry) != null) {
+            return false
+        }
+        entry.keys.add(key)
+        stats.redirected.incrementAndGet()
+        globalStats.redirected.incrementAndGet()
+        return true
+    }
+
+    operator fun get(key: String): PreloadEntry? = entryMap[key]
+
+    /**
+     * 移除预下载的所有key
+     */
+    fun remove(entry: PreloadEntry) {
+        entry.keys.forEach { entryMap.remove(it, entry) }
+        entry.keys.clear()
+    }
+
+    /**
+     * 预下载最终url对应的key，未重定向时为原始url的key
+     */
+    fun finalKeyOf(entry: PreloadEntry): String? {
+        return keyOption.keyOf(entry.finalUrl ?: entry.url)
+    }
+
+    fun entries(): Set<PreloadEntry> = HashSet(entryMap.values)
+
+    fun clear(): Set<PreloadEntry> {
+        val all = entries()
+        entryMap.clear()
+        all.forEach { it.keys.clear() }
+        return all
+    }
+
+    internal fun onHit() {
+        stats.hit.incrementAndGet()
+        globalStats.hit.incrementAndGet()
+    }
+
+    internal fun onMiss() {
+        stats.miss.incrementAndGet()
+        globalStats.miss.incrementAndGet()
+    }
+
+    internal fun onTimeout() {
+        stats.timeout.incrementAndGet()
+        globalStats.timeout.incrementAndGet()
+    }
+
+    internal fun onWasted(count: Int) {
+        if (count > 0) {
+            stats.wasted.addAndGet(count.toLong())
+            globalStats.wasted.addAndGet(count.toLong())
+        }
+    }
+}
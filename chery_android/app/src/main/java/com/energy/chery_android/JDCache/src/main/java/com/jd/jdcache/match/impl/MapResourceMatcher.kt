@@ -58,7 +58,7 @@ open class MapResourceMatcher : JDCacheResourceMatcher() {
     }
 
     private fun readResMapFromJsonFile(filePath: String) {
-        val job = launchCoroutine {
+        val job = launchCoroutine(loader?.scope, JDCachePriority.CRITICAL_PREFETCH) {
             val fileContent = File(filePath).getString()
             dataSource?.localFileMap = jsonArrayParse(fileContent)
                 ?.useful()
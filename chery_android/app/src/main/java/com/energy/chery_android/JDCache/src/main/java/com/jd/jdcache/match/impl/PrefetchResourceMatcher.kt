@@ -0,0 +1,32 @@
+package com.jd.jdcache.match.impl
+
+import android.webkit.WebResourceRequest
+import android.webkit.WebResourceResponse
+import androidx.annotation.Keep
+import com.jd.jdcache.entity.createResponse
+import com.jd.jdcache.match.PrefetchStore
+import com.jd.jdcache.match.base.JDCacheResourceMatcher
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import com.jd.jdcache.util.log
+
+/**
+ * 匹配空闲预取（[com.jd.jdcache.match.IdlePrefetcher]）下载的页面和资源。
+ * html只使用一次，子资源在有效期内可重复使用。
+ */
+@Keep
+open class PrefetchResourceMatcher : JDCacheResourceMatcher() {
+
+    override val name: String = "PrefetchResourceMatcher"
+
+    override fun match(request: WebResourceRequest): WebResourceResponse? {
+        if (destroyed.get() || !METHOD_GET.equals(request.method, ignoreCase = true)) {
+            return null
+        }
+        val isHtml = request.isForMainFrame
+        val localResp = PrefetchStore.get(PrefetchStore.keyOf(request.url.toString(), isHtml), isHtml)
+            ?: return null
+        log { d(name, "Use prefetched file for ${request.url}") }
+        return localResp.createResponse()?.let { createResponse(it) }
+    }
+}
@@ -1,6 +1,6 @@
 package com.jd.jdcache.match.impl
 
-import android.net.Uri
+import android.os.SystemClock
 import android.webkit.WebResourceRequest
 import android.webkit.WebResourceResponse
 import androidx.annotation.Keep
@@ -9,6 +9,9 @@ import com.jd.jdcache.JDCacheSetting
 import com.jd.jdcache.entity.JDCacheLocalResp
 import com.jd.jdcache.entity.createResponse
 import com.jd.jdcache.match.PreReadInputStream
+import com.jd.jdcache.match.PreloadEntry
+import com.jd.jdcache.match.PreloadKeyOption
+import com.jd.jdcache.match.PreloadRegistry
 import com.jd.jdcache.match.base.JDCacheResourceMatcher
 import com.jd.jdcache.service.DelegateManager
 import com.jd.jdcache.service.base.*
@@ -18,12 +21,11 @@ import com.jd.jdcache.util.CoroutineHelper.runOnIo
 import com.jd.jdcache.util.JDCacheLog.d
 import com.jd.jdcache.util.JDCacheLog.e
 import com.jd.jdcache.util.UrlHelper.convertHeader
-import com.jd.jdcache.util.UrlHelper.matchHostPath
 import com.jd.jdcache.util.log
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
-import kotlinx.coroutines.channels.Channel.Factory.CONFLATED
 import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
@@ -43,31 +45,47 @@ open class PreloadHtmlMatcher : JDCacheResourceMatcher() {
         DelegateManager.getDelegate<JDCacheFileRepoDelegate>()
     }
 
-    protected var downloadUrl: String? = null
-
-    protected var localResp: JDCacheLocalResp? = null
-
-    protected var waitingChannel: Channel<JDCacheLocalResp>? = null
-
-    protected var downloadTask: ICancellable? = null
+    /**
+     * 本loader的预下载登记表，可同时持有多个预下载
+     */
+    val registry: PreloadRegistry by lazy {
+        PreloadRegistry(
+            JDCacheSetting.getParamsProvider()?.preloadKeyOption(loader?.url ?: "")
+                ?: PreloadKeyOption()
+        )
+    }
 
 //    protected var htmlFileStream: PreReadInputStream? = null
 //    protected var htmlFileRelativePath: String? = null
 
     override fun prepare(url: String) {
         if (loader?.preloadHtml == true) {
-            if (url.startsWith("http")) {
-                downloadHtmlStream(url)
-//              downloadHtmlFile(url)
-            } else {
-                log { d(name, "Will NOT perform preload HTML for non-HTTP url.") }
-            }
+            preload(url)
+        }
+    }
+
+    /**
+     * 预下载html，可多次调用以同时预下载多个页面
+     */
+    open fun preload(url: String, header: MutableMap<String?, String>? = null) {
+        if (destroyed.get()) {
+            return
+        }
+        if (url.startsWith("http")) {
+            downloadHtmlStream(url, header)
+//          downloadHtmlFile(url, header)
+        } else {
+            log { d(name, "Will NOT perform preload HTML for non-HTTP url.") }
         }
     }
 
     protected open fun downloadHtmlStream(url: String, header: MutableMap<String?, String>? = null) {
-        downloadUrl = url
-        val job = launchCoroutine {
+        val entry = PreloadEntry(url)
+        if (registry.register(entry) !== entry) {
+            log { d(name, "Html($url) is already pre-downloading.") }
+            return
+        }
+        val job = launchCoroutine(loader?.scope, JDCachePriority.MAIN_FRAME_PRELOAD) {
             val saveOption = FileRequestOption(
                 header = header,
                 userAgent = JDCacheSetting.getParamsProvider()?.getUserAgent(url),
@@ -82,28 +100,38 @@ open class PreloadHtmlMatcher : JDCacheResourceMatcher() {
                 log { d(name, "The pre-downloading html can be read now($url)") }
 //                htmlFileStream = PreReadInputStream(BufferedInputStream(state.data))
 //                htmlFileStream?.startPreRead()
+                val finalUrl = state.url ?: url
+                if (registry.alias(entry, finalUrl)) {
+                    log { d(name, "Pre-downloading html($url) redirects to $finalUrl") }
+                }
                 val stream = PreReadInputStream(BufferedInputStream(state.data))
-                saveCookieFromRespHeaders(url, state.headers) //同步Set-Cookie
-                val localResp = JDCacheLocalResp(url, "html")
+                saveCookieFromRespHeaders(finalUrl, state.headers) //同步Set-Cookie
+                val localResp = JDCacheLocalResp(finalUrl, "html")
                 localResp.fileStream = stream
                 localResp.header = state.headers?.convertHeader()?.toMutableMap()
-                waitingChannel?.send(localResp)
+                entry.waitingChannel.send(localResp)
                 stream.startPreRead()
-            } else if (state is InputStreamState.Error) {
-                log {
-                    e(
-                        name, "Fail pre-downloading html, " +
-                                "code=${state.code}, exception=${state.throwable}"
-                    )
+            } else {
+                if (state is InputStreamState.Error) {
+                    log {
+                        e(
+                            name, "Fail pre-downloading html, " +
+                                    "code=${state.code}, exception=${state.throwable}"
+                        )
+                    }
                 }
+                entry.waitingChannel.close()
             }
         }
-        waitingChannel = Channel(CONFLATED)
-        downloadTask = CancellableJob(job)
+        entry.task = CancellableJob(job)
     }
 
     protected open fun downloadHtmlFile(url: String, header: MutableMap<String?, String>? = null) {
-        downloadUrl = url
+        val entry = PreloadEntry(url)
+        if (registry.register(entry) !== entry) {
+            log { d(name, "Html($url) is already pre-downloading.") }
+            return
+        }
         val saveOption = FileSaveOption(
             header = header,
             userAgent = JDCacheSetting.getParamsProvider()?.getUserAgent(url),
@@ -133,7 +161,7 @@ open class PreloadHtmlMatcher : JDCacheResourceMatcher() {
             }
         }?.filterNotNull()?.onEach { (end, fileState) ->
             if (end) {
-                downloadTask = null
+                entry.task = null
             }
             if (fileState is FileState.Complete) {
                 saveCookieFromRespHeaders(url, fileState.headers) //同步Set-Cookie
@@ -142,12 +170,16 @@ open class PreloadHtmlMatcher : JDCacheResourceMatcher() {
                 localResp.filename = fileState.data.absolutePath
 //                localResp.fileStream = FileInputStream(fileState.data)
                 localResp.header = fileState.headers?.convertHeader()?.toMutableMap()
-                waitingChannel?.send(localResp)
+                entry.waitingChannel.send(localResp)
+            } else {
+                entry.waitingChannel.close()
             }
         }
-        flow?.let {
-            waitingChannel = Channel(CONFLATED)
-            downloadTask = CancellableJob(flow.launchIn(JDCacheConstant.applicationScope))
+        if (flow != null) {
+            val scope = loader?.scope ?: JDCacheConstant.applicationScope
+            entry.task = CancellableJob(flow.flowOn(JDCachePriority.MAIN_FRAME_PRELOAD).launchIn(scope))
+        } else {
+            registry.remove(entry)
         }
     }
 
@@ -169,58 +201,70 @@ open class PreloadHtmlMatcher : JDCacheResourceMatcher() {
             //非html，无需匹配
             return null
         }
-        var downloadUri: Uri? = null
-        downloadUrl?.let {
-            try {
-                downloadUri = Uri.parse(downloadUrl)
-            } catch (ignored: Exception) {
+        val key = registry.keyOf(request.url)
+        val entry = registry[key]
+        if (entry == null) {
+            //与下载的url不对应，无需匹配；只有存在预下载时才计为未命中
+            if (!registry.isEmpty()) {
+                registry.onMiss()
             }
+            return null
+        }
+        val localResp = synchronized(entry) {
+            entry.localResp ?: geDownloadLocalResp(entry)?.also { entry.localResp = it }
         }
-        if (downloadUri == null || !request.url.matchHostPath(downloadUri)) {
-            //与下载的url不对应，无需匹配
+        if (destroyed.get()) {
             return null
         }
-        downloadUrl = null //使用一次后不能再被使用
         if (localResp == null) {
-            //未获取到才尝试去获取
-//            htmlFileStream?.finishPreRead()
-            localResp = geDownloadLocalResp()
-            if (destroyed.get()) {
-                return null
-            }
-            localResp?.fileStream?.let {
-                if (it is PreReadInputStream) {
-                    it.finishPreRead() //若是走stream返回类型的，通知其停止预读
-                }
-            }
-            log {
-                if (localResp != null) {
-                    d(name, "Received pre-download html file. $localResp")
-                }
+            registry.remove(entry)
+            releaseEntry(entry)
+            registry.onMiss()
+            return null
+        }
+        if (registry.finalKeyOf(entry) != key) {
+            //预下载发生了重定向，不能用最终页面的内容响应原始url，
+            //让WebView自己跟随重定向，在请求最终url时再命中
+            log { d(name, "Pre-download html redirects, wait for request of ${entry.finalUrl}") }
+            return null
+        }
+        registry.remove(entry) //使用一次后不能再被使用
+        localResp.fileStream?.let {
+            if (it is PreReadInputStream) {
+                it.finishPreRead() //若是走stream返回类型的，通知其停止预读
             }
         }
-        return localResp?.createResponse()?.let { createResponse(it) }
+        registry.onHit()
+        log {
+            d(name, "Received pre-download html file. $localResp, ${registry.stats}")
+        }
+        return localResp.createResponse()?.let { createResponse(it) }
     }
 
-    protected open fun geDownloadLocalResp() : JDCacheLocalResp?{
-        return waitingChannel?.let {
-            if (!it.isClosedForReceive) {
-                runBlocking {
-                    try {
-                        log { d(name, "Waiting for receiving pre-download html file.") }
-                        //等待下载完成
-                        withTimeout(2000L) {
-                            it.receive()
-                        }
-                    } catch (e: TimeoutCancellationException) {
-                        log { d(name, "Timeout in receiving pre-download html file.") }
-                        null
-                    } catch (e: Exception) {
-                        log { e(name, "Error in receiving pre-download html file, e = $e") }
-                        null
-                    }
+    protected open fun geDownloadLocalResp(entry: PreloadEntry) : JDCacheLocalResp?{
+        val channel = entry.waitingChannel
+        if (channel.isClosedForReceive) {
+            return null
+        }
+        val waitTime = JDCacheSetting.getParamsProvider()?.preloadWaitTime(entry.url)
+            ?: NetworkQualityEstimator.DEFAULT_PRELOAD_WAIT_TIME
+        val start = SystemClock.elapsedRealtime()
+        return runBlocking {
+            try {
+                log { d(name, "Waiting for receiving pre-download html file in ${waitTime}ms.") }
+                //等待下载完成
+                withTimeout(waitTime) {
+                    channel.receive()
+                }.also {
+                    metric { m -> m.onPreloadWait(SystemClock.elapsedRealtime() - start, true) }
                 }
-            } else {
+            } catch (e: TimeoutCancellationException) {
+                log { d(name, "Timeout in receiving pre-download html file.") }
+                registry.onTimeout()
+                metric { it.onPreloadWait(SystemClock.elapsedRealtime() - start, false) }
+                null
+            } catch (e: Exception) {
+                log { e(name, "Error in receiving pre-download html file, e = $e") }
                 null
             }
         }
@@ -228,15 +272,19 @@ open class PreloadHtmlMatcher : JDCacheResourceMatcher() {
 
     override fun onDestroy() {
         super.onDestroy()
-        waitingChannel?.let {
-            it.cancel()
-            waitingChannel = null
-        }
-        downloadTask?.let {
+        val entries = registry.clear()
+        registry.onWasted(entries.size)
+        log { d(name, "Destroy with ${entries.size} unused pre-download(s), ${registry.stats}") }
+        entries.forEach { releaseEntry(it) }
+    }
+
+    protected open fun releaseEntry(entry: PreloadEntry) {
+        entry.task?.let {
             it.cancel()
-            downloadTask = null
+            entry.task = null
         }
-
+        val localResp = entry.localResp ?: entry.waitingChannel.tryReceiveOrNull()
+        entry.waitingChannel.cancel()
         val fileStream = localResp?.fileStream
         fileStream?.let {
             if (it !is PreReadInputStream || !it.isClosed()) {
@@ -254,4 +302,12 @@ open class PreloadHtmlMatcher : JDCacheResourceMatcher() {
         }
         localResp?.filename?.let { fileRepo?.deleteFile(it) }
     }
-}
\ No newline at end of file
+
+    private fun Channel<JDCacheLocalResp>.tryReceiveOrNull(): JDCacheLocalResp? {
+        return try {
+            tryReceive().getOrNull()
+        } catch (e: Exception) {
+            null
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.jd.jdcache.match.impl
+
+import android.net.Uri
+import android.webkit.WebResourceRequest
+import android.webkit.WebResourceResponse
+import androidx.annotation.Keep
+import com.jd.jdcache.entity.createResponse
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import com.jd.jdcache.util.UrlHelper.urlToKey
+import com.jd.jdcache.util.log
+import com.jd.jdcache.util.metric
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 在[MapResourceMatcher]基础上按路由预读。
+ * 数据源带有路由依赖（[com.jd.jdcache.entity.JDCacheDataSource.routeChunks]，
+ * 由[com.jd.jdcache.entity.ViteDataSourceBuilder]生成）时，页面或路由即将打开前，
+ * 把该路由需要的chunk读入内存，WebView请求时直接从内存返回，每个文件只使用一次。
+ * 路由取自url的hash（hash路由）或相对[com.jd.jdcache.entity.JDCacheDataSource.routeBasePath]的path。
+ */
+@Keep
+open class RouteResourceMatcher : MapResourceMatcher() {
+
+    override val name: String = "RouteResourceMatcher"
+
+    /** 预读到内存的总大小上限 */
+    @Volatile
+    var maxWarmBytes: Long = 2 * 1024 * 1024L
+
+    private val warmFiles = ConcurrentHashMap<String, ByteArray>()
+
+    private val warmBytes = AtomicLong(0)
+
+    private val warmedRoutes: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap())
+
+    override fun prepare(url: String) {
+        super.prepare(url)
+        prefetchRoute(routeOf(url))
+    }
+
+    /**
+     * 预读[route]需要的文件
+     */
+    open fun prefetchRoute(route: String?) {
+        if (route == null || destroyed.get()) {
+            return
+        }
+        val dataSource = this.dataSource ?: return
+        val key = normalizeRoute(route)
+        val chunks = dataSource.routeChunks?.get(key) ?: return
+        if (!warmedRoutes.add(key)) {
+            return
+        }
+        launchCoroutine(loader?.scope, JDCachePriority.CRITICAL_PREFETCH) {
+            runOnIo {
+                var count = 0
+                for (url in chunks) {
+                    val key = url.urlToKey()
+                    if (warmFiles.containsKey(key)) {
+                        continue
+                    }
+                    val localResp = dataSource.localFileMap?.get(key) ?: continue
+                    val file = localResp.filename?.let {
+                        File(dataSource.localFileDirDetail.path + File.separator + it)
+                    } ?: continue
+                    val length = file.length()
+                    if (length <= 0 || warmBytes.get() + length > maxWarmBytes) {
+                        continue
+                    }
+                    try {
+                        warmFiles[key] = file.readBytes()
+                        warmBytes.addAndGet(length)
+                        count++
+                    } catch (e: Exception) {
+                        log { e(name, e) }
+                    }
+                }
+                log { d(name, "Warmed $count of ${chunks.size} file(s) for route $route") }
+                metric { it.onCacheSize(name, warmBytes.get()) }
+            }
+        }
+    }
+
+    override fun match(request: WebResourceRequest): WebResourceResponse? {
+        if (METHOD_GET.equals(request.method, ignoreCase = true)) {
+            val key = request.url.urlToKey()
+            val bytes = warmFiles.remove(key)
+            if (bytes != null) {
+                warmBytes.addAndGet(-bytes.size.toLong())
+                val localResp = dataSource?.localFileMap?.get(key)
+                val resp = localResp?.copy(fileStream = ByteArrayInputStream(bytes))?.createResponse()
+                if (resp != null) {
+                    return createResponse(resp)
+                }
+            }
+        }
+        return super.match(request)
+    }
+
+    /**
+     * 从url中取路由：hash路由取#后的路径，否则取相对基础路径的path
+     */
+    protected open fun routeOf(url: String): String? {
+        val uri = try {
+            Uri.parse(url)
+        } catch (e: Exception) {
+            return null
+        }
+        val fragment = uri.fragment
+        if (!fragment.isNullOrEmpty() && fragment.startsWith("/")) {
+            return fragment.substringBefore('?')
+        }
+        val path = uri.path ?: return "/"
+        val basePath = dataSource?.routeBasePath ?: "/"
+        if (path == basePath.trimEnd('/')) {
+            //不带结尾斜杠的基础路径，如基础路径为/app/时的/app
+            return "/"
+        }
+        return if (path.startsWith(basePath)) "/" + path.removePrefix(basePath) else path
+    }
+
+    private fun normalizeRoute(route: String): String {
+        return "/" + route.trim().trim('/')
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        warmFiles.clear()
+        warmBytes.set(0)
+    }
+}
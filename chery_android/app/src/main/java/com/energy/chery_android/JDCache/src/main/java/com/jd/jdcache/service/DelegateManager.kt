@@ -6,12 +6,13 @@ import com.jd.jdcache.util.JDCacheLog.e
 import com.jd.jdcache.util.log
 import java.lang.Exception
 import java.lang.reflect.Modifier
+import java.util.concurrent.ConcurrentHashMap
 
 internal object DelegateManager {
     private const val TAG = "DelegateManager"
 
-    private val delegateMap: HashMap<String, Pair<Class<out AbstractDelegate>, AbstractDelegate?>>
-        by lazy { HashMap<String, Pair<Class<out AbstractDelegate>, AbstractDelegate?>>() }
+    private val delegateMap: ConcurrentHashMap<String, Pair<Class<out AbstractDelegate>, AbstractDelegate?>>
+        by lazy { ConcurrentHashMap<String, Pair<Class<out AbstractDelegate>, AbstractDelegate?>>() }
 
     @Suppress("UNCHECKED_CAST")
     fun <T : AbstractDelegate> getDelegate(delegateType: Class<out AbstractDelegate>): T? {
@@ -30,17 +31,25 @@ internal object DelegateManager {
         }
         var (delegateClass, delegate) = delegatePair
         if (delegate == null) {
-            try {
-                delegate = delegateClass.newInstance()
-            } catch (e: Exception) {
-                log {
-                    e(TAG,
-                        "Cannot create delegate's instance.",
-                        e)
+            //服务可能在后台线程被首次获取，创建实例时加锁避免重复创建
+            synchronized(this) {
+                val latestPair = delegateMap[name] ?: delegatePair
+                delegateClass = latestPair.first
+                delegate = latestPair.second
+                if (delegate == null) {
+                    try {
+                        delegate = delegateClass.newInstance()
+                    } catch (e: Exception) {
+                        log {
+                            e(TAG,
+                                "Cannot create delegate's instance.",
+                                e)
+                        }
+                    }
+                    val newDelegatePair = delegateClass to delegate
+                    delegateMap[name] = newDelegatePair
                 }
             }
-            val newDelegatePair = delegateClass to delegate
-            delegateMap[name] = newDelegatePair
         }
         return delegate as T
     }
@@ -1,6 +1,7 @@
 package com.jd.jdcache.service
 
 import com.jd.jdcache.JDCacheLoader
+import com.jd.jdcache.JDCacheWebView
 import com.jd.jdcache.util.JDCacheLog.d
 import com.jd.jdcache.util.log
 import java.util.concurrent.ConcurrentHashMap
@@ -57,6 +58,10 @@ internal class JDCacheMaster private constructor() {
         return loaderMap[loaderKey]
     }
 
+    fun findLoader(view: JDCacheWebView): JDCacheLoader? {
+        return loaderMap.values.firstOrNull { it.view === view }
+    }
+
     fun removeLoader(loaderKey: String): JDCacheLoader? {
         val removed = loaderMap.remove(loaderKey)
         log {
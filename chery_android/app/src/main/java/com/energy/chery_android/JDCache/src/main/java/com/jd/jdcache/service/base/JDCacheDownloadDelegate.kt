@@ -0,0 +1,57 @@
+package com.jd.jdcache.service.base
+
+import androidx.annotation.Keep
+import com.jd.jdcache.entity.JDCacheDownloadTask
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * 下载管理服务：任务去重、排队、持久化，暂停/续传，按设备条件执行。
+ */
+@Keep
+abstract class JDCacheDownloadDelegate : AbstractDelegate() {
+
+    /**
+     * 添加下载任务。相同url和保存路径的未完成任务只会存在一个，重复添加返回已有任务。
+     */
+    abstract fun enqueue(
+        url: String,
+        relativeFilePath: String,
+        option: DownloadOption? = null
+    ): JDCacheDownloadTask?
+
+    /**
+     * 观察任务状态，会先收到最近一次的状态
+     */
+    abstract fun observe(taskId: String): Flow<FileState>?
+
+    abstract fun pause(taskId: String): Boolean
+
+    abstract fun resume(taskId: String): Boolean
+
+    /**
+     * 取消任务并删除已下载的临时文件
+     */
+    abstract fun cancel(taskId: String): Boolean
+
+    abstract fun getTask(taskId: String): JDCacheDownloadTask?
+
+    abstract fun getTasks(): List<JDCacheDownloadTask>
+
+    /**
+     * 从持久化的任务表恢复未完成的任务，通常在进程启动后调用
+     */
+    abstract suspend fun restore()
+}
+
+@Keep
+open class DownloadOption(
+    method: String = METHOD_GET,
+    header: MutableMap<String?, String>? = null,
+    userAgent: String? = null,
+    cookie: String? = null,
+    allowRedirect: Boolean = true,
+    val requireUnmetered: Boolean = false,
+    val requireCharging: Boolean = false,
+    val resumable: Boolean = true
+) : FileRequestOption(method, header, userAgent, cookie, allowRedirect)
@@ -132,7 +132,9 @@ open class FileSaveOption(
     val needUnzip: Boolean = false,
     val unzipDir: String? = null,
     val split: Boolean = false,
-    val mergeWithFile: String? = null
+    val mergeWithFile: String? = null,
+    /** 按服务器返回的压缩格式原样保存，使用时再解压 */
+    val keepEncoded: Boolean = false
 ) : FileRequestOption(method, header, userAgent, cookie, allowRedirect)
 
 @Keep
@@ -187,12 +189,14 @@ sealed class InputStreamState {
     data class Connected(
         val code: Int,
         val headers: Map<String?, List<String?>>?,
-        val data: InputStream?
+        val data: InputStream?,
+        //跟随重定向后的最终url
+        val url: String? = null
     ) : InputStreamState()
 
     override fun toString(): String {
         return when (this) {
-            is Connected -> "InputStreamState[Connected, code=$code]"
+            is Connected -> "InputStreamState[Connected, code=$code] url: $url"
             is Error -> "InputStreamState[Error, code=$code] exception: ${throwable?.message}]"
             is OnStart -> "InputStreamState[OnStart]"
         }
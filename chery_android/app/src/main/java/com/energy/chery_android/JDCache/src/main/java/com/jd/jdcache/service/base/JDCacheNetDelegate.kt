@@ -13,6 +13,28 @@ import java.lang.Exception
 @Keep
 abstract class JDCacheNetDelegate : AbstractDelegate() {
 
+    /**
+     * 重试策略，只作用于幂等请求，为null时不重试
+     */
+    open var retryPolicy: RetryPolicy? = RetryPolicy()
+
+    /**
+     * 按[retryPolicy]重试请求，实现类可用来包装各请求
+     * @param hedgeable 是否允许发出对冲请求
+     * @param create 创建一次请求，每次重试都会调用
+     */
+    protected fun <T> withRetry(
+        method: String,
+        hedgeable: Boolean,
+        create: () -> Flow<NetState<T>>?
+    ): Flow<NetState<T>>? {
+        val policy = retryPolicy
+        if (policy == null || !policy.isIdempotent(method)) {
+            return create()
+        }
+        return retryFlow(name, policy, hedgeable, create)
+    }
+
     /**
      * 请求接口，返回String类型
      */
@@ -81,6 +103,8 @@ abstract class JDCacheNetDelegate : AbstractDelegate() {
 
     /**
      * 下载文件，返回File
+     * @param keepEncoded 为true时按服务器返回的压缩格式原样保存，Content-Encoding保留在响应头中，
+     * 使用时再解压，见[com.jd.jdcache.service.impl.net.ContentDecoder]
      */
     abstract fun downloadFlow(
         url: String,
@@ -89,7 +113,8 @@ abstract class JDCacheNetDelegate : AbstractDelegate() {
         header: MutableMap<String?, String>? = null,
         userAgent: String? = null,
         cookie: String? = null,
-        followRedirect: Boolean = true
+        followRedirect: Boolean = true,
+        keepEncoded: Boolean = false
     ): Flow<NetState<File>>?
 
     /**
@@ -102,10 +127,12 @@ abstract class JDCacheNetDelegate : AbstractDelegate() {
         header: MutableMap<String?, String>? = null,
         userAgent: String? = null,
         cookie: String? = null,
-        followRedirect: Boolean = true
+        followRedirect: Boolean = true,
+        keepEncoded: Boolean = false
     ): NetState<File>? {
         return try {
-            downloadFlow(url, savePath, method, header, userAgent, cookie, followRedirect)?.toList()?.last()
+            downloadFlow(url, savePath, method, header, userAgent, cookie, followRedirect, keepEncoded)
+                ?.toList()?.last()
         } catch (e: Exception) {
             log { e(name, e) }
             null
@@ -212,7 +239,9 @@ sealed class NetState<T> {
         val code: Int,
         val headers: Map<String?, List<String?>>?,
         val length: Long,
-        val data: T
+        val data: T,
+        //跟随重定向后的最终url
+        val url: String? = null
     ) : NetState<T>()
 
     override fun toString(): String {
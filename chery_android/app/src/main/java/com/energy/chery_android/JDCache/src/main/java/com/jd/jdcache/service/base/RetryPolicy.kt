@@ -0,0 +1,298 @@
+package com.jd.jdcache.service.base
+
+import android.os.SystemClock
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheConstant
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.UrlHelper.METHOD_DELETE
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import com.jd.jdcache.util.UrlHelper.METHOD_HEAD
+import com.jd.jdcache.util.UrlHelper.METHOD_PUT
+import com.jd.jdcache.util.log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.Closeable
+import java.io.IOException
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * 网络请求的重试策略，只作用于幂等请求。
+ * - 失败后按指数退避（full jitter）重试，最多[maxRetries]次；
+ * - 重试预算：每次失败消耗1个令牌，每次成功归还[budgetTokenRatio]个，
+ *   令牌不足一半时不再重试，避免网络整体异常时重试放大请求量；
+ * - 对冲：主文档预下载在超过近期p95耗时仍未返回时，再发一个相同请求，先返回的胜出。
+ */
+@Keep
+open class RetryPolicy(
+    val maxRetries: Int = 2,
+    val baseDelayMs: Long = 200L,
+    val maxDelayMs: Long = 3000L,
+    val hedge: Boolean = true,
+    val minHedgeDelayMs: Long = 100L,
+    val budgetMaxTokens: Int = 10,
+    val budgetTokenRatio: Double = 0.1
+) {
+
+    private val budget = RetryBudget(budgetMaxTokens.toDouble(), budgetTokenRatio)
+
+    private val latency = LatencyTracker()
+
+    open fun isIdempotent(method: String): Boolean {
+        return when (method) {
+            METHOD_GET, METHOD_HEAD, METHOD_PUT, METHOD_DELETE -> true
+            else -> false
+        }
+    }
+
+    /**
+     * 连接异常、超时及408/429/5xx网关类错误可重试
+     */
+    open fun isRetryable(code: Int, throwable: Throwable?): Boolean {
+        return when (code) {
+            -1 -> generateSequence(throwable) { it.cause }.any { it is IOException }
+            408, 429, 500, 502, 503, 504 -> true
+            else -> false
+        }
+    }
+
+    /**
+     * 第[attempt]次重试前的等待时间，attempt从0开始
+     */
+    open fun backoffDelay(attempt: Int): Long {
+        val cap = (baseDelayMs shl attempt.coerceAtMost(16)).coerceAtMost(maxDelayMs)
+        return (Math.random() * cap).toLong()
+    }
+
+    /**
+     * 是否对冲请求，默认只对主文档预下载对冲
+     */
+    open fun shouldHedge(priority: JDCachePriority?): Boolean {
+        return hedge && priority == JDCachePriority.MAIN_FRAME_PRELOAD
+    }
+
+    /**
+     * 对冲请求的等待时间，样本不足时返回null，不对冲
+     */
+    open fun hedgeDelay(): Long? {
+        return latency.p95()?.coerceAtLeast(minHedgeDelayMs)
+    }
+
+    internal fun onAttemptSucceed(costMs: Long, trackLatency: Boolean) {
+        budget.onSuccess()
+        if (trackLatency) {
+            latency.add(costMs)
+        }
+    }
+
+    internal fun canRetryAfterFailure(): Boolean = budget.onFailure()
+}
+
+/**
+ * 为幂等请求加上重试和对冲。
+ * @param hedgeable 是否允许对冲。下载文件等有副作用或耗时很长的请求不应对冲
+ * @param create 每次尝试都重新创建请求
+ */
+internal fun <T> retryFlow(
+    tag: String,
+    policy: RetryPolicy,
+    hedgeable: Boolean,
+    create: () -> Flow<NetState<T>>?
+): Flow<NetState<T>> {
+    return flow {
+        val hedge = hedgeable && policy.shouldHedge(currentCoroutineContext()[JDCachePriority])
+        var attempt = 0
+        while (true) {
+            val startTime = SystemClock.elapsedRealtime()
+            var result: NetState<T>? = null
+            val source = if (hedge) hedgedFlow(tag, policy, create) else create()
+            if (source == null) {
+                emit(NetState.Error(-1, RuntimeException("Cannot create request.")))
+                return@flow
+            }
+            source.collect { state ->
+                when (state) {
+                    is NetState.OnStart -> if (attempt == 0) emit(state)
+                    is NetState.OnProgress -> emit(state)
+                    else -> result = state
+                }
+            }
+            val finalState = result ?: NetState.Error(-1, RuntimeException("Request ends without result."))
+            if (finalState is NetState.Error
+                && policy.isRetryable(finalState.code, finalState.throwable)) {
+                if (attempt < policy.maxRetries && policy.canRetryAfterFailure()) {
+                    val delayMs = policy.backoffDelay(attempt)
+                    attempt++
+                    log { d(tag, "Retry($attempt) in ${delayMs}ms after error: $finalState") }
+                    delay(delayMs)
+                    continue
+                }
+            } else if (finalState !is NetState.Error) {
+                policy.onAttemptSucceed(SystemClock.elapsedRealtime() - startTime, hedgeable)
+            }
+            emit(finalState)
+            return@flow
+        }
+    }
+}
+
+/**
+ * 先发一个请求，超过对冲等待时间仍未结束则再发一个，取先成功的结果，另一个取消。
+ * 请求在独立的协程中执行，落败的请求不会拖慢结果返回；晚到的成功结果中的流会被关闭。
+ */
+private fun <T> hedgedFlow(
+    tag: String,
+    policy: RetryPolicy,
+    create: () -> Flow<NetState<T>>?
+): Flow<NetState<T>> {
+    return channelFlow {
+        val priority = currentCoroutineContext()[JDCachePriority] ?: EmptyCoroutineContext
+        val results = Channel<Pair<Boolean, NetState<T>>>(Channel.UNLIMITED)
+        val lock = Any()
+        var settled = false
+        val jobs = ArrayList<Job>(2)
+        fun launchAttempt(primary: Boolean) {
+            jobs += JDCacheConstant.applicationScope.launch(priority) {
+                var ended = false
+                try {
+                    create()?.collect { state ->
+                        if (state !is NetState.OnStart && state !is NetState.OnProgress) {
+                            ended = true
+                        }
+                        val accepted = synchronized(lock) {
+                            !settled && results.trySend(primary to state).isSuccess
+                        }
+                        if (!accepted) {
+                            closeData(tag, state)
+                        }
+                    }
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Throwable) {
+                    log { e(tag, e) }
+                }
+                if (!ended) {
+                    results.trySend(primary to NetState.Error(-1, RuntimeException("Request ends without result.")))
+                }
+            }
+        }
+        try {
+            launchAttempt(true)
+            val hedgeDelay = policy.hedgeDelay()
+            var hedgeLaunched = hedgeDelay == null
+            var launched = 1
+            var finished = 0
+            var winner: NetState<T>? = null
+            var failure: NetState<T>? = null
+            while (finished < launched) {
+                val received = if (!hedgeLaunched && hedgeDelay != null) {
+                    withTimeoutOrNull(hedgeDelay) { results.receive() }
+                } else {
+                    results.receive()
+                }
+                if (received == null) {
+                    hedgeLaunched = true
+                    launched++
+                    log { d(tag, "No response in ${hedgeDelay}ms, send hedged request.") }
+                    launchAttempt(false)
+                    continue
+                }
+                val (primary, state) = received
+                when (state) {
+                    is NetState.OnStart, is NetState.OnProgress -> if (primary) send(state)
+                    is NetState.Error -> {
+                        //主请求在对冲前就失败的，交给重试处理
+                        finished++
+                        hedgeLaunched = true
+                        failure = state
+                    }
+                    else -> {
+                        finished++
+                        winner = state
+                        break
+                    }
+                }
+            }
+            send(winner ?: failure ?: NetState.Error(-1, RuntimeException("Hedged request ends without result.")))
+        } finally {
+            synchronized(lock) { settled = true }
+            jobs.forEach { it.cancel() }
+            //关闭落败请求已拿到的流
+            while (true) {
+                val extra = results.tryReceive().getOrNull() ?: break
+                closeData(tag, extra.second)
+            }
+        }
+    }
+}
+
+private fun closeData(tag: String, state: NetState<*>) {
+    val data = (state as? NetState.Complete<*>)?.data
+    if (data is Closeable) {
+        try {
+            data.close()
+        } catch (e: Exception) {
+            log { e(tag, e) }
+        }
+    }
+}
+
+/**
+ * 重试令牌桶
+ */
+internal class RetryBudget(private val maxTokens: Double, private val tokenRatio: Double) {
+
+    private var tokens = maxTokens
+
+    @Synchronized
+    fun onSuccess() {
+        tokens = (tokens + tokenRatio).coerceAtMost(maxTokens)
+    }
+
+    /**
+     * 记录一次失败，返回是否还能重试
+     */
+    @Synchronized
+    fun onFailure(): Boolean {
+        tokens = (tokens - 1).coerceAtLeast(0.0)
+        return tokens > maxTokens / 2
+    }
+}
+
+/**
+ * 记录最近成功请求的耗时，估算p95
+ */
+internal class LatencyTracker(private val capacity: Int = 64, private val minSamples: Int = 16) {
+
+    private val samples = LongArray(capacity)
+    private var count = 0
+    private var next = 0
+
+    @Synchronized
+    fun add(costMs: Long) {
+        samples[next] = costMs
+        next = (next + 1) % capacity
+        if (count < capacity) {
+            count++
+        }
+    }
+
+    @Synchronized
+    fun p95(): Long? {
+        if (count < minSamples) {
+            return null
+        }
+        val sorted = samples.copyOf(count)
+        sorted.sort()
+        return sorted[((count - 1) * 0.95).toInt()]
+    }
+}
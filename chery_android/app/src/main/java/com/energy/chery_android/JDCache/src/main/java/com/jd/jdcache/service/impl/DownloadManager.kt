@@ -0,0 +1,333 @@
+package com.jd.jdcache.service.impl
+
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.entity.JDCacheDownloadTask
+import com.jd.jdcache.entity.JDCacheDownloadTask.Status
+import com.jd.jdcache.entity.downloadTaskArrayParse
+import com.jd.jdcache.service.DelegateManager
+import com.jd.jdcache.service.base.*
+import com.jd.jdcache.service.impl.net.FileRequest
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.DeviceConstraints
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import com.jd.jdcache.util.getString
+import com.jd.jdcache.util.log
+import com.jd.jdcache.util.sha1Hex
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.json.JSONArray
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 默认的下载管理服务。
+ * 任务表以json形式持久化在缓存目录的download/tasks.json（不含cookie等凭证），
+ * 下载通过[JDCacheNetDelegate.downloadFlow]进行，以[JDCachePriority.PACKAGE_INSTALL]优先级排队。
+ */
+@Keep
+open class DownloadManager : JDCacheDownloadDelegate() {
+
+    override val name: String = "DownloadManager"
+
+    protected val netDelegate: JDCacheNetDelegate? by lazy {
+        DelegateManager.getDelegate<JDCacheNetDelegate>()
+    }
+
+    protected val fileRepo: JDCacheFileRepoDelegate? by lazy {
+        DelegateManager.getDelegate<JDCacheFileRepoDelegate>()
+    }
+
+    protected val rootDirPath: String by lazy {
+        JDCacheSetting.getParamsProvider()?.cacheDir ?: throw RuntimeException(
+            "Cache dir need to be set by JDCacheParamsProvider"
+        )
+    }
+
+    protected val tableFile: File by lazy {
+        File(rootDirPath + File.separator + "download", "tasks.json")
+    }
+
+    private class TaskRecord(val task: JDCacheDownloadTask, val cookie: String? = null) {
+        val state = MutableStateFlow<FileState?>(null)
+
+        @Volatile
+        var job: Job? = null
+    }
+
+    private val records = ConcurrentHashMap<String, TaskRecord>()
+
+    private val tableMutex = Mutex()
+
+    private val restored = AtomicBoolean(false)
+
+    private val constraintsListener: () -> Unit = { onConstraintsChanged() }
+
+    override fun enqueue(
+        url: String,
+        relativeFilePath: String,
+        option: DownloadOption?
+    ): JDCacheDownloadTask? {
+        if (url.isEmpty() || relativeFilePath.isEmpty()) {
+            log { e(name, "Cannot enqueue download, url or path is empty.") }
+            return null
+        }
+        val id = "$url|$relativeFilePath".sha1Hex()
+        val record = synchronized(records) {
+            records[id] ?: TaskRecord(
+                JDCacheDownloadTask(
+                    id,
+                    url,
+                    relativeFilePath,
+                    option?.header,
+                    option?.requireUnmetered ?: false,
+                    option?.requireCharging ?: false,
+                    option?.resumable ?: true,
+                    method = option?.method ?: METHOD_GET,
+                    userAgent = option?.userAgent,
+                    allowRedirect = option?.allowRedirect ?: true
+                ),
+                option?.cookie
+            ).also { records[id] = it }
+        }
+        val task = record.task
+        if (task.status == Status.COMPLETED && targetFile(task).exists()) {
+            log { d(name, "Task already completed, $task") }
+            return task
+        }
+        if (record.job?.isActive == true) {
+            log { d(name, "Task is already running, $task") }
+            return task
+        }
+        start(record)
+        return task
+    }
+
+    override fun observe(taskId: String): Flow<FileState>? {
+        return records[taskId]?.state?.filterNotNull()
+    }
+
+    override fun pause(taskId: String): Boolean {
+        val record = records[taskId] ?: return false
+        synchronized(record) {
+            if (record.task.status.isFinished || record.task.status == Status.PAUSED) {
+                return false
+            }
+            record.task.status = Status.PAUSED
+            record.job?.cancel(CancellationException("Task paused."))
+            record.job = null
+        }
+        log { d(name, "Pause task, ${record.task}") }
+        saveTable()
+        return true
+    }
+
+    override fun resume(taskId: String): Boolean {
+        val record = records[taskId] ?: return false
+        if (record.task.status == Status.COMPLETED || record.job?.isActive == true) {
+            return false
+        }
+        start(record)
+        return true
+    }
+
+    override fun cancel(taskId: String): Boolean {
+        val record = records.remove(taskId) ?: return false
+        synchronized(record) {
+            record.job?.cancel(CancellationException("Task canceled."))
+            record.job = null
+        }
+        val targetPath = targetFile(record.task).absolutePath
+        File(FileRequest.tempPathOf(targetPath)).delete()
+        record.state.value = FileState.Error(-1, CancellationException("Task canceled."))
+        log { d(name, "Cancel task, ${record.task}") }
+        saveTable()
+        return true
+    }
+
+    override fun getTask(taskId: String): JDCacheDownloadTask? {
+        return records[taskId]?.task
+    }
+
+    override fun getTasks(): List<JDCacheDownloadTask> {
+        return records.values.map { it.task }
+    }
+
+    override suspend fun restore() {
+        if (!restored.compareAndSet(false, true)) {
+            return
+        }
+        val tasks = try {
+            tableFile.getString()?.let { downloadTaskArrayParse(it) }
+        } catch (e: Exception) {
+            //缓存目录未就绪，允许之后再次恢复
+            restored.set(false)
+            throw e
+        } ?: return
+        var restoreCount = 0
+        tasks.forEach { task ->
+            if (task.status.isFinished) {
+                //已结束的任务不再保留
+                return@forEach
+            }
+            val record = TaskRecord(task)
+            if (records.putIfAbsent(task.id, record) == null) {
+                restoreCount++
+                if (task.status != Status.PAUSED) {
+                    start(record)
+                }
+            }
+        }
+        log { d(name, "Restore $restoreCount unfinished download task(s).") }
+        saveTable()
+    }
+
+    protected open fun targetFile(task: JDCacheDownloadTask): File {
+        return fileRepo?.getRelativeFile(task.relativeFilePath)
+            ?: File(rootDirPath, task.relativeFilePath)
+    }
+
+    private fun start(record: TaskRecord) {
+        val task = record.task
+        synchronized(record) {
+            if (record.job?.isActive == true) {
+                return
+            }
+            //清除上次执行的结束状态，避免观察者拿到旧的结果
+            record.state.value = null
+            if (!DeviceConstraints.isSatisfied(task.requireUnmetered, task.requireCharging)) {
+                log { d(name, "Constraints not satisfied, wait. $task") }
+                task.status = Status.WAITING_CONSTRAINTS
+                DeviceConstraints.addListener(constraintsListener)
+            } else {
+                task.status = Status.PENDING
+                record.job = launchCoroutine(context = JDCachePriority.PACKAGE_INSTALL) {
+                    download(record)
+                }
+            }
+        }
+        saveTable()
+    }
+
+    private fun onConstraintsChanged() {
+        val waiting = records.values.filter { it.task.status == Status.WAITING_CONSTRAINTS }
+        if (waiting.isEmpty()) {
+            DeviceConstraints.removeListener(constraintsListener)
+            return
+        }
+        waiting.forEach { record ->
+            if (DeviceConstraints.isSatisfied(record.task.requireUnmetered, record.task.requireCharging)) {
+                start(record)
+            }
+        }
+    }
+
+    @Suppress("BlockingMethodInNonBlockingContext")
+    private suspend fun download(record: TaskRecord) {
+        val task = record.task
+        val net = netDelegate
+        if (net == null) {
+            onFail(record, -1, RuntimeException("No JDCacheNetDelegate registered."))
+            return
+        }
+        val targetPath = targetFile(task).absolutePath
+        val header = HashMap<String?, String>(task.header ?: emptyMap())
+        val tempFile = File(FileRequest.tempPathOf(targetPath))
+        val validator = if (task.resumable && tempFile.length() > 0) {
+            FileRequest.readValidator(targetPath)
+        } else {
+            null
+        }
+        if (validator != null) {
+            //续传
+            header["Range"] = "bytes=${tempFile.length()}-"
+            header["If-Range"] = validator
+            log { d(name, "Resume downloading from ${tempFile.length()}, $task") }
+        } else {
+            runOnIo { tempFile.delete() }
+        }
+        val provider = JDCacheSetting.getParamsProvider()
+        val flow = net.downloadFlow(
+            task.url,
+            targetPath,
+            method = task.method,
+            header = header,
+            userAgent = task.userAgent ?: provider?.getUserAgent(task.url),
+            cookie = record.cookie ?: provider?.getCookie(task.url),
+            followRedirect = task.allowRedirect
+        )
+        if (flow == null) {
+            onFail(record, -1, RuntimeException("Cannot create download for ${task.url}"))
+            return
+        }
+        task.status = Status.RUNNING
+        flow.collect { netState ->
+            when (netState) {
+                is NetState.OnStart -> record.state.value = FileState.OnStart(task.url)
+                is NetState.OnProgress -> {
+                    task.downloaded = netState.progress
+                    task.total = netState.max
+                    record.state.value = FileState.OnProgress(netState.progress, netState.max)
+                }
+                is NetState.Complete -> {
+                    task.downloaded = netState.length
+                    task.total = netState.length
+                    task.status = Status.COMPLETED
+                    record.state.value = FileState.Complete(
+                        netState.code, netState.length, netState.headers, netState.data)
+                    log { d(name, "Complete download task, $task") }
+                    saveTable()
+                }
+                is NetState.Error -> onFail(record, netState.code, netState.throwable)
+                is NetState.Redirect -> onFail(record, netState.code,
+                    RuntimeException("Redirect in downloading file"))
+            }
+        }
+    }
+
+    private fun onFail(record: TaskRecord, code: Int, throwable: Throwable?) {
+        if (record.task.status == Status.PAUSED || !records.containsKey(record.task.id)) {
+            //暂停或取消导致的中断
+            return
+        }
+        record.task.status = Status.FAILED
+        record.state.value = FileState.Error(code, throwable)
+        log { e(name, "Download task failed, code = $code, e = $throwable, ${record.task}") }
+        saveTable()
+    }
+
+    /**
+     * 先写临时文件再重命名，避免进程被杀时任务表损坏
+     */
+    private fun saveTable() {
+        launchCoroutine {
+            tableMutex.withLock {
+                val array = JSONArray()
+                records.values.forEach { array.put(it.task.toJson()) }
+                runOnIo {
+                    try {
+                        tableFile.parentFile?.mkdirs()
+                        val tempFile = File(tableFile.path + ".tmp")
+                        tempFile.writeText(array.toString())
+                        if (!tempFile.renameTo(tableFile)) {
+                            tableFile.delete()
+                            tempFile.renameTo(tableFile)
+                        }
+                    } catch (e: Exception) {
+                        log { e(name, "Error in saving download tasks", e) }
+                    }
+                }
+            }
+        }
+    }
+}
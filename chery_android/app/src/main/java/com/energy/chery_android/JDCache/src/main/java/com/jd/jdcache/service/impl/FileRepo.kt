@@ -11,12 +11,18 @@ import com.jd.jdcache.util.JDCacheLog.d
 import com.jd.jdcache.util.JDCacheLog.e
 import com.jd.jdcache.util.log
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.map
 import java.io.*
+import java.net.URL
 
 @Keep
 open class FileRepo : JDCacheFileRepoDelegate() {
 
+    companion object {
+        private const val MAX_REDIRECT_COUNT = 5
+    }
+
     override val name: String = "FileRepo"
 
     protected val rootDirPath: String by lazy {
@@ -29,28 +35,63 @@ open class FileRepo : JDCacheFileRepoDelegate() {
         url: String,
         option: FileRequestOption?
     ): Flow<InputStreamState>? {
-        return netDelegate?.connectFlow(
-            url,
-            option?.method ?: METHOD_GET,
-            option?.header,
-            option?.userAgent,
-            option?.cookie,
-            followRedirect = option?.allowRedirect?:true
-        )?.map { netState ->
-            when(netState) {
-                is NetState.Complete -> {
-                    val fileInputStream = if (netState.data != null) {
-                        BufferedInputStream(netState.data)
-                    } else {
-                        null
+        val netDelegate = this.netDelegate ?: return null
+        val followRedirect = option?.allowRedirect ?: true
+        return flow {
+            var currentUrl = url
+            var redirectCount = 0
+            while (true) {
+                val netFlow = netDelegate.connectFlow(
+                    currentUrl,
+                    option?.method ?: METHOD_GET,
+                    option?.header,
+                    option?.userAgent,
+                    option?.cookie,
+                    followRedirect = followRedirect
+                )
+                if (netFlow == null) {
+                    emit(InputStreamState.Error(-1, RuntimeException("Cannot connect to $currentUrl")))
+                    return@flow
+                }
+                var redirectLocation: String? = null
+                netFlow.collect { netState ->
+                    when (netState) {
+                        is NetState.Complete -> {
+                            val fileInputStream = if (netState.data != null) {
+                                BufferedInputStream(netState.data)
+                            } else {
+                                null
+                            }
+                            emit(InputStreamState.Connected(netState.code, netState.headers,
+                                fileInputStream, netState.url ?: currentUrl))
+                        }
+                        is NetState.OnStart -> if (redirectCount == 0) {
+                            emit(InputStreamState.OnStart(netState.url))
+                        }
+                        is NetState.Error -> emit(InputStreamState.Error(netState.code, netState.throwable))
+                        is NetState.OnProgress -> emit(InputStreamState.Error(-1,
+                            RuntimeException("This state[NetState.OnProgress] should not show up for InputStreamState")))
+                        is NetState.Redirect -> {
+                            // HttpURLConnection不会跟随跨协议（如http->https）的重定向，这里手动跟随
+                            val location = netState.location
+                            if (followRedirect && !location.isNullOrEmpty()
+                                && redirectCount < MAX_REDIRECT_COUNT) {
+                                redirectLocation = location
+                            } else {
+                                emit(InputStreamState.Error(netState.code, RuntimeException("Connection redirects.")))
+                            }
+                        }
                     }
-                    InputStreamState.Connected(netState.code, netState.headers, fileInputStream)
                 }
-                is NetState.OnStart -> InputStreamState.OnStart(netState.url)
-                is NetState.Error -> InputStreamState.Error(netState.code, netState.throwable)
-                is NetState.OnProgress -> InputStreamState.Error(-1,
-                    RuntimeException("This state[NetState.OnProgress] should not show up for InputStreamState"))
-                is NetState.Redirect -> InputStreamState.Error(netState.code, RuntimeException("Connection redirects."))
+                val location = redirectLocation ?: return@flow
+                currentUrl = try {
+                    URL(URL(currentUrl), location).toString()
+                } catch (e: Exception) {
+                    emit(InputStreamState.Error(-1, e))
+                    return@flow
+                }
+                redirectCount++
+                log { d(name, "Follow redirect($redirectCount) from $url to $currentUrl") }
             }
         }
     }
@@ -73,7 +114,8 @@ open class FileRepo : JDCacheFileRepoDelegate() {
             option?.header,
             option?.userAgent,
             option?.cookie,
-            followRedirect = option?.allowRedirect?:true
+            followRedirect = option?.allowRedirect?:true,
+            keepEncoded = option?.keepEncoded ?: false
         )?.map { netState ->
             when (netState) {
                 is NetState.OnStart -> {
@@ -0,0 +1,276 @@
+package com.jd.jdcache.service.impl
+
+import android.app.job.JobInfo
+import android.app.job.JobScheduler
+import android.content.ComponentName
+import android.content.Context
+import android.os.Build
+import android.os.StatFs
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.entity.JDCacheDownloadTask
+import com.jd.jdcache.entity.JDCachePackage
+import com.jd.jdcache.entity.packageArrayParse
+import com.jd.jdcache.entity.toJsonArray
+import com.jd.jdcache.service.DelegateManager
+import com.jd.jdcache.service.base.*
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.UrlHelper.METHOD_POST
+import com.jd.jdcache.util.getString
+import com.jd.jdcache.util.log
+import com.jd.jdcache.util.unzipTo
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+
+/**
+ * 离线包同步配置
+ * @param manifestUrl 服务端清单接口，一次请求检查所有离线包
+ * @param intervalMs 定期检查的间隔
+ * @param requireUnmetered 仅在不计流量的网络下同步
+ * @param requireCharging 仅在充电时同步
+ * @param requireIdle 仅在设备空闲时同步
+ * @param minFreeBytes 下载后磁盘至少保留的可用空间，空间不足的离线包本次跳过
+ */
+@Keep
+open class PackageSyncConfig(
+    val manifestUrl: String,
+    val intervalMs: Long = 6 * 60 * 60 * 1000L,
+    val requireUnmetered: Boolean = true,
+    val requireCharging: Boolean = false,
+    val requireIdle: Boolean = false,
+    val minFreeBytes: Long = 200 * 1024 * 1024L
+)
+
+/**
+ * 离线包同步。
+ * 本地清单记录需要的离线包，同步时把所有离线包的id和已安装版本合并为一个请求发给[PackageSyncConfig.manifestUrl]，
+ * 对版本有变化的离线包通过[JDCacheDownloadDelegate]下载，解压到cacheDir/packages/<id>。
+ * 通过JobScheduler（Android 5.0及以上）在满足网络、充电、空闲条件时执行。
+ *
+ * 清单请求：POST，表单字段packages为json数组 [{"id":"home","version":"11"}]，version为已安装的版本；
+ * 响应：{"packages":[{"id":"home","version":"12","url":"https://.../home-12.zip","size":123456}]}
+ */
+@Keep
+object PackageSync {
+
+    private const val TAG = "PackageSync"
+
+    internal const val JOB_ID = 0x4A44_0001
+
+    private const val PACKAGE_DIR = "packages"
+
+    /** 同步时等待单个离线包下载的最长时间，超时后下载继续，下次同步时再安装 */
+    private const val DOWNLOAD_TIMEOUT = 10 * 60 * 1000L
+
+    private val mutex = Mutex()
+
+    private val netDelegate: JDCacheNetDelegate?
+        get() = DelegateManager.getDelegate<JDCacheNetDelegate>()
+
+    private val downloadDelegate: JDCacheDownloadDelegate?
+        get() = DelegateManager.getDelegate<JDCacheDownloadDelegate>()
+
+    private val config: PackageSyncConfig?
+        get() = JDCacheSetting.getParamsProvider()?.packageSyncConfig()
+
+    private val rootDir: File?
+        get() = JDCacheSetting.getParamsProvider()?.cacheDir?.let { File(it, PACKAGE_DIR) }
+
+    /**
+     * 离线包的安装目录，可用于构建[com.jd.jdcache.entity.JDCacheDataSource]
+     */
+    fun packageDir(id: String): File? = rootDir?.let { File(it, id) }
+
+    /**
+     * 设置需要的离线包，写入本地清单
+     */
+    suspend fun setDesiredPackages(packages: List<JDCachePackage>) {
+        val dir = rootDir ?: return
+        mutex.withLock {
+            writeJson(File(dir, "desired.json"), packages.toJsonArray().toString())
+        }
+    }
+
+    /**
+     * 按配置注册JobScheduler定期任务，配置为空时取消。Android 5.0以下不支持，可使用[sync]
+     */
+    fun schedule(context: Context? = JDCacheSetting.appContext) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            log { d(TAG, "JobScheduler is not supported below Android 5.0.") }
+            return
+        }
+        val scheduler = context?.getSystemService(Context.JOB_SCHEDULER_SERVICE) as? JobScheduler
+            ?: return
+        val config = this.config
+        if (config == null) {
+            scheduler.cancel(JOB_ID)
+            return
+        }
+        val job = JobInfo.Builder(JOB_ID, ComponentName(context, PackageSyncJobService::class.java))
+            .setRequiredNetworkType(
+                if (config.requireUnmetered) JobInfo.NETWORK_TYPE_UNMETERED
+                else JobInfo.NETWORK_TYPE_ANY)
+            .setRequiresCharging(config.requireCharging)
+            .setRequiresDeviceIdle(config.requireIdle)
+            .setPeriodic(config.intervalMs)
+            .build()
+        val result = scheduler.schedule(job)
+        log { d(TAG, "Schedule package sync every ${config.intervalMs}ms, result = $result") }
+    }
+
+    /**
+     * 检查并下载有更新的离线包
+     * @return 是否全部成功
+     */
+    suspend fun sync(): Boolean {
+        val config = this.config ?: return true
+        val dir = rootDir ?: return false
+        return withContext(JDCachePriority.PACKAGE_INSTALL) {
+            mutex.withLock { syncInternal(config, dir) }
+        }
+    }
+
+    private suspend fun syncInternal(config: PackageSyncConfig, dir: File): Boolean {
+        val desired = packageArrayParse(File(dir, "desired.json").getString()?.let { JSONArray(it) })
+        if (desired.isEmpty()) {
+            return true
+        }
+        val installedFile = File(dir, "installed.json")
+        val installed = packageArrayParse(installedFile.getString()?.let { JSONArray(it) })
+            .associateBy { it.id }.toMutableMap()
+        val remote = requestManifest(config, desired.map {
+            JDCachePackage(it.id, installed[it.id]?.version ?: "")
+        }) ?: return false
+        var allSucceed = true
+        var reservedBytes = 0L
+        for (pkg in remote) {
+            if (desired.none { it.id == pkg.id } || installed[pkg.id]?.version == pkg.version) {
+                continue
+            }
+            val url = pkg.url
+            if (url.isNullOrEmpty()) {
+                continue
+            }
+            if (pkg.size > 0) {
+                //按剩余磁盘空间限流，本次已计划下载的也计入
+                val available = runOnIo { StatFs(dir.apply { mkdirs() }.path).availableBytes }
+                if (available - reservedBytes - pkg.size < config.minFreeBytes) {
+                    log { d(TAG, "Skip ${pkg.id}@${pkg.version}, not enough disk space.") }
+                    continue
+                }
+                reservedBytes += pkg.size
+            }
+            if (install(pkg, url, config, dir)) {
+                installed[pkg.id] = pkg
+                writeJson(installedFile, installed.values.toList().toJsonArray().toString())
+            } else {
+                allSucceed = false
+            }
+        }
+        return allSucceed
+    }
+
+    private suspend fun requestManifest(
+        config: PackageSyncConfig,
+        local: List<JDCachePackage>
+    ): List<JDCachePackage>? {
+        val provider = JDCacheSetting.getParamsProvider()
+        val state = netDelegate?.request(
+            config.manifestUrl,
+            METHOD_POST,
+            userAgent = provider?.getUserAgent(config.manifestUrl),
+            cookie = provider?.getCookie(config.manifestUrl),
+            body = hashMapOf("packages" to local.toJsonArray().toString())
+        )
+        if (state !is NetState.Complete) {
+            log { e(TAG, "Fail to request package manifest, $state") }
+            return null
+        }
+        return try {
+            packageArrayParse(JSONObject(state.data).optJSONArray("packages"))
+        } catch (e: Exception) {
+            log { e(TAG, "Illegal package manifest, $e") }
+            null
+        }
+    }
+
+    private suspend fun install(
+        pkg: JDCachePackage,
+        url: String,
+        config: PackageSyncConfig,
+        dir: File
+    ): Boolean {
+        val downloader = downloadDelegate ?: return false
+        val relativePath = "$PACKAGE_DIR${File.separator}.download${File.separator}${pkg.id}-${pkg.version}.zip"
+        val task = downloader.enqueue(url, relativePath,
+            DownloadOption(requireUnmetered = config.requireUnmetered,
+                requireCharging = config.requireCharging)) ?: return false
+        if (task.status == JDCacheDownloadTask.Status.WAITING_CONSTRAINTS
+            || task.status == JDCacheDownloadTask.Status.PAUSED) {
+            //等待下载条件时不占住同步锁，下载完成后由下次同步安装
+            log { d(TAG, "Defer ${pkg.id}@${pkg.version}, download is ${task.status}") }
+            return false
+        }
+        val result = withTimeoutOrNull(DOWNLOAD_TIMEOUT) {
+            downloader.observe(task.id)
+                ?.first { it is FileState.Complete || it is FileState.Error }
+        }
+        val zipFile = (result as? FileState.Complete)?.data
+        if (zipFile == null) {
+            log { e(TAG, "Fail to download ${pkg.id}@${pkg.version}, $result") }
+            return false
+        }
+        return runOnIo {
+            //先解压到临时目录，完整后再替换，避免页面读到一半新一半旧的文件
+            val tempDir = File(dir, ".${pkg.id}.tmp")
+            val targetDir = File(dir, pkg.id)
+            val oldDir = File(dir, ".${pkg.id}.old")
+            try {
+                tempDir.deleteRecursively()
+                zipFile.unzipTo(tempDir)
+                oldDir.deleteRecursively()
+                if (targetDir.exists() && !targetDir.renameTo(oldDir)) {
+                    throw RuntimeException("Cannot move old package of ${pkg.id}")
+                }
+                if (!tempDir.renameTo(targetDir)) {
+                    oldDir.renameTo(targetDir)
+                    throw RuntimeException("Cannot install package ${pkg.id}")
+                }
+                oldDir.deleteRecursively()
+                log { d(TAG, "Installed ${pkg.id}@${pkg.version}") }
+                true
+            } catch (e: Exception) {
+                log { e(TAG, e) }
+                tempDir.deleteRecursively()
+                false
+            } finally {
+                zipFile.delete()
+            }
+        }
+    }
+
+    private suspend fun writeJson(file: File, content: String) {
+        runOnIo {
+            try {
+                file.parentFile?.mkdirs()
+                val tempFile = File(file.path + ".tmp")
+                tempFile.writeText(content)
+                if (!tempFile.renameTo(file)) {
+                    file.delete()
+                    tempFile.renameTo(file)
+                }
+            } catch (e: Exception) {
+                log { e(TAG, e) }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.jd.jdcache.service.impl
+
+import android.app.job.JobParameters
+import android.app.job.JobService
+import android.os.Build
+import androidx.annotation.RequiresApi
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.isActive
+
+/**
+ * 由JobScheduler在满足网络、充电、空闲条件时启动，执行[PackageSync.sync]
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+class PackageSyncJobService : JobService() {
+
+    companion object {
+        private const val TAG = "PackageSyncJob"
+    }
+
+    private var job: Job? = null
+
+    override fun onStartJob(params: JobParameters?): Boolean {
+        if (JDCacheSetting.appContext == null) {
+            JDCacheSetting.appContext = applicationContext
+        }
+        job = launchCoroutine {
+            val succeed = try {
+                PackageSync.sync()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                log { e(TAG, e) }
+                false
+            }
+            if (!currentCoroutineContext().isActive) {
+                //已被onStopJob停止，由onStopJob的返回值决定是否重新调度
+                return@launchCoroutine
+            }
+            log { d(TAG, "Package sync finished, succeed = $succeed") }
+            //失败时交给JobScheduler按退避策略重新调度
+            jobFinished(params, !succeed)
+        }
+        return true
+    }
+
+    override fun onStopJob(params: JobParameters?): Boolean {
+        //执行条件不再满足，取消本次同步，已下载的部分由下载管理器保留以便续传
+        job?.cancel()
+        job = null
+        return true
+    }
+}
@@ -2,7 +2,9 @@ package com.jd.jdcache.service.impl.net
 
 import android.net.Uri
 import android.os.Build
+import android.os.SystemClock
 import com.jd.jdcache.JDCacheConstant
+import com.jd.jdcache.JDCacheSetting
 import com.jd.jdcache.service.base.NetState
 import com.jd.jdcache.util.JDCacheLog.e
 import com.jd.jdcache.util.UrlHelper.METHOD_DELETE
@@ -12,14 +14,18 @@ import com.jd.jdcache.util.UrlHelper.METHOD_PATCH
 import com.jd.jdcache.util.UrlHelper.METHOD_POST
 import com.jd.jdcache.util.UrlHelper.METHOD_PUT
 import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.JDCacheScheduler
+import com.jd.jdcache.util.NetworkQualityEstimator
 import com.jd.jdcache.util.log
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.flow.*
 import java.io.IOException
 import java.io.InputStream
 import java.net.HttpURLConnection
+import java.net.SocketTimeoutException
 import java.net.URL
 import java.net.URLEncoder
-import java.util.zip.GZIPInputStream
 import javax.net.ssl.HttpsURLConnection
 
 abstract class BaseRequest<T>(
@@ -32,8 +38,10 @@ abstract class BaseRequest<T>(
     var body: Map<String, String>? = null,
     var allowRedirect: Boolean = true,
     var referer: String? = null,
-    var connectTimeout: Int = 5 * 1000,
-    var readTimeout: Int = 5 * 1000
+    var connectTimeout: Int = JDCacheSetting.getParamsProvider()?.connectTimeout(url)
+        ?: NetworkQualityEstimator.DEFAULT_TIMEOUT,
+    var readTimeout: Int = JDCacheSetting.getParamsProvider()?.readTimeout(url)
+        ?: NetworkQualityEstimator.DEFAULT_TIMEOUT
 ) {
 
     companion object {
@@ -42,6 +50,10 @@ abstract class BaseRequest<T>(
         const val HEAD_VALUE_CONNECTION_CLOSE = "close"
 
         const val HEAD_KEY_CONTENT_ENCODING = "Content-Encoding"
+        const val HEAD_KEY_CONTENT_LENGTH = "Content-Length"
+        const val HEAD_KEY_ACCEPT_ENCODING = "Accept-Encoding"
+        const val HEAD_KEY_RANGE = "Range"
+        const val HEAD_KEY_IF_RANGE = "If-Range"
 
         const val HEAD_KEY_COOKIE = "Cookie"
         const val HEAD_KEY_USER_AGENT = "User-Agent"
@@ -52,6 +64,24 @@ abstract class BaseRequest<T>(
 
     var connection: HttpURLConnection? = null
 
+    /**
+     * 请求头Accept-Encoding，为null时使用HttpURLConnection的默认值。
+     * 显式设置后系统不再透明解压，由[decodeContent]决定是否解码。
+     */
+    var acceptEncoding: String? = ContentDecoder.acceptEncoding()
+
+    /**
+     * 是否按Content-Encoding解码响应。为false时[parseData]拿到的是原始压缩数据，
+     * 响应头保留Content-Encoding，可用于压缩存储、使用时再解压。
+     */
+    var decodeContent: Boolean = true
+
+    /**
+     * The url which finally responds, may differ from [requestUrl] if redirects are followed.
+     */
+    var responseUrl: String? = null
+        protected set
+
     var requestUrl: String = url
         private set
         get() {
@@ -84,16 +114,28 @@ abstract class BaseRequest<T>(
         flowCollector?.emit(NetState.OnProgress(progress, length))
     }
 
+    /**
+     * Priority used when the collecting coroutine has no [JDCachePriority] in its context.
+     */
+    open val defaultPriority: JDCachePriority = JDCachePriority.CRITICAL_PREFETCH
+
     @Suppress("BlockingMethodInNonBlockingContext")
     fun connectFlow(): Flow<NetState<T>> {
         return flow {
             flowCollector = this
             val url = URL(requestUrl)
-            emit(connect(url))
+            val priority = currentCoroutineContext()[JDCachePriority] ?: defaultPriority
+            val state = JDCacheScheduler.schedule(priority, url.host) { connect(url) }
+            emit(state)
         }.onStart {
             emit(NetState.OnStart(requestUrl))
         }.catch { e ->
             log { e(TAG, e) }
+            if (e is SocketTimeoutException) {
+                //未收到响应头视为连接阶段超时
+                val timeout = if (responseUrl == null) connectTimeout else readTimeout
+                NetworkQualityEstimator.onTimeout(timeout.toLong())
+            }
             emit(NetState.Error(-1, e))
 //            onError(-1, e)
         }.flowOn(ioDispatcher)
@@ -119,6 +161,16 @@ abstract class BaseRequest<T>(
         }
         val header = this.header ?: HashMap()
         header[HEAD_KEY_CONNECTION] = HEAD_VALUE_CONNECTION_KEEP_ALIVE
+        if (header.keys.none { HEAD_KEY_ACCEPT_ENCODING.equals(it, ignoreCase = true) }) {
+            val hasRange = header.keys.any { HEAD_KEY_RANGE.equals(it, ignoreCase = true) }
+            //解码后的数据与压缩数据的字节位置对不上，续传时不使用压缩
+            val encoding = if (hasRange && decodeContent) {
+                ContentDecoder.ENCODING_IDENTITY
+            } else {
+                acceptEncoding
+            }
+            encoding?.let { header[HEAD_KEY_ACCEPT_ENCODING] = it }
+        }
         for (key in header.keys) {
             connection.setRequestProperty(key, header[key])
         }
@@ -126,9 +178,12 @@ abstract class BaseRequest<T>(
         userAgent?.let { connection.setRequestProperty(HEAD_KEY_USER_AGENT, it) }
         referer?.let { connection.setRequestProperty(HEAD_KEY_REFERER, it) }
 
+        val startTime = SystemClock.elapsedRealtime()
         connection.connect()
 
         val responseCode = connection.responseCode
+        NetworkQualityEstimator.addRttSample(SystemClock.elapsedRealtime() - startTime)
+        responseUrl = connection.url?.toString()
         when {
             responseCode == 301
                     || responseCode == 302
@@ -151,12 +206,23 @@ abstract class BaseRequest<T>(
                 // successful connection, code may be 2xx, 4xx, 5xx
                 val inputStream =
                     if (method != METHOD_HEAD) getServerStream(responseCode, connection) else null
-                val length: Long = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                val decoded = decodeContent
+                        && ContentDecoder.isEncoded(connection.getHeaderField(HEAD_KEY_CONTENT_ENCODING))
+                var length: Long = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
                     connection.contentLengthLong
                 else connection.contentLength.toLong()
+                var headers = connection.headerFields
+                if (decoded) {
+                    //已解码，压缩相关的头不再适用，避免使用方（如WebView）重复解码
+                    length = -1
+                    headers = headers?.filterKeys {
+                        !HEAD_KEY_CONTENT_ENCODING.equals(it, ignoreCase = true)
+                                && !HEAD_KEY_CONTENT_LENGTH.equals(it, ignoreCase = true)
+                    }
+                }
                 return parseData(
                     responseCode,
-                    connection.headerFields,
+                    headers,
                     length,
                     inputStream
                 )
@@ -248,8 +314,8 @@ abstract class BaseRequest<T>(
         contentEncoding: String?,
         urlConnection: HttpURLConnection
     ): InputStream {
-        val inputStream = urlConnection.inputStream
-        return gzipInputStream(contentEncoding, inputStream)
+        val inputStream = MeasuredInputStream(urlConnection.inputStream)
+        return decodeInputStream(contentEncoding, inputStream)
     }
 
     @Throws(IOException::class)
@@ -258,23 +324,18 @@ abstract class BaseRequest<T>(
         urlConnection: HttpURLConnection
     ): InputStream {
         val inputStream = urlConnection.errorStream
-        return gzipInputStream(contentEncoding, inputStream)
+        return decodeInputStream(contentEncoding, inputStream)
     }
 
     @Throws(IOException::class)
-    private fun gzipInputStream(
+    private fun decodeInputStream(
         contentEncoding: String?,
         inputStream: InputStream
     ): InputStream {
-        var inputStream = inputStream
-        if (isGzipContent(contentEncoding)) {
-            inputStream = GZIPInputStream(inputStream)
+        if (!decodeContent) {
+            return inputStream
         }
-        return inputStream
-    }
-
-    private fun isGzipContent(contentEncoding: String?): Boolean {
-        return contentEncoding != null && contentEncoding.contains("gzip")
+        return ContentDecoder.decode(contentEncoding, inputStream)
     }
 
 }
\ No newline at end of file
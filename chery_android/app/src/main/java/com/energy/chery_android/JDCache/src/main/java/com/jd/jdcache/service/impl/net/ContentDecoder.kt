@@ -0,0 +1,140 @@
+package com.jd.jdcache.service.impl.net
+
+import androidx.annotation.Keep
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.log
+import java.io.IOException
+import java.io.InputStream
+import java.io.PushbackInputStream
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.GZIPInputStream
+import java.util.zip.Inflater
+import java.util.zip.InflaterInputStream
+
+/**
+ * Content-Encoding解码器注册表，决定请求时声明的Accept-Encoding。
+ * 内置gzip、deflate；若工程引入了org.brotli:dec，会自动支持br。
+ * 也可通过[register]接入其他解码实现。
+ */
+@Keep
+object ContentDecoder {
+
+    private const val TAG = "ContentDecoder"
+
+    const val ENCODING_BR = "br"
+    const val ENCODING_GZIP = "gzip"
+    const val ENCODING_DEFLATE = "deflate"
+    const val ENCODING_IDENTITY = "identity"
+
+    private const val BROTLI_STREAM_CLASS = "org.brotli.dec.BrotliInputStream"
+
+    /** Accept-Encoding中的优先顺序，压缩率高的在前 */
+    private val preferredOrder = listOf(ENCODING_BR, ENCODING_GZIP, ENCODING_DEFLATE)
+
+    private val decoders = ConcurrentHashMap<String, (InputStream) -> InputStream>()
+
+    @Volatile
+    private var acceptEncodingCache: String? = null
+
+    init {
+        decoders[ENCODING_GZIP] = { GZIPInputStream(it) }
+        decoders[ENCODING_DEFLATE] = { deflateInputStream(it) }
+        findBrotliDecoder()?.let { decoders[ENCODING_BR] = it }
+    }
+
+    /**
+     * 注册解码器，会覆盖同名的已有解码器
+     * @param encoding Content-Encoding的值，例如br
+     * @param decoder 把压缩流包装成解压流
+     */
+    fun register(encoding: String, decoder: (InputStream) -> InputStream) {
+        decoders[encoding.toLowerCase(Locale.ROOT)] = decoder
+        acceptEncodingCache = null
+    }
+
+    fun unregister(encoding: String) {
+        decoders.remove(encoding.toLowerCase(Locale.ROOT))
+        acceptEncodingCache = null
+    }
+
+    /**
+     * 可解码的编码列表，作为请求头Accept-Encoding的值
+     */
+    fun acceptEncoding(): String {
+        acceptEncodingCache?.let { return it }
+        val supported = preferredOrder.filter { decoders.containsKey(it) } +
+                decoders.keys.filter { !preferredOrder.contains(it) }.sorted()
+        return supported.joinToString(", ").also { acceptEncodingCache = it }
+    }
+
+    /**
+     * 是否经过了压缩编码（非空且不是identity）
+     */
+    fun isEncoded(contentEncoding: String?): Boolean {
+        return parse(contentEncoding).isNotEmpty()
+    }
+
+    fun isSupported(contentEncoding: String?): Boolean {
+        return parse(contentEncoding).all { decoders.containsKey(it) }
+    }
+
+    /**
+     * 按Content-Encoding包装解压流，多重编码时按相反顺序逐层解码
+     */
+    @Throws(IOException::class)
+    fun decode(contentEncoding: String?, inputStream: InputStream): InputStream {
+        var stream = inputStream
+        parse(contentEncoding).asReversed().forEach { encoding ->
+            val decoder = decoders[encoding]
+                ?: throw IOException("Unsupported Content-Encoding: $contentEncoding")
+            stream = decoder(stream)
+        }
+        return stream
+    }
+
+    private fun parse(contentEncoding: String?): List<String> {
+        if (contentEncoding.isNullOrBlank()) {
+            return emptyList()
+        }
+        return contentEncoding.split(',')
+            .map { it.trim().toLowerCase(Locale.ROOT) }
+            .filter { it.isNotEmpty() && it != ENCODING_IDENTITY }
+    }
+
+    /**
+     * HTTP的deflate本应是zlib格式，但也有服务器直接返回raw deflate，这里根据头两个字节判断
+     */
+    @Throws(IOException::class)
+    private fun deflateInputStream(inputStream: InputStream): InputStream {
+        val pushback = PushbackInputStream(inputStream, 2)
+        val head = ByteArray(2)
+        var read = 0
+        while (read < 2) {
+            val n = pushback.read(head, read, 2 - read)
+            if (n == -1) break
+            read += n
+        }
+        if (read > 0) {
+            pushback.unread(head, 0, read)
+        }
+        val cmf = head[0].toInt() and 0xFF
+        val flg = head[1].toInt() and 0xFF
+        val zlibWrapped = read == 2 && (cmf and 0x0F) == 8 && ((cmf shl 8) or flg) % 31 == 0
+        return InflaterInputStream(pushback, Inflater(!zlibWrapped))
+    }
+
+    private fun findBrotliDecoder(): ((InputStream) -> InputStream)? {
+        return try {
+            val constructor = Class.forName(BROTLI_STREAM_CLASS)
+                .getConstructor(InputStream::class.java)
+            val decoder: (InputStream) -> InputStream = {
+                constructor.newInstance(it) as InputStream
+            }
+            decoder
+        } catch (e: Throwable) {
+            log { d(TAG, "Brotli decoder not found, br will not be requested.") }
+            null
+        }
+    }
+}
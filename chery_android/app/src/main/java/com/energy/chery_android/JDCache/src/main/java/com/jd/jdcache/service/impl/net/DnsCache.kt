@@ -0,0 +1,94 @@
+package com.jd.jdcache.service.impl.net
+
+import androidx.annotation.Keep
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.DeviceConstraints
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.log
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 域名解析缓存。
+ * 系统InetAddress只缓存很短时间，这里按[ttlMs]保存解析结果，网络切换时清空。
+ * HttpURLConnection无法指定解析器，提前解析的作用是预热系统的DNS缓存，
+ * 需要直连IP的使用方可通过[lookup]取结果。
+ */
+@Keep
+object DnsCache {
+
+    private const val TAG = "DnsCache"
+
+    @Volatile
+    var ttlMs: Long = 5 * 60 * 1000L
+
+    @Volatile
+    var maxSize: Int = 64
+
+    private class Entry(val addresses: List<InetAddress>, val expireTime: Long)
+
+    private val cache = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?): Boolean {
+            return size > maxSize
+        }
+    }
+
+    private val networkListenerAdded = AtomicBoolean(false)
+
+    @Volatile
+    private var networkType: String? = null
+
+    private val networkListener: () -> Unit = {
+        val current = DeviceConstraints.currentNetworkType()
+        if (current != networkType) {
+            networkType = current
+            clear()
+        }
+    }
+
+    /**
+     * 取未过期的解析结果
+     */
+    fun lookup(host: String): List<InetAddress>? {
+        synchronized(cache) {
+            val entry = cache[host] ?: return null
+            if (entry.expireTime < System.currentTimeMillis()) {
+                cache.remove(host)
+                return null
+            }
+            return entry.addresses
+        }
+    }
+
+    /**
+     * 解析域名，有未过期的缓存时直接返回
+     */
+    suspend fun resolve(host: String): List<InetAddress>? {
+        lookup(host)?.let { return it }
+        if (networkListenerAdded.compareAndSet(false, true)) {
+            networkType = DeviceConstraints.currentNetworkType()
+            DeviceConstraints.addListener(networkListener)
+        }
+        val addresses = runOnIo {
+            try {
+                InetAddress.getAllByName(host)?.toList()
+            } catch (e: UnknownHostException) {
+                log { d(TAG, "Cannot resolve $host, $e") }
+                null
+            }
+        }
+        if (!addresses.isNullOrEmpty()) {
+            synchronized(cache) {
+                cache[host] = Entry(addresses, System.currentTimeMillis() + ttlMs)
+            }
+        }
+        return addresses
+    }
+
+    fun clear() {
+        synchronized(cache) {
+            cache.clear()
+        }
+    }
+}
@@ -2,17 +2,87 @@ package com.jd.jdcache.service.impl.net
 
 import com.jd.jdcache.JDCacheConstant.NET_READ_BUFFER_SIZE
 import com.jd.jdcache.service.base.NetState
+import com.jd.jdcache.service.impl.net.BaseRequest.Companion.HEAD_KEY_IF_RANGE
+import com.jd.jdcache.service.impl.net.BaseRequest.Companion.HEAD_KEY_RANGE
+import com.jd.jdcache.util.FileLocks
 import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
 import com.jd.jdcache.util.UrlHelper.METHOD_HEAD
 import com.jd.jdcache.util.log
+import kotlinx.coroutines.CancellationException
 import java.io.*
 import java.net.HttpURLConnection
 import kotlin.Exception
 
+/**
+ * 下载文件。
+ * 数据先写入临时文件[tempPath]，完整下载后再重命名为[targetPath]，同一路径的写入互斥。
+ * 若请求带Range头且服务器返回206，且起始位置与临时文件长度一致，则续写临时文件。
+ */
 class FileRequest(url: String, val targetPath: String) : BaseRequest<File>(url) {
 
+    companion object {
+        const val TEMP_SUFFIX = ".jdtmp"
+        private const val VALIDATOR_SUFFIX = ".validator"
+
+        fun tempPathOf(targetPath: String): String = targetPath + TEMP_SUFFIX
+
+        /**
+         * 读取未完成下载的校验值（ETag或Last-Modified），用于续传时的If-Range
+         */
+        fun readValidator(targetPath: String): String? {
+            val file = File(tempPathOf(targetPath) + VALIDATOR_SUFFIX)
+            return try {
+                if (file.exists()) file.readText().ifEmpty { null } else null
+            } catch (e: IOException) {
+                null
+            }
+        }
+
+        /**
+         * 若[header]带有续传的Range，按临时文件当前的长度重新计算Range和If-Range，
+         * 临时文件为空或没有校验值时去掉这两个头，从头下载。每次重试前都需调用，
+         * 因为前一次尝试可能已经向临时文件写入了数据。
+         */
+        fun resumeHeader(targetPath: String, header: MutableMap<String?, String>?): MutableMap<String?, String>? {
+            if (header == null || header.keys.none { HEAD_KEY_RANGE.equals(it, ignoreCase = true) }) {
+                return header
+            }
+            val result = HashMap<String?, String>(header.size)
+            header.forEach { (key, value) ->
+                if (!HEAD_KEY_RANGE.equals(key, ignoreCase = true)
+                    && !HEAD_KEY_IF_RANGE.equals(key, ignoreCase = true)) {
+                    result[key] = value
+                }
+            }
+            val length = File(tempPathOf(targetPath)).length()
+            val validator = if (length > 0) readValidator(targetPath) else null
+            if (validator != null) {
+                result[HEAD_KEY_RANGE] = "bytes=$length-"
+                result[HEAD_KEY_IF_RANGE] = validator
+            }
+            return result
+        }
+
+        /**
+         * 解析Content-Range: bytes start-end/total 中的start
+         */
+        internal fun parseRangeStart(headers: Map<String?, List<String?>>?): Long {
+            val contentRange = headers?.entries
+                ?.firstOrNull { "Content-Range".equals(it.key, ignoreCase = true) }
+                ?.value?.firstOrNull() ?: return -1
+            return contentRange.substringAfter("bytes", "")
+                .substringBefore('-').trim().toLongOrNull() ?: -1
+        }
+    }
+
     override val TAG: String = "FileRequest"
 
+    override val defaultPriority: JDCachePriority = JDCachePriority.PACKAGE_INSTALL
+
+    val tempPath: String
+        get() = tempPathOf(targetPath)
+
     @Suppress("BlockingMethodInNonBlockingContext")
     override suspend fun parseData(
         responseCode: Int,
@@ -20,41 +90,22 @@ class FileRequest(url: String, val targetPath: String) : BaseRequest<File>(url)
         contentLength: Long,
         inputStream: InputStream?
     ): NetState<File> {
-        val state = if (responseCode == HttpURLConnection.HTTP_OK) {
-            var bufferedOutputStream: BufferedOutputStream? = null
-            try {
-                if (method != METHOD_HEAD) {
-                    if (inputStream == null) {
-                        return NetState.Error(-1, Exception("Response stream is null!"))
-                    }
-                    notifyProgress(0, contentLength)
-                    File(targetPath).parentFile?.mkdirs()
-                    val fos = FileOutputStream(targetPath, false)
-                    bufferedOutputStream = BufferedOutputStream(fos)
-                    val buffer = ByteArray(NET_READ_BUFFER_SIZE)
-                    var currentSize = 0L
-                    var hasRead = 0
-                    while (inputStream.read(buffer).also { hasRead = it } != -1) {
-                        bufferedOutputStream.write(buffer, 0, hasRead)
-                        currentSize += hasRead
-                        notifyProgress(currentSize, contentLength)
+        val state = if (responseCode == HttpURLConnection.HTTP_OK
+            || responseCode == HttpURLConnection.HTTP_PARTIAL) {
+            if (method != METHOD_HEAD) {
+                if (inputStream == null) {
+                    NetState.Error(-1, Exception("Response stream is null!"))
+                } else {
+                    FileLocks.withLock(targetPath) {
+                        writeFile(responseCode, responseHeaders, contentLength, inputStream)
                     }
-                    bufferedOutputStream.flush()
                 }
+            } else {
                 NetState.Complete(
                     responseCode,
                     responseHeaders,
                     contentLength,
                     File(targetPath))
-            } catch (e: Exception) {
-                log { e(TAG, e) }
-                NetState.Error<File>(-1, Exception("Write file error: " + e.message))
-            } finally {
-                try {
-                    bufferedOutputStream?.close()
-                } catch (e: IOException) {
-                    log { e(TAG, e) }
-                }
             }
         } else {
             NetState.Error<File>(responseCode, Exception("Response code is not 200"))
@@ -68,4 +119,81 @@ class FileRequest(url: String, val targetPath: String) : BaseRequest<File>(url)
         return state
     }
 
-}
\ No newline at end of file
+    @Suppress("BlockingMethodInNonBlockingContext")
+    private suspend fun writeFile(
+        responseCode: Int,
+        responseHeaders: Map<String?, List<String?>>?,
+        contentLength: Long,
+        inputStream: InputStream
+    ): NetState<File> {
+        val targetFile = File(targetPath)
+        val tempFile = File(tempPath)
+        val validatorFile = File(tempPath + VALIDATOR_SUFFIX)
+        var bufferedOutputStream: BufferedOutputStream? = null
+        try {
+            val append = responseCode == HttpURLConnection.HTTP_PARTIAL
+            if (append && (!tempFile.exists() || parseRangeStart(responseHeaders) != tempFile.length())) {
+                tempFile.delete()
+                validatorFile.delete()
+                //已删除临时文件，可重试从头下载
+                return NetState.Error(-1, IOException("Partial content does not match the temp file."))
+            }
+            targetFile.parentFile?.mkdirs()
+            if (!append) {
+                //记录校验值，暂停后续传时使用
+                val validator = responseHeaders?.entries
+                    ?.firstOrNull { "ETag".equals(it.key, ignoreCase = true)
+                            || "Last-Modified".equals(it.key, ignoreCase = true) }
+                    ?.value?.firstOrNull()
+                if (validator.isNullOrEmpty()) {
+                    validatorFile.delete()
+                } else {
+                    validatorFile.writeText(validator)
+                }
+            }
+            var currentSize = if (append) tempFile.length() else 0L
+            val totalSize = if (append && contentLength >= 0) currentSize + contentLength else contentLength
+            notifyProgress(currentSize, totalSize)
+            val fos = FileOutputStream(tempFile, append)
+            bufferedOutputStream = BufferedOutputStream(fos)
+            val buffer = ByteArray(NET_READ_BUFFER_SIZE)
+            var hasRead = 0
+            while (inputStream.read(buffer).also { hasRead = it } != -1) {
+                bufferedOutputStream.write(buffer, 0, hasRead)
+                currentSize += hasRead
+                notifyProgress(currentSize, totalSize)
+            }
+            bufferedOutputStream.flush()
+            fos.fd.sync()
+            bufferedOutputStream.close()
+            bufferedOutputStream = null
+            //完整写入后再替换目标文件，读者不会看到写了一半的文件
+            if (!tempFile.renameTo(targetFile)) {
+                targetFile.delete()
+                if (!tempFile.renameTo(targetFile)) {
+                    return NetState.Error(-1, Exception("Cannot move temp file to $targetPath"))
+                }
+            }
+            validatorFile.delete()
+            return NetState.Complete(
+                responseCode,
+                responseHeaders,
+                currentSize,
+                targetFile)
+        } catch (e: CancellationException) {
+            //暂停或取消，保留临时文件，以便续传
+            throw e
+        } catch (e: Exception) {
+            //保留临时文件，以便续传
+            log { e(TAG, e) }
+            return NetState.Error(-1, Exception("Write file error: " + e.message, e))
+        } finally {
+            try {
+                bufferedOutputStream?.close()
+            } catch (e: IOException) {
+                log { e(TAG, e) }
+            }
+        }
+    }
+
+}
@@ -8,12 +8,27 @@ import java.io.BufferedReader
 import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
-import java.lang.StringBuilder
 import java.net.HttpURLConnection
 import kotlin.Exception
 
 class HttpRequest(url: String) : BaseRequest<String>(url) {
 
+    companion object {
+        /**
+         * 按行读取响应，每行以换行结尾
+         */
+        @Suppress("BlockingMethodInNonBlockingContext")
+        internal fun readBody(reader: BufferedReader): String {
+            val result = StringBuilder()
+            var readLine: String?
+            while (reader.readLine().also { readLine = it } != null) {
+                result.append(readLine)
+                result.append("\n")
+            }
+            return result.toString()
+        }
+    }
+
     override val TAG: String = "HttpRequest"
 
     @Suppress("BlockingMethodInNonBlockingContext")
@@ -23,17 +38,12 @@ class HttpRequest(url: String) : BaseRequest<String>(url) {
         contentLength: Long,
         inputStream: InputStream?
     ): NetState<String> {
-        var result: StringBuilder? = null
+        var result: String? = null
         var br: BufferedReader? = null
         if (method != METHOD_HEAD && inputStream != null) {
-            result = StringBuilder()
             br = BufferedReader(InputStreamReader(inputStream))
             try {
-                var readLine: String?
-                while (br.readLine().also { readLine = it } != null) {
-                    result.append(readLine)
-                    result.append("\n")
-                }
+                result = readBody(br)
             } catch (e: Exception) {
                 return NetState.Error(-1, e)
             }
@@ -43,7 +53,7 @@ class HttpRequest(url: String) : BaseRequest<String>(url) {
                 responseCode,
                 responseHeaders,
                 contentLength,
-                result?.toString() ?: "")
+                result ?: "")
         } else {
             NetState.Error<String>(responseCode, Exception(br?.toString() ?: ""))
         }
@@ -0,0 +1,305 @@
+package com.jd.jdcache.service.impl.net
+
+import com.jd.jdcache.JDCacheConstant.NET_READ_BUFFER_SIZE
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.UrlHelper.METHOD_GET
+import com.jd.jdcache.util.log
+import kotlinx.coroutines.CompletableDeferred
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 进程内进行中的网络请求登记表（single-flight）。
+ * 同一个key（url + 影响响应内容的header）的请求在进行中时，后来的请求不再建立新连接，
+ * 而是通过[SharedTransfer]共享同一份数据，已经收到的数据会直接返回给后来者。
+ */
+internal object InflightRegistry {
+
+    private const val TAG = "InflightRegistry"
+
+    /**
+     * 会影响响应内容的header，参与计算key
+     */
+    private val RELEVANT_HEADERS = setOf(
+        "authorization",
+        "range",
+        "accept-encoding",
+        "accept-language"
+    )
+
+    private val inflightMap = ConcurrentHashMap<String, CompletableDeferred<SharedTransfer?>>()
+
+    /** 加入已有传输的次数 */
+    val joinCount = AtomicLong(0)
+
+    /** 通过共享节省的字节数（后来者读到的字节） */
+    val sharedBytes = AtomicLong(0)
+
+    fun isSharable(method: String, body: Map<String, String>?): Boolean {
+        return method == METHOD_GET && body.isNullOrEmpty()
+    }
+
+    fun keyOf(url: String, header: Map<String?, String>?, cookie: String?): String {
+        val builder = StringBuilder(url)
+        header?.entries
+            ?.filter { it.key?.lowercase() in RELEVANT_HEADERS }
+            ?.sortedBy { it.key?.lowercase() }
+            ?.forEach { builder.append('|').append(it.key?.lowercase()).append('=').append(it.value) }
+        if (!cookie.isNullOrEmpty()) {
+            builder.append("|cookie=").append(cookie)
+        }
+        return builder.toString()
+    }
+
+    /**
+     * 获取key对应的进行中请求。
+     * @return first为等待结果的deferred，second为true时表示调用者是发起者，需负责完成deferred
+     */
+    fun acquire(key: String): Pair<CompletableDeferred<SharedTransfer?>, Boolean> {
+        val deferred = CompletableDeferred<SharedTransfer?>()
+        val existing = inflightMap.putIfAbsent(key, deferred)
+        return if (existing != null) {
+            existing to false
+        } else {
+            deferred to true
+        }
+    }
+
+    fun remove(key: String, deferred: CompletableDeferred<SharedTransfer?>) {
+        if (inflightMap.remove(key, deferred)) {
+            //key中含有cookie、authorization，只输出url
+            log { d(TAG, "Remove in-flight request: ${key.substringBefore('|')}") }
+        }
+    }
+
+    internal fun onJoin() {
+        joinCount.incrementAndGet()
+    }
+}
+
+/**
+ * 一次可被多个读者共享的网络传输（tee stream）。
+ * 任一读者读到尚未缓存的位置时，由它从上游读取下一段数据并追加到缓存，其他读者从缓存读取。
+ * 只保留开头[replayWindow]字节供后来者从头重放，读过这一窗口后不再接受新读者：
+ * 若只有一个读者则释放缓存、直接读取上游，否则缓存只保留最慢读者尚未读到的数据。
+ */
+internal class SharedTransfer(
+    val code: Int,
+    val headers: Map<String?, List<String?>>?,
+    val length: Long,
+    val url: String?,
+    private val upstream: InputStream,
+    private val replayWindow: Int = REPLAY_WINDOW,
+    private val onFinish: () -> Unit
+) {
+
+    companion object {
+        private const val TAG = "SharedTransfer"
+        const val REPLAY_WINDOW = 128 * 1024
+    }
+
+    private val lock = Any()
+
+    private val fillLock = Any()
+
+    private var buffer = ByteArray(NET_READ_BUFFER_SIZE)
+
+    /** buffer[0]在响应体中的位置，此前的数据所有读者都已读过 */
+    private var base = 0
+
+    /** 已从上游读取的字节数，即buffer中数据的结束位置 */
+    @Volatile
+    private var size = 0
+
+    @Volatile
+    private var upstreamEnd = false
+
+    @Volatile
+    private var upstreamError: IOException? = null
+
+    private val readers = ArrayList<Reader>(2)
+
+    private var joinable = true
+
+    private var released = false
+
+    private val finished = AtomicBoolean(false)
+
+    /**
+     * 创建新的读者，从头开始读取
+     * @return 传输已不可加入时返回null
+     */
+    fun newReader(): InputStream? {
+        synchronized(lock) {
+            if (!joinable || released) {
+                return null
+            }
+            val reader = Reader(readers.isNotEmpty())
+            readers.add(reader)
+            return reader
+        }
+    }
+
+    private fun readAt(reader: Reader, b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) {
+            return 0
+        }
+        while (true) {
+            synchronized(lock) {
+                if (released) {
+                    throw IOException("Shared transfer is released.")
+                }
+                if (reader.position < size) {
+                    val count = minOf(len, size - reader.position)
+                    System.arraycopy(buffer, reader.position - base, b, off, count)
+                    reader.position += count
+                    return count
+                }
+                upstreamError?.let { throw it }
+                if (upstreamEnd) {
+                    return -1
+                }
+                if (!joinable && readers.size == 1) {
+                    //没有其他读者，也不会再有新读者加入，直接读上游，释放缓存
+                    buffer = ByteArray(0)
+                    base = size
+                    reader.direct = true
+                }
+            }
+            if (reader.direct) {
+                return synchronized(fillLock) { upstream.read(b, off, len) }
+            }
+            fill(reader.position)
+        }
+    }
+
+    /**
+     * 从上游读取一段数据追加到缓存，同一时间只有一个读者在读上游
+     */
+    private fun fill(expectSize: Int) {
+        synchronized(fillLock) {
+            if (size > expectSize || upstreamEnd || upstreamError != null) {
+                //其他读者已经读取了
+                return
+            }
+            val chunk = ByteArray(NET_READ_BUFFER_SIZE)
+            val count = try {
+                upstream.read(chunk)
+            } catch (e: IOException) {
+                upstreamError = e
+                finish()
+                return
+            }
+            synchronized(lock) {
+                if (count == -1) {
+                    upstreamEnd = true
+                } else {
+                    if (!joinable) {
+                        discardConsumed()
+                    }
+                    ensureCapacity(size - base + count)
+                    System.arraycopy(chunk, 0, buffer, size - base, count)
+                    size += count
+                    if (size > replayWindow && joinable) {
+                        joinable = false
+                        log { d(TAG, "Read past the replay window of $replayWindow bytes, stop accepting readers.") }
+                    }
+                }
+            }
+            if (count == -1 || !joinable) {
+                finish()
+            }
+        }
+    }
+
+    /**
+     * 不再有新读者时，丢弃所有读者都已读过的数据，调用时需持有[lock]
+     */
+    private fun discardConsumed() {
+        val minPosition = readers.filter { !it.direct }.minOfOrNull { it.position } ?: size
+        val discard = minPosition - base
+        if (discard < NET_READ_BUFFER_SIZE) {
+            return
+        }
+        System.arraycopy(buffer, discard, buffer, 0, size - minPosition)
+        base = minPosition
+    }
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity > buffer.size) {
+            buffer = buffer.copyOf(maxOf(capacity, buffer.size * 2))
+        }
+    }
+
+    private fun availableAt(reader: Reader): Int {
+        synchronized(lock) {
+            return if (reader.direct) {
+                upstream.available()
+            } else {
+                size - reader.position
+            }
+        }
+    }
+
+    private fun closeReader(reader: Reader) {
+        val release = synchronized(lock) {
+            if (!readers.remove(reader)) {
+                return
+            }
+            if (readers.isEmpty()) {
+                released = true
+                buffer = ByteArray(0)
+                true
+            } else {
+                false
+            }
+        }
+        if (release) {
+            finish()
+            try {
+                upstream.close()
+            } catch (e: IOException) {
+                log { e(TAG, e) }
+            }
+        }
+    }
+
+    private fun finish() {
+        if (finished.compareAndSet(false, true)) {
+            onFinish()
+        }
+    }
+
+    private inner class Reader(private val joined: Boolean) : InputStream() {
+
+        var position = 0
+
+        var direct = false
+
+        override fun read(): Int {
+            val single = ByteArray(1)
+            val count = read(single, 0, 1)
+            return if (count == -1) -1 else single[0].toInt() and 0xff
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val count = readAt(this, b, off, len)
+            if (joined && count > 0) {
+                InflightRegistry.sharedBytes.addAndGet(count.toLong())
+            }
+            return count
+        }
+
+        override fun available(): Int {
+            return availableAt(this)
+        }
+
+        override fun close() {
+            closeReader(this)
+        }
+    }
+}
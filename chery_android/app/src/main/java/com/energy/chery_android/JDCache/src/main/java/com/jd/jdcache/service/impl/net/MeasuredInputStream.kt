@@ -0,0 +1,62 @@
+package com.jd.jdcache.service.impl.net
+
+import android.os.SystemClock
+import com.jd.jdcache.util.NetworkQualityEstimator
+import com.jd.jdcache.util.metric
+import java.io.FilterInputStream
+import java.io.InputStream
+
+/**
+ * 统计响应体读取的字节数和耗时，读完或关闭时向[NetworkQualityEstimator]提交速度样本。
+ * 只累计[read]内部阻塞的时间，排除使用方两次读取之间处理数据（WebView消费、写文件等）的时间；
+ * 第一次读到数据的耗时包含等待首字节，也不计入。
+ */
+internal class MeasuredInputStream(stream: InputStream) : FilterInputStream(stream) {
+
+    private var bytes = 0L
+    private var readNs = 0L
+    private var started = false
+    private var reported = false
+
+    override fun read(): Int {
+        val start = SystemClock.elapsedRealtimeNanos()
+        val b = super.read()
+        onRead(if (b == -1) -1 else 1, SystemClock.elapsedRealtimeNanos() - start)
+        return b
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val start = SystemClock.elapsedRealtimeNanos()
+        val n = super.read(b, off, len)
+        onRead(n, SystemClock.elapsedRealtimeNanos() - start)
+        return n
+    }
+
+    override fun close() {
+        report()
+        super.close()
+    }
+
+    private fun onRead(n: Int, elapsedNs: Long) {
+        if (n == -1) {
+            report()
+            return
+        }
+        if (started) {
+            readNs += elapsedNs
+        } else {
+            started = true
+        }
+        bytes += n
+    }
+
+    private fun report() {
+        if (reported || !started) {
+            return
+        }
+        reported = true
+        val duration = readNs / 1_000_000
+        NetworkQualityEstimator.addThroughputSample(bytes, duration)
+        metric { it.onDownload(bytes, duration) }
+    }
+}
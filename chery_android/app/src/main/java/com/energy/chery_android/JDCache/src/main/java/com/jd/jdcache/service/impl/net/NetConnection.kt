@@ -3,12 +3,19 @@ package com.jd.jdcache.service.impl.net
 import androidx.annotation.Keep
 import com.jd.jdcache.service.base.NetState
 import com.jd.jdcache.service.base.JDCacheNetDelegate
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.JDCacheLog.d
 import com.jd.jdcache.util.JDCacheLog.e
 import com.jd.jdcache.util.log
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.toList
+import java.io.BufferedReader
 import java.io.File
 import java.io.InputStream
+import java.io.InputStreamReader
 import java.lang.Exception
 import java.net.HttpURLConnection
 
@@ -18,7 +25,8 @@ open class NetConnection : JDCacheNetDelegate() {
     override val name: String = "NetConnection"
 
     /**
-     * 请求接口，返回String类型
+     * 请求接口，返回String类型。
+     * 可共享的GET请求通过[connectFlow]进行，与进行中的相同请求共享传输。
      */
     override fun requestFlow(
         url: String,
@@ -34,19 +42,25 @@ open class NetConnection : JDCacheNetDelegate() {
             log { e(name, "Cannot start network request, because url is empty.") }
             return null
         }
-        val request = HttpRequest(url)
-        request.method = method
-        request.header = header
-        request.userAgent = userAgent
-        request.cookies = cookie
-        request.body = body
-        request.allowRedirect = followRedirect
-
-        return request.connectFlow()
+        if (InflightRegistry.isSharable(method, body)) {
+            return connectFlow(url, method, header, userAgent, cookie, body, followRedirect)
+                ?.map { it.readAsString() }
+        }
+        return withRetry(method, hedgeable = true) {
+            val request = HttpRequest(url)
+            request.method = method
+            request.header = header
+            request.userAgent = userAgent
+            request.cookies = cookie
+            request.body = body
+            request.allowRedirect = followRedirect
+            request.connectFlow()
+        }
     }
 
     /**
-     * 请求接口，连接上则马上返回，返回InputStream
+     * 请求接口，连接上则马上返回，返回InputStream。
+     * 相同的GET请求正在进行中时，不再建立新连接，而是共享进行中的传输。
      */
     override fun connectFlow(
         url: String,
@@ -62,6 +76,85 @@ open class NetConnection : JDCacheNetDelegate() {
             log { e(name, "Cannot start network connection, because url is empty.") }
             return null
         }
+        if (!InflightRegistry.isSharable(method, body)) {
+            return withRetry(method, hedgeable = true) {
+                createStreamRequest(url, method, header, userAgent, cookie, body, followRedirect)
+                    .connectFlow()
+            }
+        }
+        val key = InflightRegistry.keyOf(url, header, cookie)
+        return flow {
+            val (pending, isOwner) = InflightRegistry.acquire(key)
+            if (!isOwner) {
+                val transfer = pending.await()
+                val stream = transfer?.newReader()
+                if (transfer != null && stream != null) {
+                    InflightRegistry.onJoin()
+                    log { d(name, "Attach to in-flight request of $url") }
+                    emit(NetState.OnStart(url))
+                    emit(NetState.Complete(transfer.code, transfer.headers, transfer.length,
+                        stream, transfer.url))
+                } else {
+                    withRetry(method, hedgeable = true) {
+                        createStreamRequest(url, method, header, userAgent, cookie, body,
+                            followRedirect).connectFlow()
+                    }?.let { emitAll(it) }
+                }
+                return@flow
+            }
+            try {
+                withRetry(method, hedgeable = true) {
+                    createStreamRequest(url, method, header, userAgent, cookie, body, followRedirect)
+                        .connectFlow()
+                }?.collect { netState ->
+                    val data = (netState as? NetState.Complete)?.data
+                    if (netState is NetState.Complete && data != null) {
+                        val transfer = SharedTransfer(netState.code, netState.headers,
+                            netState.length, netState.url, data) {
+                            InflightRegistry.remove(key, pending)
+                        }
+                        pending.complete(transfer)
+                        emit(netState.copy(data = transfer.newReader()))
+                    } else {
+                        emit(netState)
+                    }
+                }
+            } finally {
+                if (pending.complete(null)) {
+                    InflightRegistry.remove(key, pending)
+                }
+            }
+        }
+    }
+
+    private suspend fun NetState<InputStream?>.readAsString(): NetState<String> {
+        return when (this) {
+            is NetState.OnStart -> NetState.OnStart(url)
+            is NetState.OnProgress -> NetState.OnProgress(progress, max)
+            is NetState.Redirect -> NetState.Redirect(code, headers, location)
+            is NetState.Error -> NetState.Error(code, throwable)
+            is NetState.Complete -> runOnIo {
+                try {
+                    val text = data?.let { stream ->
+                        BufferedReader(InputStreamReader(stream)).use { HttpRequest.readBody(it) }
+                    } ?: ""
+                    NetState.Complete(code, headers, length, text, url)
+                } catch (e: Exception) {
+                    NetState.Error(-1, e)
+                }
+            }
+        }
+    }
+
+    protected open fun createStreamRequest(
+        url: String,
+        method: String,
+        header: MutableMap<String?, String>?,
+        userAgent: String?,
+        cookie: String?,
+        body: MutableMap<String, String>?,
+        followRedirect: Boolean
+    ): BaseRequest<InputStream?> {
         val request = object : BaseRequest<InputStream?>(url){
             override val TAG: String
                 get() = "InputStreamRequest"
@@ -85,7 +178,8 @@ open class NetConnection : JDCacheNetDelegate() {
                         responseCode,
                         responseHeaders,
                         contentLength,
-                        callbackStream)
+                        callbackStream,
+                        responseUrl)
                 } else {
                     NetState.Error(responseCode, Exception("Net Error code = $responseCode"))
                 }
@@ -97,10 +191,13 @@ open class NetConnection : JDCacheNetDelegate() {
         request.cookies = cookie
         request.body = body
         request.allowRedirect = followRedirect
-
-        return request.connectFlow()
+        return request
     }
 
+    /**
+     * 下载文件。不参与single-flight共享：下载写入目标文件并由文件锁串行化，
+     * 且续传请求的Range各不相同，共享传输收益很小。
+     */
     override fun downloadFlow(
         url: String,
         savePath: String,
@@ -108,7 +205,8 @@ open class NetConnection : JDCacheNetDelegate() {
         header: MutableMap<String?, String>?,
         userAgent: String?,
         cookie: String?,
-        followRedirect: Boolean
+        followRedirect: Boolean,
+        keepEncoded: Boolean
     ): Flow<NetState<File>>? {
         if (url.isEmpty()) {
             log { e(name, "Cannot download file, because url is empty.") }
@@ -118,13 +216,18 @@ open class NetConnection : JDCacheNetDelegate() {
             log { e(name, "Cannot download file[$url], because savePath is empty.") }
             return null
         }
-        val request = FileRequest(url, savePath)
-        request.method = method
-        request.header = header
-        request.userAgent = userAgent
-        request.cookies = cookie
-        request.allowRedirect = followRedirect
-        return request.connectFlow()
+        //下载不对冲，避免两个请求写同一个文件
+        return withRetry(method, hedgeable = false) {
+            val request = FileRequest(url, savePath)
+            request.method = method
+            //续传时每次尝试都按临时文件的当前长度重新计算Range
+            request.header = FileRequest.resumeHeader(savePath, header)
+            request.userAgent = userAgent
+            request.cookies = cookie
+            request.allowRedirect = followRedirect
+            request.decodeContent = !keepEncoded
+            request.connectFlow()
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+package com.jd.jdcache.service.impl.net
+
+import android.os.SystemClock
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.util.CoroutineHelper.launchCoroutine
+import com.jd.jdcache.util.CoroutineHelper.runOnIo
+import com.jd.jdcache.util.JDCacheLog.d
+import com.jd.jdcache.util.JDCacheLog.e
+import com.jd.jdcache.util.JDCachePriority
+import com.jd.jdcache.util.JDCacheScheduler
+import com.jd.jdcache.util.NetworkQualityEstimator
+import com.jd.jdcache.util.getString
+import com.jd.jdcache.util.log
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.json.JSONObject
+import java.io.File
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import javax.net.ssl.HttpsURLConnection
+
+/**
+ * 预连接：提前解析域名，并向页面所在origin发一个HEAD请求，
+ * 读完响应后不断开，连接（含TLS会话）留在HttpURLConnection的连接池中供随后的请求复用。
+ * 访问过的origin会记录下来，下次启动时预热。
+ */
+internal object Preconnector {
+
+    private const val TAG = "Preconnector"
+
+    /** 同一origin在此时间内不重复预连接，小于连接池的空闲保活时间 */
+    private const val CONNECT_INTERVAL = 60 * 1000L
+
+    private const val MAX_SAVED_ORIGINS = 20
+    private const val WARM_UP_DNS_COUNT = 8
+    private const val WARM_UP_CONNECT_COUNT = 2
+
+    private const val SAVE_DELAY = 5 * 1000L
+
+    private val lastConnectTime = ConcurrentHashMap<String, Long>()
+
+    /** origin -> 访问次数 */
+    private val originCounts = ConcurrentHashMap<String, AtomicInteger>()
+
+    private val fileMutex = Mutex()
+
+    private var saveJob: Job? = null
+
+    private val originsFile: File?
+        get() = JDCacheSetting.getParamsProvider()?.cacheDir?.let {
+            File(it + File.separator + "net", "origins.json")
+        }
+
+    /**
+     * @param connect 为false时只解析域名，例如随后马上就会有请求发往该origin
+     */
+    fun preconnect(url: String, connect: Boolean = true): Job? {
+        val origin = originOf(url) ?: return null
+        countOf(origin).incrementAndGet()
+        scheduleSave()
+        return launchCoroutine(context = JDCachePriority.CRITICAL_PREFETCH) {
+            try {
+                warm(origin, connect)
+            } catch (e: Exception) {
+                log { e(TAG, e) }
+            }
+        }
+    }
+
+    /**
+     * 预热上次启动时访问较多的origin
+     */
+    suspend fun warmUpPreviousOrigins() {
+        val saved = loadOrigins()
+        saved.forEach { (origin, count) ->
+            countOf(origin).addAndGet(count)
+        }
+        val top = saved.entries.sortedByDescending { it.value }.take(WARM_UP_DNS_COUNT)
+        log { d(TAG, "Warm up ${top.size} origin(s) of previous session.") }
+        top.forEachIndexed { index, entry ->
+            launchCoroutine(context = JDCachePriority.HOUSEKEEPING) {
+                try {
+                    warm(entry.key, index < WARM_UP_CONNECT_COUNT)
+                } catch (e: Exception) {
+                    log { e(TAG, e) }
+                }
+            }
+        }
+    }
+
+    /** ConcurrentHashMap.merge需要API 24，计数用AtomicInteger */
+    private fun countOf(origin: String): AtomicInteger =
+        originCounts[origin] ?: AtomicInteger().let { originCounts.putIfAbsent(origin, it) ?: it }
+
+    private suspend fun warm(origin: String, connect: Boolean) {
+        val url = try {
+            URL("$origin/")
+        } catch (e: Exception) {
+            return
+        }
+        DnsCache.resolve(url.host) ?: return
+        if (!connect) {
+            return
+        }
+        val now = SystemClock.elapsedRealtime()
+        val last = lastConnectTime[origin]
+        if (last != null && now - last < CONNECT_INTERVAL) {
+            return
+        }
+        lastConnectTime[origin] = now
+        runOnIo {
+            JDCacheScheduler.schedule(JDCachePriority.CRITICAL_PREFETCH, url.host) {
+                openConnection(url)
+            }
+        }
+    }
+
+    @Suppress("BlockingMethodInNonBlockingContext")
+    private fun openConnection(url: URL) {
+        var connection: HttpURLConnection? = null
+        try {
+            val provider = JDCacheSetting.getParamsProvider()
+            val conn = url.openConnection() as HttpURLConnection
+            connection = conn
+            conn.connectTimeout = provider?.connectTimeout(url.toString())
+                ?: NetworkQualityEstimator.DEFAULT_TIMEOUT
+            conn.readTimeout = provider?.readTimeout(url.toString())
+                ?: NetworkQualityEstimator.DEFAULT_TIMEOUT
+            conn.instanceFollowRedirects = false
+            if (conn is HttpsURLConnection) {
+                //与BaseRequest使用相同实例，连接池才能复用此连接
+                conn.sslSocketFactory = SSLUtils.defaultSSLSocketFactory()
+                conn.hostnameVerifier = SSLUtils.defaultHostnameVerifier(url)
+            }
+            conn.requestMethod = "HEAD"
+            conn.setRequestProperty(BaseRequest.HEAD_KEY_CONNECTION,
+                BaseRequest.HEAD_VALUE_CONNECTION_KEEP_ALIVE)
+            provider?.getUserAgent(url.toString())?.let {
+                conn.setRequestProperty(BaseRequest.HEAD_KEY_USER_AGENT, it)
+            }
+            val startTime = SystemClock.elapsedRealtime()
+            val code = conn.responseCode
+            NetworkQualityEstimator.addRttSample(SystemClock.elapsedRealtime() - startTime)
+            //读完并关闭流而不是disconnect，连接才会回到连接池
+            (if (code >= HttpURLConnection.HTTP_BAD_REQUEST) conn.errorStream
+            else conn.inputStream)?.close()
+            log { d(TAG, "Pre-connected to ${url.host}, code = $code") }
+        } catch (e: IOException) {
+            log { d(TAG, "Fail to pre-connect to ${url.host}, $e") }
+            connection?.disconnect()
+        }
+    }
+
+    private fun originOf(url: String): String? {
+        return try {
+            val u = URL(url)
+            if (u.protocol != "http" && u.protocol != "https") {
+                return null
+            }
+            if (u.port == -1 || u.port == u.defaultPort) {
+                "${u.protocol}://${u.host}"
+            } else {
+                "${u.protocol}://${u.host}:${u.port}"
+            }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private suspend fun loadOrigins(): Map<String, Int> {
+        val file = originsFile ?: return emptyMap()
+        val content = fileMutex.withLock { file.getString() } ?: return emptyMap()
+        return try {
+            val json = JSONObject(content)
+            val map = HashMap<String, Int>()
+            json.keys().forEach { map[it] = json.optInt(it) }
+            map
+        } catch (e: Exception) {
+            log { e(TAG, e) }
+            emptyMap()
+        }
+    }
+
+    /**
+     * 合并一段时间内的访问记录后再保存，避免每次预连接都写文件
+     */
+    private fun scheduleSave() {
+        synchronized(this) {
+            if (saveJob?.isActive == true) {
+                return
+            }
+            saveJob = launchCoroutine(context = JDCachePriority.HOUSEKEEPING) {
+                delay(SAVE_DELAY)
+                try {
+                    saveOrigins()
+                } catch (e: Exception) {
+                    log { e(TAG, e) }
+                }
+            }
+        }
+    }
+
+    private suspend fun saveOrigins() {
+        val file = originsFile ?: return
+        val json = JSONObject()
+        originCounts.entries.map { it.key to it.value.get() }
+            .sortedByDescending { it.second }
+            .take(MAX_SAVED_ORIGINS)
+            .forEach { json.put(it.first, it.second) }
+        fileMutex.withLock {
+            runOnIo {
+                try {
+                    file.parentFile?.mkdirs()
+                    file.writeText(json.toString())
+                } catch (e: Exception) {
+                    log { e(TAG, e) }
+                }
+            }
+        }
+    }
+}
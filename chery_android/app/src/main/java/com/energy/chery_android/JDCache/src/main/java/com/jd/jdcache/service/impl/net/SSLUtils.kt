@@ -8,15 +8,25 @@ import java.net.Socket
 import java.net.URL
 import java.security.GeneralSecurityException
 import java.security.SecureRandom
+import java.util.concurrent.ConcurrentHashMap
 import javax.net.ssl.*
 
 object SSLUtils {
+
+    /**
+     * 连接池按SSLSocketFactory和HostnameVerifier实例区分连接，
+     * 共用同一实例才能复用已建立的连接和TLS会话
+     */
+    private val sslSocketFactory: SSLSocketFactory by lazy { TLSSocketFactory() }
+
+    private val hostVerifiers = ConcurrentHashMap<String, HostnameVerifier>()
+
     fun defaultSSLSocketFactory(): SSLSocketFactory {
-        return TLSSocketFactory()
+        return sslSocketFactory
     }
 
     fun defaultHostnameVerifier(url: URL): HostnameVerifier {
-        return HostVerifier(url)
+        return hostVerifiers.getOrPut(url.host) { HostVerifier(url) }
     }
 }
 
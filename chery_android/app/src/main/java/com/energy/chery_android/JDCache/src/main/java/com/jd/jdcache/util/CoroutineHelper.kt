@@ -4,6 +4,8 @@ import androidx.annotation.Keep
 import com.jd.jdcache.JDCacheConstant
 import kotlinx.coroutines.*
 import kotlin.coroutines.Continuation
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
 
 @Keep
 object CoroutineHelper {
@@ -20,13 +22,15 @@ object CoroutineHelper {
     /**
      * 启动协程。
      * 若没有指定scope则使用全局scope。
+     * context可传入[JDCachePriority]等上下文元素。
      */
     fun Any?.launchCoroutine(
         scope: CoroutineScope? = JDCacheConstant.applicationScope,
+        context: CoroutineContext = EmptyCoroutineContext,
         block: suspend () -> Unit
     ): Job {
         val useScope = scope ?: JDCacheConstant.applicationScope
-        return useScope.launch { block() }
+        return useScope.launch(context) { block() }
     }
 
     /**
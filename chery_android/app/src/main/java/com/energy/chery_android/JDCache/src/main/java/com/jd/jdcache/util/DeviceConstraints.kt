@@ -0,0 +1,105 @@
+package com.jd.jdcache.util
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.net.ConnectivityManager
+import android.os.BatteryManager
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.util.JDCacheLog.e
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 设备条件检查：网络是否可用/是否计流量、是否在充电。
+ * 条件可能发生变化时（网络切换、接上电源）通知监听者。
+ */
+internal object DeviceConstraints {
+
+    private const val TAG = "DeviceConstraints"
+
+    private val listeners = CopyOnWriteArraySet<() -> Unit>()
+
+    private val receiverRegistered = AtomicBoolean(false)
+
+    private val receiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context?, intent: Intent?) {
+            listeners.forEach { it() }
+        }
+    }
+
+    fun isNetworkConnected(context: Context? = JDCacheSetting.appContext): Boolean {
+        val cm = context?.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+            ?: return false
+        @Suppress("DEPRECATION")
+        return cm.activeNetworkInfo?.isConnected == true
+    }
+
+    /**
+     * 当前网络的类型标识，用于判断网络是否切换，无网络时为null
+     */
+    fun currentNetworkType(context: Context? = JDCacheSetting.appContext): String? {
+        val cm = context?.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+            ?: return null
+        @Suppress("DEPRECATION")
+        return cm.activeNetworkInfo?.takeIf { it.isConnected }?.let { "${it.type}-${it.subtype}" }
+    }
+
+    fun isUnmetered(context: Context? = JDCacheSetting.appContext): Boolean {
+        val cm = context?.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
+            ?: return false
+        return isNetworkConnected(context) && !cm.isActiveNetworkMetered
+    }
+
+    fun isCharging(context: Context? = JDCacheSetting.appContext): Boolean {
+        val intent = try {
+            context?.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+        } catch (e: Exception) {
+            log { e(TAG, e) }
+            null
+        } ?: return false
+        val status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1)
+        return status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL
+    }
+
+    fun isSatisfied(requireUnmetered: Boolean, requireCharging: Boolean): Boolean {
+        val context = JDCacheSetting.appContext ?: return false
+        if (!isNetworkConnected(context)) {
+            return false
+        }
+        if (requireUnmetered && !isUnmetered(context)) {
+            return false
+        }
+        if (requireCharging && !isCharging(context)) {
+            return false
+        }
+        return true
+    }
+
+    /**
+     * 监听条件变化，首次添加监听时注册广播
+     */
+    fun addListener(listener: () -> Unit) {
+        listeners.add(listener)
+        val context = JDCacheSetting.appContext ?: return
+        if (receiverRegistered.compareAndSet(false, true)) {
+            val filter = IntentFilter()
+            @Suppress("DEPRECATION")
+            filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION)
+            filter.addAction(Intent.ACTION_POWER_CONNECTED)
+            filter.addAction(Intent.ACTION_POWER_DISCONNECTED)
+            try {
+                context.registerReceiver(receiver, filter)
+            } catch (e: Exception) {
+                receiverRegistered.set(false)
+                log { e(TAG, e) }
+            }
+        }
+    }
+
+    fun removeListener(listener: () -> Unit) {
+        listeners.remove(listener)
+    }
+}
@@ -3,8 +3,14 @@ package com.jd.jdcache.util
 import com.jd.jdcache.util.CoroutineHelper.runOnIo
 import com.jd.jdcache.util.UrlHelper.getFileNameFromUrl
 import com.jd.jdcache.util.JDCacheLog.e
+import java.io.BufferedInputStream
 import java.io.File
+import java.io.FileInputStream
 import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.zip.ZipInputStream
 import kotlin.random.Random
 
 
@@ -37,4 +43,49 @@ internal fun String?.generateFileName(): String {
             "${it}_${randomStr}"
         }
     }
-}
\ No newline at end of file
+}
+/**
+ * 计算字符串的SHA-1，十六进制小写
+ */
+internal fun String.sha1Hex(): String {
+    return toByteArray().digestHex("SHA-1")
+}
+
+internal fun ByteArray.digestHex(algorithm: String): String {
+    val digest = MessageDigest.getInstance(algorithm).digest(this)
+    val builder = StringBuilder(digest.size * 2)
+    for (b in digest) {
+        val value = b.toInt() and 0xff
+        if (value < 0x10) {
+            builder.append('0')
+        }
+        builder.append(Integer.toHexString(value))
+    }
+    return builder.toString()
+}
+
+/**
+ * 解压zip到目录，拒绝解压到目录之外的条目（zip slip）
+ */
+@Throws(IOException::class)
+internal fun File.unzipTo(destDir: File) {
+    val destPath = destDir.canonicalPath + File.separator
+    destDir.mkdirs()
+    ZipInputStream(BufferedInputStream(FileInputStream(this))).use { zis ->
+        var entry = zis.nextEntry
+        while (entry != null) {
+            val target = File(destDir, entry.name)
+            if (!target.canonicalPath.startsWith(destPath)) {
+                throw IOException("Illegal zip entry: ${entry.name}")
+            }
+            if (entry.isDirectory) {
+                target.mkdirs()
+            } else {
+                target.parentFile?.mkdirs()
+                FileOutputStream(target).use { zis.copyTo(it) }
+            }
+            zis.closeEntry()
+            entry = zis.nextEntry
+        }
+    }
+}
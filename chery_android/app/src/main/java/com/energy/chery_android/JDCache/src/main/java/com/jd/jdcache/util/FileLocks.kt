@@ -0,0 +1,33 @@
+package com.jd.jdcache.util
+
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * 按文件路径加锁，防止多个写者同时写同一个文件。
+ * 锁在没有持有者时会被移除，不会无限增长。
+ */
+internal object FileLocks {
+
+    private class LockRef(val mutex: Mutex = Mutex()) {
+        var holders = 0
+    }
+
+    private val lockMap = HashMap<String, LockRef>()
+
+    suspend fun <T> withLock(path: String, block: suspend () -> T): T {
+        val ref = synchronized(lockMap) {
+            lockMap.getOrPut(path) { LockRef() }.also { it.holders++ }
+        }
+        try {
+            return ref.mutex.withLock { block() }
+        } finally {
+            synchronized(lockMap) {
+                ref.holders--
+                if (ref.holders <= 0) {
+                    lockMap.remove(path)
+                }
+            }
+        }
+    }
+}
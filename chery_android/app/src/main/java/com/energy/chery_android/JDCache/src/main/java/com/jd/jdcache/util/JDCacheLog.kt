@@ -17,9 +17,29 @@ object JDCacheLog : JDCacheLogger {
 
     var myLogger: JDCacheLogger? = null
 
-    var canLog: Boolean = false
-        private set
-        get() = JDCacheSetting.debug || JDCacheSetting.getParamsProvider()?.showLog() == true
+    /** -1：未计算，0：关闭，1：开启 */
+    @Volatile
+    private var canLogState = -1
+
+    /**
+     * 日志开关，首次读取时计算后缓存，调用[refreshCanLog]重新计算
+     */
+    val canLog: Boolean
+        get() {
+            var state = canLogState
+            if (state < 0) {
+                state = if (JDCacheSetting.debug || JDCacheSetting.getParamsProvider()?.showLog() == true) 1 else 0
+                canLogState = state
+            }
+            return state == 1
+        }
+
+    /**
+     * debug或[com.jd.jdcache.JDCacheParamsProvider.showLog]变化后调用
+     */
+    fun refreshCanLog() {
+        canLogState = -1
+    }
 
     /**
      * JDCacheLog.d
@@ -0,0 +1,214 @@
+package com.jd.jdcache.util
+
+import android.os.SystemClock
+import android.os.Trace
+import android.webkit.WebResourceRequest
+import android.webkit.WebResourceResponse
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheMetrics
+import org.json.JSONObject
+import java.io.FilterInputStream
+import java.io.InputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+@Keep
+inline fun metric(block: (metric: JDCacheMetric) -> Unit) {
+    if (JDCacheMetric.enabled) {
+        block(JDCacheMetric)
+    }
+}
+
+/**
+ * 开启指标时用[section]作为名称记录一段systrace，必须在同一线程内开始和结束，不能跨越挂起点
+ */
+@Keep
+inline fun <T> trace(section: String, block: () -> T): T {
+    if (!JDCacheMetric.enabled) {
+        return block()
+    }
+    Trace.beginSection(section)
+    try {
+        return block()
+    } finally {
+        Trace.endSection()
+    }
+}
+
+/**
+ * 内置的指标统计，计数均为原子操作。
+ * 默认关闭，关闭时[metric]和[trace]只读取一次[enabled]。
+ * 同时把回调转发给[myMetrics]，可接入自己的监控。
+ */
+@Keep
+object JDCacheMetric : JDCacheMetrics {
+
+    @Volatile
+    var enabled: Boolean = false
+
+    @Volatile
+    var myMetrics: JDCacheMetrics? = null
+
+    private class MatcherCounter {
+        val hits = AtomicLong(0)
+        val bytes = AtomicLong(0)
+    }
+
+    private val requests = AtomicLong(0)
+    private val misses = AtomicLong(0)
+    private val matchers = ConcurrentHashMap<String, MatcherCounter>()
+    /** 匹配耗时，微秒 */
+    val interceptLatency = LatencyHistogram("us")
+
+    private val preloadReceived = AtomicLong(0)
+    private val preloadTimeout = AtomicLong(0)
+    /** 等待预下载html的时间，毫秒 */
+    val preloadWait = LatencyHistogram("ms")
+
+    private val downloads = AtomicLong(0)
+    private val downloadBytes = AtomicLong(0)
+    private val downloadMs = AtomicLong(0)
+
+    private val cacheSizes = ConcurrentHashMap<String, Long>()
+
+    /** [now]在统计关闭时的返回值 */
+    const val NOT_STARTED = 0L
+
+    /**
+     * 开始计时，关闭时返回[NOT_STARTED]
+     */
+    fun now(): Long = if (enabled) SystemClock.elapsedRealtimeNanos() else NOT_STARTED
+
+    /**
+     * 记录拦截结果，并在命中时统计本地响应实际读取的字节数。
+     * 开始计时时统计尚未开启（[startNanos]为[NOT_STARTED]）则不记录，否则耗时会是整个开机时长
+     */
+    internal fun onIntercepted(request: WebResourceRequest, matcher: String?,
+                               startNanos: Long, resp: WebResourceResponse?) {
+        if (startNanos == NOT_STARTED) {
+            return
+        }
+        onIntercept(request.url.toString(), matcher, SystemClock.elapsedRealtimeNanos() - startNanos)
+        if (resp == null || matcher == null) {
+            return
+        }
+        val data = resp.data ?: return
+        resp.data = ServedInputStream(data, matcher)
+    }
+
+    override fun onIntercept(url: String, matcher: String?, latencyNanos: Long) {
+        requests.incrementAndGet()
+        if (matcher == null) {
+            misses.incrementAndGet()
+        } else {
+            counterOf(matcher).hits.incrementAndGet()
+        }
+        interceptLatency.record(latencyNanos / 1000)
+        myMetrics?.onIntercept(url, matcher, latencyNanos)
+    }
+
+    override fun onBytesServed(matcher: String, bytes: Long) {
+        counterOf(matcher).bytes.addAndGet(bytes)
+        myMetrics?.onBytesServed(matcher, bytes)
+    }
+
+    override fun onPreloadWait(waitMs: Long, received: Boolean) {
+        (if (received) preloadReceived else preloadTimeout).incrementAndGet()
+        preloadWait.record(waitMs)
+        myMetrics?.onPreloadWait(waitMs, received)
+    }
+
+    override fun onDownload(bytes: Long, durationMs: Long) {
+        downloads.incrementAndGet()
+        downloadBytes.addAndGet(bytes)
+        downloadMs.addAndGet(durationMs)
+        myMetrics?.onDownload(bytes, durationMs)
+    }
+
+    override fun onCacheSize(name: String, bytes: Long) {
+        cacheSizes[name] = bytes
+        myMetrics?.onCacheSize(name, bytes)
+    }
+
+    private fun counterOf(matcher: String): MatcherCounter {
+        return matchers[matcher] ?: MatcherCounter().let { matchers.putIfAbsent(matcher, it) ?: it }
+    }
+
+    /**
+     * 当前统计的快照
+     */
+    fun snapshot(): JSONObject {
+        val matcherJson = JSONObject()
+        matchers.forEach { (name, counter) ->
+            matcherJson.put(name, JSONObject()
+                .put("hits", counter.hits.get())
+                .put("bytes", counter.bytes.get()))
+        }
+        val totalMs = downloadMs.get()
+        val totalBytes = downloadBytes.get()
+        return JSONObject()
+            .put("intercept", JSONObject()
+                .put("requests", requests.get())
+                .put("misses", misses.get())
+                .put("latency", interceptLatency.toJson()))
+            .put("matchers", matcherJson)
+            .put("preload", JSONObject()
+                .put("received", preloadReceived.get())
+                .put("timeout", preloadTimeout.get())
+                .put("wait", preloadWait.toJson()))
+            .put("download", JSONObject()
+                .put("count", downloads.get())
+                .put("bytes", totalBytes)
+                .put("durationMs", totalMs)
+                .put("kbps", if (totalMs > 0) totalBytes * 8 / totalMs else 0))
+            .put("cacheSize", JSONObject(cacheSizes.toMap()))
+    }
+
+    fun reset() {
+        requests.set(0)
+        misses.set(0)
+        matchers.clear()
+        interceptLatency.reset()
+        preloadReceived.set(0)
+        preloadTimeout.set(0)
+        preloadWait.reset()
+        downloads.set(0)
+        downloadBytes.set(0)
+        downloadMs.set(0)
+        cacheSizes.clear()
+    }
+
+    /**
+     * 统计WebView从本地响应读取的字节数，读完或关闭时提交一次
+     */
+    private class ServedInputStream(stream: InputStream, private val matcher: String) :
+        FilterInputStream(stream) {
+
+        private var bytes = 0L
+        private val reported = AtomicBoolean(false)
+
+        override fun read(): Int {
+            val b = super.read()
+            if (b == -1) report() else bytes++
+            return b
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val n = super.read(b, off, len)
+            if (n == -1) report() else bytes += n
+            return n
+        }
+
+        override fun close() {
+            report()
+            super.close()
+        }
+
+        private fun report() {
+            if (reported.compareAndSet(false, true)) {
+                onBytesServed(matcher, bytes)
+            }
+        }
+    }
+}
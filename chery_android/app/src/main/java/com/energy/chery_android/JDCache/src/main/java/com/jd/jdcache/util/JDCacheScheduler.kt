@@ -0,0 +1,213 @@
+package com.jd.jdcache.util
+
+import androidx.annotation.Keep
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.util.JDCacheLog.d
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.util.*
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.resume
+
+/**
+ * JDCache任务优先级，值越靠前优先级越高。
+ * 作为协程上下文元素传递，例如 launchCoroutine(scope, JDCachePriority.MAIN_FRAME_PRELOAD) { ... }，
+ * 网络层根据当前协程的优先级排队。
+ */
+@Keep
+enum class JDCachePriority : CoroutineContext.Element {
+    /** 主文档预下载，用户正在等待 */
+    MAIN_FRAME_PRELOAD,
+    /** 关键子资源预取 */
+    CRITICAL_PREFETCH,
+    /** 离线包下载、安装 */
+    PACKAGE_INSTALL,
+    /** 清理、统计上报等后台杂务 */
+    HOUSEKEEPING;
+
+    override val key: CoroutineContext.Key<*>
+        get() = Key
+
+    companion object Key : CoroutineContext.Key<JDCachePriority>
+}
+
+/**
+ * JDCache的有界任务调度器。
+ * 全局最多同时执行[maxParallelism]个任务，同一host最多[maxPerHost]个。
+ * 低优先级任务只能使用部分并发额度，为高优先级任务预留位置；
+ * 排队时高优先级先获得执行机会。排队中的协程被取消（例如所属[com.jd.jdcache.JDCacheLoader]销毁）时立即出队。
+ */
+@Keep
+object JDCacheScheduler {
+
+    private const val TAG = "JDCacheScheduler"
+
+    @Volatile
+    var maxParallelism: Int = 6
+
+    @Volatile
+    var maxPerHost: Int = 4
+
+    private val lock = Any()
+
+    private var running = 0
+
+    private val runningPerPriority = IntArray(JDCachePriority.values().size)
+
+    private val runningPerHost = HashMap<String, Int>()
+
+    private var sequence = 0L
+
+    private val waiters = PriorityQueue<Waiter>(11,
+        compareBy<Waiter>({ it.priority.ordinal }, { it.sequence }))
+
+    private class Waiter(
+        val priority: JDCachePriority,
+        val host: String?,
+        val sequence: Long
+    ) {
+        var granted = false
+        var continuation: CancellableContinuation<Unit>? = null
+    }
+
+    /**
+     * 获得执行额度后执行[block]，执行完毕后释放额度。
+     */
+    suspend fun <T> schedule(
+        priority: JDCachePriority,
+        host: String?,
+        block: suspend () -> T
+    ): T {
+        acquire(priority, host)
+        try {
+            return block()
+        } finally {
+            release(priority, host)
+        }
+    }
+
+    /**
+     * 当前排队中的任务数
+     */
+    fun queueSize(): Int {
+        synchronized(lock) {
+            return waiters.size
+        }
+    }
+
+    /**
+     * 当前执行中的任务数
+     */
+    fun runningCount(): Int {
+        synchronized(lock) {
+            return running
+        }
+    }
+
+    private suspend fun acquire(priority: JDCachePriority, host: String?) {
+        val prefetchLimit = prefetchLimit()
+        val waiter = synchronized(lock) {
+            if (canRun(priority, host, prefetchLimit)
+                && waiters.none { it.priority <= priority && canRun(it.priority, it.host, prefetchLimit) }) {
+                occupy(priority, host)
+                return
+            }
+            Waiter(priority, host, sequence++).also { waiters.add(it) }
+        }
+        log { d(TAG, "Task[$priority]($host) is queued, running = $running, queue = ${waiters.size}") }
+        try {
+            suspendCancellableCoroutine<Unit> { cont ->
+                val granted = synchronized(lock) {
+                    if (!waiter.granted) {
+                        waiter.continuation = cont
+                    }
+                    waiter.granted
+                }
+                if (granted) {
+                    cont.resume(Unit)
+                }
+            }
+        } catch (e: CancellationException) {
+            val granted = synchronized(lock) {
+                if (!waiter.granted) {
+                    waiters.remove(waiter)
+                }
+                waiter.granted
+            }
+            if (granted) {
+                release(priority, host)
+            }
+            throw e
+        }
+    }
+
+    private fun release(priority: JDCachePriority, host: String?) {
+        val toResume = LinkedList<CancellableContinuation<Unit>>()
+        val prefetchLimit = prefetchLimit()
+        synchronized(lock) {
+            running--
+            runningPerPriority[priority.ordinal]--
+            host?.let {
+                val count = (runningPerHost[it] ?: 1) - 1
+                if (count <= 0) {
+                    runningPerHost.remove(it)
+                } else {
+                    runningPerHost[it] = count
+                }
+            }
+            //PriorityQueue的迭代器不保证顺序，先排序
+            val ordered = waiters.sortedWith(compareBy({ it.priority.ordinal }, { it.sequence }))
+            for (waiter in ordered) {
+                if (canRun(waiter.priority, waiter.host, prefetchLimit)) {
+                    waiters.remove(waiter)
+                    occupy(waiter.priority, waiter.host)
+                    waiter.granted = true
+                    waiter.continuation?.let { toResume.add(it) }
+                }
+            }
+        }
+        toResume.forEach { it.resume(Unit) }
+    }
+
+    private fun occupy(priority: JDCachePriority, host: String?) {
+        running++
+        runningPerPriority[priority.ordinal]++
+        host?.let { runningPerHost[it] = (runningPerHost[it] ?: 0) + 1 }
+    }
+
+    /**
+     * 非主文档任务的并发上限，随网络质量变化
+     */
+    private fun prefetchLimit(): Int {
+        return (JDCacheSetting.getParamsProvider()?.prefetchParallelism()
+            ?: NetworkQualityEstimator.suggestPrefetchParallelism()).coerceAtLeast(1)
+    }
+
+    /**
+     * 低优先级只能使用部分并发额度：
+     * 主文档预下载可用全部额度，关键子资源预留1个，离线包预留2个，杂务预留3个且同时最多执行1个。
+     * 非主文档任务合计不超过[prefetchLimit]。
+     */
+    private fun canRun(priority: JDCachePriority, host: String?, prefetchLimit: Int): Boolean {
+        val max = maxParallelism.coerceAtLeast(1)
+        val limit = when (priority) {
+            JDCachePriority.MAIN_FRAME_PRELOAD -> max
+            JDCachePriority.CRITICAL_PREFETCH -> (max - 1).coerceAtLeast(1)
+            JDCachePriority.PACKAGE_INSTALL -> (max - 2).coerceAtLeast(1)
+            JDCachePriority.HOUSEKEEPING -> (max - 3).coerceAtLeast(1)
+        }
+        if (running >= limit) {
+            return false
+        }
+        if (priority != JDCachePriority.MAIN_FRAME_PRELOAD
+            && running - runningPerPriority[JDCachePriority.MAIN_FRAME_PRELOAD.ordinal] >= prefetchLimit) {
+            return false
+        }
+        if (priority == JDCachePriority.HOUSEKEEPING
+            && runningPerPriority[priority.ordinal] >= 1) {
+            return false
+        }
+        return host == null || (runningPerHost[host] ?: 0) < maxPerHost.coerceAtLeast(1)
+    }
+}
@@ -0,0 +1,81 @@
+package com.jd.jdcache.util
+
+import androidx.annotation.Keep
+import org.json.JSONObject
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 无锁的耗时直方图，桶按2的幂划分：第i个桶记录[2^(i-1), 2^i)，第0个桶记录0。
+ * 分位数取所在桶的上界，精度在2倍以内，足够观察趋势。
+ */
+@Keep
+class LatencyHistogram(val unit: String) {
+
+    companion object {
+        private const val BUCKETS = 32
+    }
+
+    private val buckets = AtomicLongArray(BUCKETS)
+
+    private val count = AtomicLong(0)
+
+    private val sum = AtomicLong(0)
+
+    private val max = AtomicLong(0)
+
+    fun record(value: Long) {
+        val v = if (value < 0) 0 else value
+        val index = (64 - java.lang.Long.numberOfLeadingZeros(v)).coerceAtMost(BUCKETS - 1)
+        buckets.incrementAndGet(index)
+        count.incrementAndGet()
+        sum.addAndGet(v)
+        var current = max.get()
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get()
+        }
+    }
+
+    val total: Long
+        get() = count.get()
+
+    /**
+     * @param quantile 0到1之间
+     */
+    fun percentile(quantile: Double): Long {
+        val total = count.get()
+        if (total == 0L) {
+            return 0
+        }
+        val target = Math.ceil(total * quantile).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in 0 until BUCKETS) {
+            seen += buckets.get(i)
+            if (seen >= target) {
+                return if (i == 0) 0 else (1L shl i) - 1
+            }
+        }
+        return max.get()
+    }
+
+    fun reset() {
+        for (i in 0 until BUCKETS) {
+            buckets.set(i, 0)
+        }
+        count.set(0)
+        sum.set(0)
+        max.set(0)
+    }
+
+    fun toJson(): JSONObject {
+        val total = count.get()
+        return JSONObject()
+            .put("unit", unit)
+            .put("count", total)
+            .put("mean", if (total == 0L) 0 else sum.get() / total)
+            .put("p50", percentile(0.5))
+            .put("p90", percentile(0.9))
+            .put("p99", percentile(0.99))
+            .put("max", max.get())
+    }
+}
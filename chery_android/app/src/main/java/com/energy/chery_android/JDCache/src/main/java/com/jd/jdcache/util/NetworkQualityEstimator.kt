@@ -0,0 +1,171 @@
+package com.jd.jdcache.util
+
+import androidx.annotation.Keep
+import com.jd.jdcache.util.JDCacheLog.d
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 网络质量等级
+ */
+@Keep
+enum class NetworkQuality {
+    /** 样本不足 */
+    UNKNOWN,
+    /** 约等于2G */
+    POOR,
+    /** 约等于3G、弱4G */
+    MODERATE,
+    /** 4G、Wi-Fi */
+    GOOD
+}
+
+/**
+ * 网络质量估算。
+ * 每个请求的首包耗时（HTTP RTT）和响应体下载速度作为样本，以指数加权平均估算当前网络状况，
+ * 网络切换时清空重新估算。超时时间、预下载等待时间、预取并发数的默认值由此推算，
+ * 可在[com.jd.jdcache.JDCacheParamsProvider]中重写。
+ */
+@Keep
+object NetworkQualityEstimator {
+
+    private const val TAG = "NetworkQuality"
+
+    const val DEFAULT_TIMEOUT = 5 * 1000
+    const val DEFAULT_PRELOAD_WAIT_TIME = 2000L
+
+    /** 新样本的权重 */
+    private const val WEIGHT = 0.3
+
+    /** 小于此大小的响应体主要受延迟影响，不作为速度样本 */
+    internal const val MIN_THROUGHPUT_SAMPLE_BYTES = 32 * 1024L
+
+    private const val MIN_RTT_SAMPLES = 2
+
+    private val lock = Any()
+
+    private var rttMs = -1.0
+    private var rttSamples = 0
+    private var throughputKbps = -1.0
+
+    private val networkListenerAdded = AtomicBoolean(false)
+
+    @Volatile
+    private var networkType: String? = null
+
+    private val networkListener: () -> Unit = {
+        val current = DeviceConstraints.currentNetworkType()
+        if (current != networkType) {
+            networkType = current
+            reset()
+        }
+    }
+
+    /**
+     * 估算的HTTP RTT（毫秒），未知时为-1
+     */
+    val httpRttMs: Long
+        get() = synchronized(lock) { if (rttSamples >= MIN_RTT_SAMPLES) rttMs.toLong() else -1 }
+
+    /**
+     * 估算的下载速度（kbps），未知时为-1
+     */
+    val downstreamKbps: Long
+        get() = synchronized(lock) { throughputKbps.toLong() }
+
+    val quality: NetworkQuality
+        get() {
+            val rtt = httpRttMs
+            val kbps = downstreamKbps
+            return when {
+                rtt < 0 && kbps < 0 -> NetworkQuality.UNKNOWN
+                rtt >= 1400 || (kbps in 0..150) -> NetworkQuality.POOR
+                rtt >= 400 || (kbps in 0..1000) -> NetworkQuality.MODERATE
+                else -> NetworkQuality.GOOD
+            }
+        }
+
+    /**
+     * 记录一次从发出请求到收到响应头的耗时
+     */
+    fun addRttSample(rttMs: Long) {
+        if (rttMs < 0) {
+            return
+        }
+        watchNetworkChange()
+        synchronized(lock) {
+            this.rttMs = if (rttSamples == 0) rttMs.toDouble()
+            else this.rttMs * (1 - WEIGHT) + rttMs * WEIGHT
+            rttSamples++
+        }
+    }
+
+    /**
+     * 记录一次响应体的下载速度
+     */
+    fun addThroughputSample(bytes: Long, durationMs: Long) {
+        if (bytes < MIN_THROUGHPUT_SAMPLE_BYTES || durationMs <= 0) {
+            return
+        }
+        watchNetworkChange()
+        val kbps = bytes * 8.0 / durationMs
+        synchronized(lock) {
+            throughputKbps = if (throughputKbps < 0) kbps
+            else throughputKbps * (1 - WEIGHT) + kbps * WEIGHT
+        }
+    }
+
+    /**
+     * 请求超时，以超时时长作为RTT样本，使后续超时时间逐步放宽
+     */
+    fun onTimeout(timeoutMs: Long) {
+        addRttSample(timeoutMs)
+    }
+
+    fun reset() {
+        synchronized(lock) {
+            rttMs = -1.0
+            rttSamples = 0
+            throughputKbps = -1.0
+        }
+        log { d(TAG, "Network changed, reset estimation.") }
+    }
+
+    fun suggestConnectTimeout(): Int {
+        val rtt = httpRttMs
+        return if (rtt < 0) DEFAULT_TIMEOUT
+        else (rtt * 4 + 1000).coerceIn(2000, 15000).toInt()
+    }
+
+    fun suggestReadTimeout(): Int {
+        val rtt = httpRttMs
+        return if (rtt < 0) DEFAULT_TIMEOUT
+        else (rtt * 4 + 2000).coerceIn(3000, 20000).toInt()
+    }
+
+    /**
+     * 网页请求html时，等待预下载响应的最长时间
+     */
+    fun suggestPreloadWaitTime(): Long {
+        val rtt = httpRttMs
+        return if (rtt < 0) DEFAULT_PRELOAD_WAIT_TIME
+        else (rtt * 3 + 500).coerceIn(1000, 6000)
+    }
+
+    /**
+     * 非主文档任务的最大并发数，网络差时减少预取，把带宽留给主文档
+     */
+    fun suggestPrefetchParallelism(): Int {
+        return when (quality) {
+            NetworkQuality.POOR -> 1
+            NetworkQuality.MODERATE -> 3
+            else -> Int.MAX_VALUE
+        }
+    }
+
+    private fun watchNetworkChange() {
+        if (networkListenerAdded.compareAndSet(false, true)) {
+            networkType = DeviceConstraints.currentNetworkType()
+            DeviceConstraints.addListener(networkListener)
+        }
+    }
+}
@@ -49,6 +49,13 @@ object UrlHelper {
         }
     }
 
+    /**
+     * 去掉url的query和fragment，用于持久化或导出，避免保存token等参数
+     */
+    fun String.stripQuery(): String {
+        return substringBefore('#').substringBefore('?')
+    }
+
     fun String?.safeUrlPart(): String? {
         return this?.trimStart()?.dropLastWhile {
             when(it) {
@@ -0,0 +1,91 @@
+package com.energy.chery_android.Plugins
+
+import android.util.Log
+import com.jd.jdbridge.base.IBridgeCallback
+import com.jd.jdbridge.base.IBridgeJsonPlugin
+import com.jd.jdbridge.base.IBridgeWebView
+import com.jd.jdcache.JDCache
+import com.jd.jdcache.JDCacheLoader
+import com.jd.jdcache.JDCacheWebView
+import org.json.JSONObject
+
+/**
+ * 页面链接上报插件
+ * 方法reportLinks：JS在页面加载完成后上报可见的 a 标签href，作为JDCache空闲预取的候选页面
+ * 参数：{"links":["https://...", ...]}
+ * 方法prefetchRoute：单页应用即将切换路由时调用，预读该路由的chunk，参数：{"route":"/order"}
+ * 方法reportResourceSizes：上报资源大小（Resource Timing的transferSize），用于未命中统计，
+ * 参数：{"entries":[{"url":"https://...","size":12345}, ...]}
+ * 参数由JDBridge解析后直接传入，不再重复解析
+ */
+class LinkPrefetchPlugin : IBridgeJsonPlugin {
+
+    companion object {
+        const val NAME = "LinkPrefetchPlugin"
+    }
+    private val TAG = "LinkPrefetchPlugin"
+
+    override fun executeJson(
+        webView: IBridgeWebView?,
+        method: String?,
+        params: Any?,
+        callback: IBridgeCallback?
+    ): Boolean {
+        val json = params as? JSONObject
+        return when (method) {
+            "reportLinks" -> reportLinks(webView, json, callback)
+            "prefetchRoute" -> prefetchRoute(webView, json, callback)
+            "reportResourceSizes" -> reportResourceSizes(json, callback)
+            //未知方法返回false，由JDBridge回复找不到方法
+            else -> false
+        }
+    }
+
+    private fun reportLinks(webView: IBridgeWebView?, json: JSONObject?, callback: IBridgeCallback?): Boolean {
+        val loader = loaderOf(webView, callback) ?: return false
+        if (json == null) {
+            Log.e(TAG, "reportLinks: illegal params")
+            callback?.onError("Illegal params")
+            return false
+        }
+        val array = json.optJSONArray("links")
+        val links = (0 until (array?.length() ?: 0)).mapNotNull { array?.optString(it)?.takeIf { url -> url.isNotEmpty() } }
+        loader.reportLinks(links)
+        callback?.onSuccess(links.size)
+        return true
+    }
+
+    private fun prefetchRoute(webView: IBridgeWebView?, json: JSONObject?, callback: IBridgeCallback?): Boolean {
+        val loader = loaderOf(webView, callback) ?: return false
+        val route = json?.optString("route")
+        if (route.isNullOrEmpty()) {
+            callback?.onError("Illegal params")
+            return false
+        }
+        loader.prefetchRoute(route)
+        callback?.onSuccess(route)
+        return true
+    }
+
+    private fun reportResourceSizes(json: JSONObject?, callback: IBridgeCallback?): Boolean {
+        val array = json?.optJSONArray("entries")
+        if (array == null) {
+            callback?.onError("Illegal params")
+            return false
+        }
+        for (i in 0 until array.length()) {
+            val entry = array.optJSONObject(i) ?: continue
+            JDCache.recordResourceSize(entry.optString("url"), entry.optLong("size"))
+        }
+        callback?.onSuccess(array.length())
+        return true
+    }
+
+    private fun loaderOf(webView: IBridgeWebView?, callback: IBridgeCallback?): JDCacheLoader? {
+        val loader = JDCache.getLoaderByView(webView as? JDCacheWebView)
+        if (loader == null) {
+            callback?.onError("No JDCacheLoader bound to this WebView")
+        }
+        return loader
+    }
+}
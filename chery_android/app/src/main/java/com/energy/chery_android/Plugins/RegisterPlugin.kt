@@ -4,6 +4,7 @@ import android.util.Log
 import com.jd.hybrid.JDWebView
 import com.jd.jdbridge.base.IBridgePlugin
 import com.jd.jdbridge.base.registerDefaultPlugin
+import com.jd.jdbridge.base.registerPlugin
 
 /**
  * 插件注册管理器
@@ -19,6 +20,11 @@ class RegisterPlugin {
     fun registerAllPlugins(webView: JDWebView?) {
         // 注册StatusBarPlugin
         webView?.let { registerPlugin(it, StatusBarPlugin.NAME, StatusBarPlugin()) }
+        // 注册页面链接上报插件，供JDCache空闲预取使用
+        webView?.let {
+            showLog("register ${LinkPrefetchPlugin.NAME}")
+            it.registerPlugin(LinkPrefetchPlugin.NAME, LinkPrefetchPlugin())
+        }
         // 注册其他插件（如有）可以在此处添加
         // 例如：registerPlugin(webView, OtherPlugin.NAME, OtherPlugin())
     }
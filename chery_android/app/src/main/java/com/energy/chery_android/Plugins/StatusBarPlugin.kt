@@ -2,12 +2,13 @@ package com.energy.chery_android.Plugins
 
 import android.app.Activity
 import android.content.Context
+import android.content.res.Configuration
 import android.os.Build
 import android.util.DisplayMetrics
 import android.util.Log
 import android.view.WindowManager
 import com.jd.jdbridge.base.IBridgeCallback
-import com.jd.jdbridge.base.IBridgePlugin
+import com.jd.jdbridge.base.IBridgeSyncPlugin
 import com.jd.jdbridge.base.IBridgeWebView
 import com.jd.jdcache.util.log
 import org.json.JSONObject
@@ -15,24 +16,56 @@ import org.json.JSONObject
 /**
  * 状态栏相关功能插件
  * 提供状态栏高度、导航栏高度、屏幕高度等信息给 JavaScript 调用
+ * 结果只读取现成的系统值，也支持通过_callNativeSync同步获取，首屏渲染时无需等待回调
  */
-class StatusBarPlugin : IBridgePlugin {
+class StatusBarPlugin : IBridgeSyncPlugin {
 
     companion object {
         const val NAME = "StatusBarPlugin"
+
+        /** 可同步调用的获取高度方法，与iOS端的getStatusBarInfo同义 */
+        private val SYNC_METHODS = setOf("getHeights", "getStatusBarInfo")
     }
     private val TAG = "StatusBarPlugin"
+
+    /** 上次结果及其对应的配置，配置（如屏幕方向）不变时直接返回 */
+    @Volatile
+    private var cached: Pair<Configuration, String>? = null
+
     override fun execute(
         webView: IBridgeWebView?,
         method: String?,
         params: String?,
         callback: IBridgeCallback?
     ): Boolean {
-        val context = webView?.view?.context
-        if (context !is Activity) {
+        val jsonString = getHeights(webView)
+        if (jsonString == null) {
             callback?.onError("Context is not Activity")
             return false
         }
+        Log.d(TAG, "execute: ${jsonString}")
+        callback?.onSuccess(jsonString)
+        return true
+    }
+
+    override fun supportsSync(method: String?): Boolean = method in SYNC_METHODS
+
+    override fun executeSync(webView: IBridgeWebView?, method: String?, params: Any?): Any? {
+        return getHeights(webView) ?: throw IllegalStateException("Context is not Activity")
+    }
+
+    /** 状态栏、导航栏和屏幕高度（dp）的json，context不是Activity时返回null */
+    private fun getHeights(webView: IBridgeWebView?): String? {
+        val context = webView?.view?.context
+        if (context !is Activity) {
+            return null
+        }
+        val config = context.resources.configuration
+        cached?.let { (cachedConfig, json) ->
+            if (cachedConfig == config) {
+                return json
+            }
+        }
         val statusBarHeightPx = getStatusBarHeight(context)
         val navBarHeightPx = getNavigationBarHeight(context)
         val screenHeightPx = getScreenHeight(context)
@@ -45,10 +78,9 @@ class StatusBarPlugin : IBridgePlugin {
             "navBarHeight" to navBarHeightDp,
             "screenHeight" to screenHeightDp
         )
-        val jsonString = JSONObject(paramsMap as Map<*, *>).toString()
-        Log.d(TAG, "execute: ${jsonString}")
-        callback?.onSuccess(jsonString)
-        return true
+        val json = JSONObject(paramsMap as Map<*, *>).toString()
+        cached = Configuration(config) to json
+        return json
     }
 
 
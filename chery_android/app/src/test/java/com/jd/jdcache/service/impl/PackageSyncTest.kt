@@ -0,0 +1,158 @@
+package com.jd.jdcache.service.impl
+
+import com.jd.jdcache.JDCacheParamsProvider
+import com.jd.jdcache.JDCacheSetting
+import com.jd.jdcache.entity.JDCachePackage
+import com.jd.jdcache.service.DelegateManager
+import com.jd.jdcache.service.base.JDCacheNetDelegate
+import com.jd.jdcache.service.base.NetState
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.runBlocking
+import org.json.JSONArray
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.nio.file.Files
+
+/**
+ * 用假的网络代理检查离线包清单请求：请求格式、响应解析和失败处理
+ */
+class PackageSyncTest {
+
+    private lateinit var cacheDir: File
+
+    @Before
+    fun setUp() {
+        cacheDir = Files.createTempDirectory("jdcache").toFile()
+        FakeNetDelegate.requests.clear()
+        FakeNetDelegate.response = NetState.Complete(200, null, 0, "")
+        TestParamsProvider.cacheDir = cacheDir.absolutePath
+        JDCacheSetting.setGlobalParamsClass(TestParamsProvider::class.java)
+        DelegateManager.addDelegateClass(FakeNetDelegate::class.java)
+    }
+
+    @After
+    fun tearDown() {
+        cacheDir.deleteRecursively()
+    }
+
+    @Test
+    fun syncPostsInstalledVersionsInOneRequest() = runBlocking {
+        PackageSync.setDesiredPackages(listOf(JDCachePackage("home", "1"), JDCachePackage("cart", "1")))
+        File(cacheDir, "packages/installed.json")
+            .writeText(JSONArray().put(JDCachePackage("home", "11").toJson()).toString())
+        //版本未变化的和没有下载地址的都不需要下载
+        FakeNetDelegate.response = complete("""{"packages":[{"id":"home","version":"11"},{"id":"cart","version":"3"}]}""")
+
+        assertTrue(PackageSync.sync())
+
+        assertEquals(1, FakeNetDelegate.requests.size)
+        val request = FakeNetDelegate.requests[0]
+        assertEquals(TestParamsProvider.MANIFEST_URL, request.url)
+        assertEquals("POST", request.method)
+        val packages = JSONArray(request.body?.get("packages"))
+        val versions = (0 until packages.length()).associate {
+            packages.getJSONObject(it).let { json -> json.getString("id") to json.getString("version") }
+        }
+        assertEquals(mapOf("home" to "11", "cart" to ""), versions)
+    }
+
+    @Test
+    fun syncFailsOnServerError() = runBlocking {
+        PackageSync.setDesiredPackages(listOf(JDCachePackage("home", "1")))
+        FakeNetDelegate.response = NetState.Error(500, IOException("Response code is 500"))
+
+        assertFalse(PackageSync.sync())
+        assertEquals(1, FakeNetDelegate.requests.size)
+    }
+
+    @Test
+    fun syncFailsOnIllegalManifest() = runBlocking {
+        PackageSync.setDesiredPackages(listOf(JDCachePackage("home", "1")))
+        FakeNetDelegate.response = complete("<html></html>")
+
+        assertFalse(PackageSync.sync())
+    }
+
+    @Test
+    fun syncSkipsRequestWithoutDesiredPackages() = runBlocking {
+        assertTrue(PackageSync.sync())
+        assertTrue(FakeNetDelegate.requests.isEmpty())
+    }
+
+    private fun complete(data: String): NetState<String> =
+        NetState.Complete(200, null, data.length.toLong(), data)
+}
+
+class TestParamsProvider : JDCacheParamsProvider() {
+
+    companion object {
+        const val MANIFEST_URL = "https://example.com/manifest"
+        var cacheDir: String? = null
+    }
+
+    override val cacheDir: String?
+        get() = Companion.cacheDir
+
+    override fun getUserAgent(url: String?): String? = "PackageSyncTest"
+
+    override fun getCookie(url: String?): String = ""
+
+    override fun packageSyncConfig(): PackageSyncConfig = PackageSyncConfig(MANIFEST_URL)
+}
+
+/**
+ * 记录清单请求并返回预设的响应，不访问网络
+ */
+class FakeNetDelegate : JDCacheNetDelegate() {
+
+    class Request(val url: String, val method: String, val body: Map<String, String>?)
+
+    companion object {
+        val requests = mutableListOf<Request>()
+        var response: NetState<String> = NetState.Complete(200, null, 0, "")
+    }
+
+    override val name: String = "FakeNetDelegate"
+
+    override fun requestFlow(
+        url: String,
+        method: String,
+        header: MutableMap<String?, String>?,
+        userAgent: String?,
+        cookie: String?,
+        body: MutableMap<String, String>?,
+        followRedirect: Boolean
+    ): Flow<NetState<String>> {
+        requests += Request(url, method, body?.toMap())
+        return flowOf(response)
+    }
+
+    override fun connectFlow(
+        url: String,
+        method: String,
+        header: MutableMap<String?, String>?,
+        userAgent: String?,
+        cookie: String?,
+        body: MutableMap<String, String>?,
+        followRedirect: Boolean
+    ): Flow<NetState<InputStream?>>? = null
+
+    override fun downloadFlow(
+        url: String,
+        savePath: String,
+        method: String,
+        header: MutableMap<String?, String>?,
+        userAgent: String?,
+        cookie: String?,
+        followRedirect: Boolean,
+        keepEncoded: Boolean
+    ): Flow<NetState<File>>? = null
+}
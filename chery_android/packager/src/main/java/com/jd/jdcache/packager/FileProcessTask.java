@@ -0,0 +1,112 @@
+package com.jd.jdcache.packager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 并行处理文件：复制到输出目录、计算hash、生成gzip预压缩文件（原路径加.gz）。
+ * 文件列表对半拆分，直到每个子任务不超过{@link #THRESHOLD}个文件。
+ */
+final class FileProcessTask extends RecursiveTask<List<ProcessedFile>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int THRESHOLD = 8;
+
+    /** 小于此大小的文件不压缩 */
+    private static final int MIN_COMPRESS_SIZE = 1024;
+
+    /** 压缩后不超过原大小的此比例才保留预压缩内容 */
+    private static final double MAX_COMPRESS_RATIO = 0.9;
+
+    private final File root;
+    private final File outDir;
+    private final List<String> paths;
+    private final int from;
+    private final int to;
+
+    FileProcessTask(File root, File outDir, List<String> paths, int from, int to) {
+        this.root = root;
+        this.outDir = outDir;
+        this.paths = paths;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected List<ProcessedFile> compute() {
+        if (to - from <= THRESHOLD) {
+            List<ProcessedFile> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                result.add(process(paths.get(i)));
+            }
+            return result;
+        }
+        int middle = (from + to) >>> 1;
+        FileProcessTask left = new FileProcessTask(root, outDir, paths, from, middle);
+        FileProcessTask right = new FileProcessTask(root, outDir, paths, middle, to);
+        left.fork();
+        List<ProcessedFile> result = new ArrayList<>(right.compute());
+        result.addAll(0, left.join());
+        return result;
+    }
+
+    private ProcessedFile process(String path) {
+        try {
+            byte[] content = Files.readAllBytes(new File(root, path).toPath());
+            File target = new File(outDir, path);
+            File parent = target.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Cannot create directory " + parent);
+            }
+            Files.write(target.toPath(), content);
+            long gzipSize = -1;
+            if (content.length >= MIN_COMPRESS_SIZE && MimeTypes.isCompressible(path)) {
+                byte[] compressed = gzip(content);
+                if (compressed.length <= content.length * MAX_COMPRESS_RATIO) {
+                    Files.write(new File(outDir, path + ".gz").toPath(), compressed);
+                    gzipSize = compressed.length;
+                }
+            }
+            return new ProcessedFile(path, content.length, sha256(content), gzipSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot process " + path, e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.jd.jdcache.packager;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 按扩展名确定Content-Type，以及JDCacheLocalResp的type
+ */
+final class MimeTypes {
+
+    private static final Map<String, String> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put("html", "text/html; charset=utf-8");
+        TYPES.put("htm", "text/html; charset=utf-8");
+        TYPES.put("js", "application/javascript; charset=utf-8");
+        TYPES.put("mjs", "application/javascript; charset=utf-8");
+        TYPES.put("css", "text/css; charset=utf-8");
+        TYPES.put("json", "application/json");
+        TYPES.put("map", "application/json");
+        TYPES.put("txt", "text/plain; charset=utf-8");
+        TYPES.put("xml", "application/xml");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("avif", "image/avif");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("otf", "font/otf");
+        TYPES.put("wasm", "application/wasm");
+        TYPES.put("mp4", "video/mp4");
+        TYPES.put("mp3", "audio/mpeg");
+    }
+
+    private MimeTypes() {
+    }
+
+    static String extension(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash ? path.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    static String contentType(String path) {
+        String type = TYPES.get(extension(path));
+        return type != null ? type : "application/octet-stream";
+    }
+
+    /**
+     * 文本类资源压缩收益明显，图片、字体、音视频本身已压缩
+     */
+    static boolean isCompressible(String path) {
+        String type = contentType(path);
+        return type.startsWith("text/")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/json")
+                || type.startsWith("application/xml")
+                || type.startsWith("image/svg")
+                || type.startsWith("application/wasm");
+    }
+
+    /**
+     * 对应JDCacheLocalResp的type：html/script/stylesheet/image/other
+     */
+    static String resourceType(String path) {
+        switch (extension(path)) {
+            case "html":
+            case "htm":
+                return "html";
+            case "js":
+            case "mjs":
+                return "script";
+            case "css":
+                return "stylesheet";
+            default:
+                return contentType(path).startsWith("image/") ? "image" : "other";
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.jd.jdcache.packager;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 把web构建产物编译为离线包：
+ * <ol>
+ *     <li>并行复制文件、计算sha256、生成gzip预压缩文件</li>
+ *     <li>按内容去重，重复文件只保留一份</li>
+ *     <li>生成运行时MapResourceMatcher使用的resource.json和包描述package-info.json</li>
+ *     <li>打成zip，条目顺序和时间固定，同样的输入得到完全相同的包</li>
+ * </ol>
+ */
+final class PackageCompiler {
+
+    static final String RESOURCE_FILE = "resource.json";
+    static final String INFO_FILE = "package-info.json";
+
+    /** 1980-01-01，zip格式能表示的最早时间 */
+    private static final long ZIP_TIME = 315532800000L;
+
+    /** Vite产物文件名中的hash，与ViteDataSourceBuilder一致 */
+    private static final Pattern HASHED_NAME = Pattern.compile(".+[-.][A-Za-z0-9_-]{8,}\\.[a-z0-9]+$");
+
+    private final File distDir;
+    private final String baseUrl;
+    private final String id;
+    private final String version;
+    private final File outDir;
+    private final boolean keepOriginal;
+    private final int parallelism;
+
+    /**
+     * @param keepOriginal 有gzip预压缩文件时也保留原文件，默认只保留压缩后的文件
+     */
+    PackageCompiler(File distDir, String baseUrl, String id, String version, File outDir,
+                    boolean keepOriginal, int parallelism) {
+        this.distDir = distDir;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.id = id;
+        this.version = version;
+        this.outDir = outDir;
+        this.keepOriginal = keepOriginal;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return 生成的zip文件
+     */
+    File compile() throws IOException {
+        if (!distDir.isDirectory()) {
+            throw new IOException("Dist directory not found: " + distDir);
+        }
+        URI base = URI.create(baseUrl);
+        if (base.getHost() == null) {
+            throw new IllegalArgumentException("Invalid base url: " + baseUrl);
+        }
+        String name = id + "-" + version;
+        File stageDir = new File(outDir, name);
+        deleteRecursively(stageDir.toPath());
+        if (!stageDir.mkdirs()) {
+            throw new IOException("Cannot create directory " + stageDir);
+        }
+
+        List<String> paths = listFiles();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<ProcessedFile> files;
+        try {
+            files = pool.invoke(new FileProcessTask(distDir, stageDir, paths, 0, paths.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        List<PackageEntry> entries = new ArrayList<>(files.size());
+        Map<String, ProcessedFile> unique = new HashMap<>();
+        long originalSize = 0;
+        long storedSize = 0;
+        for (ProcessedFile file : files) {
+            originalSize += file.size;
+            ProcessedFile stored = unique.putIfAbsent(file.sha256, file);
+            if (stored == null) {
+                stored = file;
+                if (stored.hasGzip() && !keepOriginal) {
+                    Files.delete(new File(stageDir, stored.path).toPath());
+                }
+                storedSize += stored.hasGzip() && !keepOriginal ? stored.gzipSize : stored.size;
+                if (stored.hasGzip() && keepOriginal) {
+                    storedSize += stored.gzipSize;
+                }
+            } else {
+                //内容相同，引用第一份
+                Files.delete(new File(stageDir, file.path).toPath());
+                if (file.hasGzip()) {
+                    Files.delete(new File(stageDir, file.path + ".gz").toPath());
+                }
+            }
+            entries.add(toEntry(file, stored));
+        }
+
+        writeResources(entries, new File(stageDir, RESOURCE_FILE));
+        writeInfo(files, unique, originalSize, storedSize, new File(stageDir, INFO_FILE));
+
+        File zip = new File(outDir, name + ".zip");
+        zip(stageDir, zip);
+        System.out.printf("Packaged %d file(s) (%d unique), %d -> %d bytes, zip %d bytes: %s%n",
+                files.size(), unique.size(), originalSize, storedSize, zip.length(), zip.getPath());
+        return zip;
+    }
+
+    private List<String> listFiles() throws IOException {
+        Path root = distDir.toPath();
+        List<String> paths = new ArrayList<>();
+        Files.walkFileTree(root, new java.nio.file.SimpleFileVisitor<Path>() {
+            @Override
+            public java.nio.file.FileVisitResult preVisitDirectory(
+                    Path dir, java.nio.file.attribute.BasicFileAttributes attrs) {
+                //.vite目录只有构建清单，不需要打包
+                return dir.getFileName() != null && ".vite".equals(dir.getFileName().toString())
+                        ? java.nio.file.FileVisitResult.SKIP_SUBTREE
+                        : java.nio.file.FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public java.nio.file.FileVisitResult visitFile(
+                    Path file, java.nio.file.attribute.BasicFileAttributes attrs) {
+                String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if (attrs.isRegularFile() && !isGenerated(path)) {
+                    paths.add(path);
+                }
+                return java.nio.file.FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static boolean isGenerated(String path) {
+        return path.equals(RESOURCE_FILE) || path.equals(INFO_FILE);
+    }
+
+    private PackageEntry toEntry(ProcessedFile file, ProcessedFile stored) {
+        String url = baseUrl + file.path;
+        boolean gzip = stored.hasGzip() && !keepOriginal;
+        String fileName = file.path.substring(file.path.lastIndexOf('/') + 1);
+        boolean immutable = !"html".equals(MimeTypes.resourceType(file.path))
+                && HASHED_NAME.matcher(fileName).matches();
+        return new PackageEntry(url, gzip ? stored.path + ".gz" : stored.path,
+                MimeTypes.contentType(file.path), MimeTypes.resourceType(file.path), gzip, immutable);
+    }
+
+    /**
+     * 与JDCacheLocalResp的json格式一致。预压缩的文件带Content-Encoding: gzip，使用时再解压
+     */
+    private static void writeResources(List<PackageEntry> entries, File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write('[');
+            for (int i = 0; i < entries.size(); i++) {
+                PackageEntry entry = entries.get(i);
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write("\n{\"url\":" + Json.quote(entry.url)
+                        + ",\"type\":" + Json.quote(entry.type)
+                        + ",\"filename\":" + Json.quote(entry.storedPath)
+                        + ",\"header\":{\"Content-Type\":" + Json.quote(entry.contentType));
+                if (entry.gzip) {
+                    writer.write(",\"Content-Encoding\":\"gzip\"");
+                }
+                if (entry.immutable) {
+                    writer.write(",\"Cache-Control\":\"public, max-age=31536000, immutable\"");
+                }
+                writer.write("}}");
+            }
+            writer.write("\n]\n");
+        }
+    }
+
+    private void writeInfo(List<ProcessedFile> files, Map<String, ProcessedFile> unique,
+                           long originalSize, long storedSize, File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\"id\":" + Json.quote(id)
+                    + ",\"version\":" + Json.quote(version)
+                    + ",\"baseUrl\":" + Json.quote(baseUrl)
+                    + ",\"fileCount\":" + files.size()
+                    + ",\"uniqueFileCount\":" + unique.size()
+                    + ",\"originalSize\":" + originalSize
+                    + ",\"storedSize\":" + storedSize
+                    + ",\"files\":[");
+            for (int i = 0; i < files.size(); i++) {
+                ProcessedFile processed = files.get(i);
+                writer.write((i > 0 ? ",\n" : "\n") + "{\"path\":" + Json.quote(processed.path)
+                        + ",\"size\":" + processed.size
+                        + ",\"sha256\":" + Json.quote(processed.sha256) + "}");
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    /**
+     * 条目按路径排序、时间固定，保证可复现
+     */
+    private static void zip(File dir, File zip) throws IOException {
+        Path root = dir.toPath();
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(p -> root.relativize(p).toString().replace(File.separatorChar, '/')))
+                    .collect(java.util.stream.Collectors.toList());
+        }
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)))) {
+            for (Path file : files) {
+                ZipEntry entry = new ZipEntry(root.relativize(file).toString().replace(File.separatorChar, '/'));
+                entry.setTime(ZIP_TIME);
+                out.putNextEntry(entry);
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(path)) {
+            List<Path> all = stream.sorted(Comparator.reverseOrder()).collect(java.util.stream.Collectors.toList());
+            for (Path p : all) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.jd.jdcache.packager;
+
+/**
+ * 离线包中的一个资源
+ */
+final class PackageEntry {
+
+    /** 部署后的url */
+    final String url;
+    /** 离线包中的文件，相对包根目录 */
+    final String storedPath;
+    final String contentType;
+    final String type;
+    /** 保存的是gzip预压缩内容，使用时需按Content-Encoding: gzip解压 */
+    final boolean gzip;
+    /** 文件名带hash，内容不会变化 */
+    final boolean immutable;
+
+    PackageEntry(String url, String storedPath, String contentType, String type,
+                 boolean gzip, boolean immutable) {
+        this.url = url;
+        this.storedPath = storedPath;
+        this.contentType = contentType;
+        this.type = type;
+        this.gzip = gzip;
+        this.immutable = immutable;
+    }
+}
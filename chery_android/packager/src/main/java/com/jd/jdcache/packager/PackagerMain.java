@@ -0,0 +1,56 @@
+package com.jd.jdcache.packager;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 命令行入口
+ * <pre>
+ * java -jar packager.jar --dist web/dist --base-url https://m.example.com/app/ --id h5 --version 12 --out build/offline
+ * </pre>
+ */
+public final class PackagerMain {
+
+    private PackagerMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        boolean keepOriginal = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--keep-original".equals(arg)) {
+                keepOriginal = true;
+            } else if (arg.startsWith("--") && i + 1 < args.length) {
+                options.put(arg.substring(2), args[++i]);
+            } else {
+                usage("Unknown argument: " + arg);
+                return;
+            }
+        }
+        String baseUrl = options.get("base-url");
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            usage("--base-url is required");
+            return;
+        }
+        int parallelism = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        new PackageCompiler(
+                new File(options.getOrDefault("dist", "dist")),
+                baseUrl,
+                options.getOrDefault("id", "h5"),
+                options.getOrDefault("version", "1"),
+                new File(options.getOrDefault("out", "offline")),
+                keepOriginal,
+                Math.max(1, parallelism)
+        ).compile();
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: --dist <dir> --base-url <url> [--id <id>] [--version <version>]"
+                + " [--out <dir>] [--threads <n>] [--keep-original]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,27 @@
+package com.jd.jdcache.packager;
+
+/**
+ * 单个文件的处理结果
+ */
+final class ProcessedFile {
+
+    /** 相对dist目录的路径，分隔符为/ */
+    final String path;
+    /** 原始大小 */
+    final long size;
+    /** 原始内容的sha256（hex） */
+    final String sha256;
+    /** gzip预压缩后的大小，不值得压缩时为-1 */
+    final long gzipSize;
+
+    ProcessedFile(String path, long size, String sha256, long gzipSize) {
+        this.path = path;
+        this.size = size;
+        this.sha256 = sha256;
+        this.gzipSize = gzipSize;
+    }
+
+    boolean hasGzip() {
+        return gzipSize >= 0;
+    }
+}
@@ -0,0 +1,206 @@
+package com.jd.jdcache.packager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackageCompilerTest {
+
+    private static final Pattern RESOURCE = Pattern.compile(
+            "\\{\"url\":\"([^\"]*)\",\"type\":\"([^\"]*)\",\"filename\":\"([^\"]*)\",\"header\":\\{([^}]*)\\}\\}");
+
+    private Path tempDir;
+    private File distDir;
+    private File outDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("packager");
+        distDir = tempDir.resolve("dist").toFile();
+        outDir = tempDir.resolve("out").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(tempDir)) {
+            for (Path path : (Iterable<Path>) stream.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void duplicatedFilesAreStoredOnce() throws IOException {
+        String script = repeat("console.log('shared');\n", 10);
+        write("assets/a-3f9a8b7c.js", script);
+        write("assets/b-1d2e3f4a.js", script);
+        write("index.html", "<html></html>");
+
+        File stage = compile(false);
+        Map<String, Resource> resources = readResources(stage);
+
+        Resource a = resources.get("https://m.example.com/app/assets/a-3f9a8b7c.js");
+        Resource b = resources.get("https://m.example.com/app/assets/b-1d2e3f4a.js");
+        assertEquals(a.filename, b.filename);
+        assertTrue(new File(stage, a.filename).isFile());
+        //第二份及其预压缩文件都被删除
+        assertEquals(1, countFiles(new File(stage, "assets")));
+    }
+
+    @Test
+    public void compressibleFilesKeepOnlyGzipVariant() throws IOException {
+        String script = repeat("function hello() { return 'hello world'; }\n", 100);
+        write("assets/app-3f9a8b7c.js", script);
+        write("tiny.js", "1");
+
+        File stage = compile(false);
+        Map<String, Resource> resources = readResources(stage);
+
+        Resource app = resources.get("https://m.example.com/app/assets/app-3f9a8b7c.js");
+        assertEquals("assets/app-3f9a8b7c.js.gz", app.filename);
+        assertTrue(app.header.contains("\"Content-Encoding\":\"gzip\""));
+        assertTrue(app.header.contains("immutable"));
+        assertFalse(new File(stage, "assets/app-3f9a8b7c.js").exists());
+        assertArrayEquals(script.getBytes(StandardCharsets.UTF_8), gunzip(new File(stage, app.filename)));
+
+        //太小的文件不压缩
+        Resource tiny = resources.get("https://m.example.com/app/tiny.js");
+        assertEquals("tiny.js", tiny.filename);
+        assertFalse(tiny.header.contains("Content-Encoding"));
+        assertFalse(new File(stage, "tiny.js.gz").exists());
+    }
+
+    @Test
+    public void keepOriginalStoresBothVariants() throws IOException {
+        write("style.css", repeat("body { margin: 0; padding: 0; }\n", 100));
+
+        File stage = compile(true);
+        Resource style = readResources(stage).get("https://m.example.com/app/style.css");
+
+        assertEquals("style.css", style.filename);
+        assertFalse(style.header.contains("Content-Encoding"));
+        assertTrue(new File(stage, "style.css").isFile());
+        assertTrue(new File(stage, "style.css.gz").isFile());
+    }
+
+    @Test
+    public void resourceUrlsMapToRuntimeKeys() throws IOException {
+        write("index.html", "<html></html>");
+        write("sub/page.html", "<html></html>");
+        write("assets/logo.png", "png");
+
+        //基础url不带结尾的/也按目录处理
+        new PackageCompiler(distDir, "https://m.example.com/app", "h5", "1", outDir, false, 2).compile();
+        File stage = new File(outDir, "h5-1");
+        List<String> keys = new ArrayList<>();
+        for (Resource resource : readResources(stage).values()) {
+            keys.add(urlToKey(resource.url));
+            assertTrue(resource.filename, new File(stage, resource.filename).isFile());
+        }
+        keys.sort(null);
+        assertEquals(Arrays.asList(
+                "m.example.com/app/assets/logo.png",
+                "m.example.com/app/index.html",
+                "m.example.com/app/sub/page.html"), keys);
+    }
+
+    private File compile(boolean keepOriginal) throws IOException {
+        File zip = new PackageCompiler(distDir, "https://m.example.com/app/", "h5", "1", outDir,
+                keepOriginal, 2).compile();
+        assertTrue(zip.isFile());
+        return new File(outDir, "h5-1");
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(distDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 与运行时UrlHelper.urlToKey一致：host + path，去掉末尾的/和空格
+     */
+    private static String urlToKey(String url) {
+        URI uri = URI.create(url);
+        String path = uri.getPath();
+        int end = path.length();
+        while (end > 0 && (path.charAt(end - 1) == '/' || path.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return uri.getHost() + path.substring(0, end);
+    }
+
+    private static Map<String, Resource> readResources(File stage) throws IOException {
+        String json = new String(Files.readAllBytes(new File(stage, PackageCompiler.RESOURCE_FILE).toPath()),
+                StandardCharsets.UTF_8);
+        Map<String, Resource> resources = new HashMap<>();
+        Matcher matcher = RESOURCE.matcher(json);
+        while (matcher.find()) {
+            resources.put(matcher.group(1),
+                    new Resource(matcher.group(1), matcher.group(3), matcher.group(4)));
+        }
+        return resources;
+    }
+
+    private static long countFiles(File dir) throws IOException {
+        try (Stream<Path> stream = Files.walk(dir.toPath())) {
+            return stream.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static byte[] gunzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private static final class Resource {
+        final String url;
+        final String filename;
+        final String header;
+
+        Resource(String url, String filename, String header) {
+            this.url = url;
+            this.filename = filename;
+            this.header = header;
+        }
+    }
+}